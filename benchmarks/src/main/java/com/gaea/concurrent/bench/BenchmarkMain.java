@@ -0,0 +1,27 @@
+package com.gaea.concurrent.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC/allocation profiler always enabled. Accepts
+ * the usual JMH command line, e.g.
+ * {@code java -jar target/benchmarks.jar BlockingTransfer -p type=FastBlockingQueue}.
+ *
+ * @author zhenyu.yin
+ *
+ */
+public final class BenchmarkMain {
+
+	private BenchmarkMain() {
+	}
+
+	public static void main(final String[] args) throws RunnerException, CommandLineOptionException {
+		final CommandLineOptions cmd = new CommandLineOptions(args);
+		new Runner(new OptionsBuilder().parent(cmd).addProfiler(GCProfiler.class).build()).run();
+	}
+}
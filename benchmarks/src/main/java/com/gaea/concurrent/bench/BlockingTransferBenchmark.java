@@ -0,0 +1,279 @@
+package com.gaea.concurrent.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lmax.disruptor.EventFactory;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.WorkHandler;
+import com.lmax.disruptor.YieldingWaitStrategy;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+import com.lmax.disruptor.util.DaemonThreadFactory;
+
+/**
+ * Blocking {@code put}/{@code take}/{@code drainTo} transfer benchmark.
+ * <p>
+ * Each invocation moves {@link #TRANSFERS} elements from {@code producers}
+ * threads to {@code consumers} threads and waits until every element has been
+ * consumed, so the reported score is the cost of one hand-off. Producer and
+ * consumer threads live for the whole trial; every thread gets a fixed quota,
+ * so no thread is left blocked in {@code take()} when an invocation ends.
+ * {@code drainBatch == 1} consumes with {@code take()}, larger values with
+ * {@code drainTo(c, drainBatch)} falling back to {@code take()} when the queue
+ * is empty. The {@code Disruptor} type publishes into a {@link RingBuffer}
+ * consumed by a worker pool and ignores {@code drainBatch}.
+ *
+ * @author zhenyu.yin
+ *
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+@State(Scope.Benchmark)
+public class BlockingTransferBenchmark {
+
+	/** elements per invocation, divisible by every producer/consumer count */
+	public static final int TRANSFERS = 1 << 18;
+
+	static final Integer ELEMENT = 777;
+
+	@Param({ "FastBlockingQueue", "FastStripedQueue", "FastChunkedQueue", "ArrayBlockingQueue", "LinkedBlockingQueue", "Disruptor" })
+	public String type;
+
+	@Param({ "1024", "32768", "65536", "1048576" })
+	public int capacity;
+
+	@Param({ "1", "4" })
+	public int producers;
+
+	@Param({ "1", "4" })
+	public int consumers;
+
+	@Param({ "1", "64" })
+	public int drainBatch;
+
+	private ExecutorService threads;
+	private BlockingQueue<Integer> queue;
+	private List<List<Integer>> sinks;
+
+	private Disruptor<IntEvent> disruptor;
+	private RingBuffer<IntEvent> ringBuffer;
+	private CountingHandler[] handlers;
+	private long consumed;
+
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+	@Setup(Level.Trial)
+	public void setup() {
+		if (TRANSFERS % producers != 0 || TRANSFERS % consumers != 0) {
+			throw new IllegalArgumentException("producers and consumers must divide " + TRANSFERS);
+		}
+		threads = Executors.newFixedThreadPool(producers + consumers, DaemonThreadFactory.INSTANCE);
+		if ("Disruptor".equals(type)) {
+			setupDisruptor();
+			return;
+		}
+		queue = QueueFactory.newBlockingQueue(type, capacity);
+		sinks = new ArrayList<List<Integer>>(consumers);
+		for (int i = 0; i < consumers; i++) {
+			sinks.add(new ArrayList<Integer>(drainBatch));
+		}
+	}
+
+	private void setupDisruptor() {
+		disruptor = new Disruptor<IntEvent>(IntEvent.FACTORY, capacity, DaemonThreadFactory.INSTANCE,
+				ProducerType.MULTI, new YieldingWaitStrategy());
+		handlers = new CountingHandler[consumers];
+		for (int i = 0; i < consumers; i++) {
+			handlers[i] = new CountingHandler();
+		}
+		disruptor.handleEventsWithWorkerPool(handlers);
+		ringBuffer = disruptor.start();
+		consumed = 0;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		threads.shutdownNow();
+		if (disruptor != null) {
+			disruptor.halt();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(TRANSFERS)
+	public void transfer() throws Throwable {
+		if (disruptor != null) {
+			transferDisruptor();
+		} else {
+			transferQueue();
+		}
+		final Throwable t = failure.getAndSet(null);
+		if (t != null) {
+			throw t;
+		}
+	}
+
+	private void transferQueue() throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(producers + consumers);
+		for (int i = 0; i < consumers; i++) {
+			threads.execute(new Consumer(sinks.get(i), TRANSFERS / consumers, done));
+		}
+		for (int i = 0; i < producers; i++) {
+			threads.execute(new Producer(TRANSFERS / producers, done));
+		}
+		done.await();
+	}
+
+	private void transferDisruptor() throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(producers);
+		for (int i = 0; i < producers; i++) {
+			threads.execute(new Publisher(TRANSFERS / producers, done));
+		}
+		done.await();
+		consumed += TRANSFERS;
+		while (processed() < consumed) {
+			LockSupport.parkNanos(1000);
+		}
+	}
+
+	private long processed() {
+		long sum = 0;
+		for (CountingHandler handler : handlers) {
+			sum += handler.processed.get();
+		}
+		return sum;
+	}
+
+	private final class Producer implements Runnable {
+		private final int quota;
+		private final CountDownLatch done;
+
+		Producer(final int quota, final CountDownLatch done) {
+			this.quota = quota;
+			this.done = done;
+		}
+
+		@Override
+		public void run() {
+			try {
+				for (int i = 0; i < quota; i++) {
+					queue.put(ELEMENT);
+				}
+			} catch (Throwable t) {
+				failure.compareAndSet(null, t);
+			} finally {
+				done.countDown();
+			}
+		}
+	}
+
+	private final class Consumer implements Runnable {
+		private final List<Integer> sink;
+		private final int quota;
+		private final CountDownLatch done;
+
+		Consumer(final List<Integer> sink, final int quota, final CountDownLatch done) {
+			this.sink = sink;
+			this.quota = quota;
+			this.done = done;
+		}
+
+		@Override
+		public void run() {
+			try {
+				int remaining = quota;
+				while (remaining > 0) {
+					if (drainBatch > 1) {
+						final int n = queue.drainTo(sink, Math.min(drainBatch, remaining));
+						sink.clear();
+						if (n > 0) {
+							remaining -= n;
+							continue;
+						}
+					}
+					queue.take();
+					remaining--;
+				}
+			} catch (Throwable t) {
+				failure.compareAndSet(null, t);
+			} finally {
+				done.countDown();
+			}
+		}
+	}
+
+	private final class Publisher implements Runnable {
+		private final int quota;
+		private final CountDownLatch done;
+
+		Publisher(final int quota, final CountDownLatch done) {
+			this.quota = quota;
+			this.done = done;
+		}
+
+		@Override
+		public void run() {
+			try {
+				for (int i = 0; i < quota; i++) {
+					final long sequence = ringBuffer.next();
+					try {
+						ringBuffer.get(sequence).value = ELEMENT;
+					} finally {
+						ringBuffer.publish(sequence);
+					}
+				}
+			} catch (Throwable t) {
+				failure.compareAndSet(null, t);
+			} finally {
+				done.countDown();
+			}
+		}
+	}
+
+	static final class IntEvent {
+		static final EventFactory<IntEvent> FACTORY = new EventFactory<IntEvent>() {
+			@Override
+			public IntEvent newInstance() {
+				return new IntEvent();
+			}
+		};
+
+		Integer value;
+	}
+
+	static final class CountingHandler implements WorkHandler<IntEvent> {
+		final AtomicLong processed = new AtomicLong();
+
+		@Override
+		public void onEvent(final IntEvent event) {
+			processed.lazySet(processed.get() + 1);
+		}
+	}
+}
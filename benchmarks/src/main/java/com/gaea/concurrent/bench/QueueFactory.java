@@ -0,0 +1,58 @@
+package com.gaea.concurrent.bench;
+
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.gaea.concurrent.FastBlockingQueue;
+import com.gaea.concurrent.FastChunkedQueue;
+import com.gaea.concurrent.FastQueue;
+import com.gaea.concurrent.FastStripedQueue;
+import com.gaea.concurrent.FastXaddQueue;
+import com.gaea.concurrent.ShardLayout;
+import com.gaea.concurrent.WaitStrategy;
+
+/**
+ * Creates the queue implementations compared by the benchmarks, keyed by the
+ * {@code type} parameter.
+ *
+ * @author zhenyu.yin
+ *
+ */
+final class QueueFactory {
+
+	private QueueFactory() {
+	}
+
+	static Queue<Integer> newQueue(final String type, final int capacity) {
+		switch (type) {
+		case "FastQueue":
+			return new FastQueue<Integer>(capacity);
+		case "PaddedFastQueue":
+			return new FastQueue<Integer>(capacity, WaitStrategy.blocking(), ShardLayout.padded(15, 1));
+		case "FastXaddQueue":
+			return new FastXaddQueue<Integer>(capacity);
+		default:
+			return newBlockingQueue(type, capacity);
+		}
+	}
+
+	static BlockingQueue<Integer> newBlockingQueue(final String type, final int capacity) {
+		switch (type) {
+		case "FastBlockingQueue":
+			return new FastBlockingQueue<Integer>(capacity);
+		case "FastChunkedQueue":
+			return new FastChunkedQueue<Integer>(Math.min(capacity, FastChunkedQueue.DEFAULT_CHUNK_SIZE), capacity,
+					WaitStrategy.blocking());
+		case "FastStripedQueue":
+			return new FastStripedQueue<Integer>(capacity);
+		case "ArrayBlockingQueue":
+			return new ArrayBlockingQueue<Integer>(capacity);
+		case "LinkedBlockingQueue":
+			return new LinkedBlockingQueue<Integer>(capacity);
+		default:
+			throw new IllegalArgumentException("unknown queue type: " + type);
+		}
+	}
+}
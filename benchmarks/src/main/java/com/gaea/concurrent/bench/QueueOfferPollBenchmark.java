@@ -0,0 +1,166 @@
+package com.gaea.concurrent.bench;
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Non-blocking {@code offer}/{@code poll} throughput and per-op latency.
+ * <p>
+ * Every group is one producer/consumer thread matrix (1P1C, 1PnC, nP1C, nPnC).
+ * A failed {@code offer} (queue full) or {@code poll} (queue empty) is counted
+ * separately, so the reported {@code offersMade}/{@code pollsMade} are the
+ * successful transfers only. Capacities straddle
+ * {@code ShardRingBuffer.DEFAULT_BUFFER_LEVEL}: 2^15 is still a single shard,
+ * 2^16 and above are split into several.
+ *
+ * @author zhenyu.yin
+ *
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+@State(Scope.Group)
+public class QueueOfferPollBenchmark {
+
+	static final Integer ELEMENT = 777;
+
+	@Param({ "FastQueue", "PaddedFastQueue", "FastXaddQueue", "FastBlockingQueue", "FastStripedQueue", "FastChunkedQueue", "ArrayBlockingQueue", "LinkedBlockingQueue" })
+	public String type;
+
+	@Param({ "1024", "32768", "65536", "1048576" })
+	public int capacity;
+
+	Queue<Integer> queue;
+
+	@Setup(Level.Trial)
+	public void createQueue() {
+		queue = QueueFactory.newQueue(type, capacity);
+	}
+
+	@TearDown(Level.Iteration)
+	public void clearQueue() {
+		while (queue.poll() != null) {
+			// 清空残留元素,避免影响下一轮迭代
+		}
+	}
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class OfferCounters {
+		public long offersFailed;
+		public long offersMade;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			offersFailed = 0;
+			offersMade = 0;
+		}
+	}
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class PollCounters {
+		public long pollsFailed;
+		public long pollsMade;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			pollsFailed = 0;
+			pollsMade = 0;
+		}
+	}
+
+	private void offer(final OfferCounters counters) {
+		if (queue.offer(ELEMENT)) {
+			counters.offersMade++;
+		} else {
+			counters.offersFailed++;
+		}
+	}
+
+	private void poll(final PollCounters counters, final Blackhole bh) {
+		final Integer e = queue.poll();
+		if (e != null) {
+			counters.pollsMade++;
+			bh.consume(e);
+		} else {
+			counters.pollsFailed++;
+		}
+	}
+
+	@Benchmark
+	@Group("p1c1")
+	@GroupThreads(1)
+	public void p1c1Offer(final OfferCounters counters) {
+		offer(counters);
+	}
+
+	@Benchmark
+	@Group("p1c1")
+	@GroupThreads(1)
+	public void p1c1Poll(final PollCounters counters, final Blackhole bh) {
+		poll(counters, bh);
+	}
+
+	@Benchmark
+	@Group("p1cN")
+	@GroupThreads(1)
+	public void p1cNOffer(final OfferCounters counters) {
+		offer(counters);
+	}
+
+	@Benchmark
+	@Group("p1cN")
+	@GroupThreads(4)
+	public void p1cNPoll(final PollCounters counters, final Blackhole bh) {
+		poll(counters, bh);
+	}
+
+	@Benchmark
+	@Group("pNc1")
+	@GroupThreads(4)
+	public void pNc1Offer(final OfferCounters counters) {
+		offer(counters);
+	}
+
+	@Benchmark
+	@Group("pNc1")
+	@GroupThreads(1)
+	public void pNc1Poll(final PollCounters counters, final Blackhole bh) {
+		poll(counters, bh);
+	}
+
+	@Benchmark
+	@Group("pNcN")
+	@GroupThreads(4)
+	public void pNcNOffer(final OfferCounters counters) {
+		offer(counters);
+	}
+
+	@Benchmark
+	@Group("pNcN")
+	@GroupThreads(4)
+	public void pNcNPoll(final PollCounters counters, final Blackhole bh) {
+		poll(counters, bh);
+	}
+}
@@ -0,0 +1,229 @@
+package com.gaea.concurrent.flow;
+
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.gaea.concurrent.ElementHandler;
+import com.gaea.concurrent.FastQueue;
+
+/**
+ * {@link Flow.Publisher} that emits the elements of a {@link FastQueue}.
+ * Shipped in the separate {@code fast-queue-flow} artifact, which needs
+ * JDK 9+.
+ * <p>
+ * No thread waits on the queue. Producers {@link #offer} through the
+ * publisher, or offer to the queue directly and call {@link #signal()}; this
+ * schedules a drain on the executor for every subscription that has demand.
+ * A drain claims up to {@code request(n)} elements at a time with
+ * {@link FastQueue#drain(ElementHandler, int)}, a single range claim on the
+ * tail, and hands them to {@code onNext} in order.
+ * <p>
+ * Several subscribers compete for the elements, like several consumers of
+ * the queue; each element goes to one of them.
+ *
+ * @author zhenyu.yin
+ *
+ */
+public class FastQueuePublisher<T> implements Flow.Publisher<T> {
+
+	public static final int DEFAULT_MAX_BATCH = 256;
+
+	private final FastQueue<T> queue;
+	private final Executor executor;
+	private final int maxBatch;
+	private final CopyOnWriteArrayList<QueueSubscription> subscriptions = new CopyOnWriteArrayList<QueueSubscription>();
+	private volatile boolean closed;
+	private volatile Throwable error;
+
+	/**
+	 * Emits on {@link ForkJoinPool#commonPool()}.
+	 */
+	public FastQueuePublisher(final FastQueue<T> queue) {
+		this(queue, ForkJoinPool.commonPool(), DEFAULT_MAX_BATCH);
+	}
+
+	/**
+	 * @param executor
+	 *            runs the drains, one at a time per subscription
+	 * @param maxBatch
+	 *            elements claimed from the queue at once at most
+	 * @throws IllegalArgumentException
+	 *             if {@code maxBatch < 1}
+	 */
+	public FastQueuePublisher(final FastQueue<T> queue, final Executor executor, final int maxBatch) {
+		Objects.requireNonNull(queue);
+		Objects.requireNonNull(executor);
+		if (maxBatch < 1) {
+			throw new IllegalArgumentException("maxBatch must not be less than 1");
+		}
+		this.queue = queue;
+		this.executor = executor;
+		this.maxBatch = maxBatch;
+	}
+
+	@Override
+	public void subscribe(final Flow.Subscriber<? super T> subscriber) {
+		Objects.requireNonNull(subscriber);
+		final QueueSubscription s = new QueueSubscription(subscriber);
+		subscriber.onSubscribe(s);
+		// onSubscribe 返回后才加入列表, 保证它先于其他信号; 已关闭的发布者也要发出完成信号
+		if (!s.cancelled) {
+			subscriptions.add(s);
+			s.schedule();
+		}
+	}
+
+	/**
+	 * Offers {@code t} to the queue and lets the subscribers know.
+	 *
+	 * @return false if the queue is full or the publisher is closed
+	 */
+	public boolean offer(final T t) {
+		if (closed || !queue.offer(t)) {
+			return false;
+		}
+		signal();
+		return true;
+	}
+
+	/**
+	 * Tells the subscribers that elements were offered to the queue directly.
+	 */
+	public void signal() {
+		for (QueueSubscription s : subscriptions) {
+			if (s.requested.get() != 0) {
+				s.schedule();
+			}
+		}
+	}
+
+	/**
+	 * Completes every subscriber once the queue is drained.
+	 */
+	public void close() {
+		closed = true;
+		for (QueueSubscription s : subscriptions) {
+			s.schedule();
+		}
+	}
+
+	/**
+	 * Fails every subscriber once the queue is drained.
+	 */
+	public void closeExceptionally(final Throwable error) {
+		Objects.requireNonNull(error);
+		this.error = error;
+		close();
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * @return the number of live subscriptions
+	 */
+	public int getNumberOfSubscribers() {
+		return subscriptions.size();
+	}
+
+	private final class QueueSubscription implements Flow.Subscription, Runnable, ElementHandler<T> {
+
+		private final Flow.Subscriber<? super T> subscriber;
+		final AtomicLong requested = new AtomicLong();
+		/** drains scheduled or running, so that only one runs at a time */
+		private final AtomicInteger wip = new AtomicInteger();
+		volatile boolean cancelled;
+		private volatile Throwable invalidRequest;
+
+		QueueSubscription(final Flow.Subscriber<? super T> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void request(final long n) {
+			if (n <= 0) {
+				invalidRequest = new IllegalArgumentException("non-positive request: " + n);
+			} else {
+				long r;
+				do {
+					r = requested.get();
+				} while (!requested.compareAndSet(r, r + n < 0 ? Long.MAX_VALUE : r + n));
+			}
+			schedule();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			subscriptions.remove(this);
+		}
+
+		void schedule() {
+			if (wip.getAndIncrement() == 0) {
+				executor.execute(this);
+			}
+		}
+
+		@Override
+		public void onElement(final T t) {
+			subscriber.onNext(t);
+		}
+
+		@Override
+		public void run() {
+			int missed = 1;
+			for (;;) {
+				if (cancelled) {
+					return;
+				}
+				if (invalidRequest != null) {
+					terminate(invalidRequest);
+					return;
+				}
+				// 先读关闭标志再看队列: 关闭前入队的元素一定会被发出
+				final boolean done = closed;
+				final long r = requested.get();
+				long emitted = 0;
+				try {
+					while (emitted < r && !cancelled) {
+						final int n = queue.drain(this, (int) Math.min(r - emitted, maxBatch));
+						if (n == 0) {
+							break;
+						}
+						emitted += n;
+					}
+				} catch (Throwable e) {
+					// 订阅者违反规范抛出异常, 视为取消
+					cancel();
+					return;
+				}
+				if (emitted != 0 && r != Long.MAX_VALUE) {
+					requested.addAndGet(-emitted);
+				}
+				if (done && queue.isEmpty()) {
+					terminate(error);
+					return;
+				}
+				missed = wip.addAndGet(-missed);
+				if (missed == 0) {
+					return;
+				}
+			}
+		}
+
+		private void terminate(final Throwable e) {
+			cancel();
+			if (e == null) {
+				subscriber.onComplete();
+			} else {
+				subscriber.onError(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package com.gaea.concurrent.flow;
+
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.gaea.concurrent.ElementHandler;
+import com.gaea.concurrent.FastQueue;
+
+/**
+ * {@link Flow.Subscriber} that feeds a {@link FastQueue}. Shipped in the
+ * separate {@code fast-queue-flow} artifact, which needs JDK 9+.
+ * <p>
+ * Upstream demand follows the free space of the queue: the subscriber never
+ * has more elements requested than the queue can still take, so
+ * {@code onNext} is a single non-blocking offer. Space is handed back
+ * upstream in chunks of at least a quarter of the queue, whenever the
+ * consumers take elements through {@link #poll()} or
+ * {@link #drain(ElementHandler, int)}, or call {@link #replenish()} after
+ * polling the queue directly.
+ * <p>
+ * The subscriber must be the only producer of the queue. If an offer fails
+ * anyway, the subscription is cancelled and the failure is reported by
+ * {@link #getError()}.
+ *
+ * @author zhenyu.yin
+ *
+ */
+public class FastQueueSubscriber<T> implements Flow.Subscriber<T> {
+
+	private final FastQueue<T> queue;
+	private final int capacity;
+	/** smallest demand worth a request */
+	private final int threshold;
+	/** requested from upstream but not received yet */
+	private final AtomicLong pending = new AtomicLong();
+	private volatile Flow.Subscription subscription;
+	private volatile boolean done;
+	private volatile Throwable error;
+
+	public FastQueueSubscriber(final FastQueue<T> queue) {
+		Objects.requireNonNull(queue);
+		this.queue = queue;
+		this.capacity = queue.capacity();
+		this.threshold = Math.max(1, capacity >> 2);
+	}
+
+	@Override
+	public void onSubscribe(final Flow.Subscription subscription) {
+		Objects.requireNonNull(subscription);
+		if (this.subscription != null) {
+			subscription.cancel();
+			return;
+		}
+		this.subscription = subscription;
+		replenish();
+	}
+
+	@Override
+	public void onNext(final T t) {
+		// 先入队再减 pending: 元素短暂地同时计入两者, replenish 只会少算空间
+		final boolean offered = queue.offer(t);
+		pending.decrementAndGet();
+		if (!offered) {
+			// 需求按剩余容量发出, 入队失败说明还有别的生产者
+			fail(new IllegalStateException("queue is full"));
+		}
+	}
+
+	@Override
+	public void onError(final Throwable throwable) {
+		error = throwable;
+		done = true;
+	}
+
+	@Override
+	public void onComplete() {
+		done = true;
+	}
+
+	private void fail(final Throwable e) {
+		error = e;
+		done = true;
+		subscription.cancel();
+	}
+
+	/**
+	 * Requests as many elements as the queue has room for, if that is at
+	 * least a quarter of its capacity.
+	 */
+	public void replenish() {
+		final Flow.Subscription s = subscription;
+		if (s == null || done) {
+			return;
+		}
+		for (;;) {
+			final long p = pending.get();
+			final long free = capacity - queue.size() - p;
+			if (free < threshold || free <= 0) {
+				return;
+			}
+			if (pending.compareAndSet(p, p + free)) {
+				s.request(free);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Polls the queue and hands the freed space upstream.
+	 *
+	 * @return the head element, or null if the queue is empty
+	 */
+	public T poll() {
+		final T t = queue.poll();
+		if (t != null) {
+			replenish();
+		}
+		return t;
+	}
+
+	/**
+	 * Drains the queue like {@link FastQueue#drain(ElementHandler, int)} and
+	 * hands the freed space upstream.
+	 */
+	public int drain(final ElementHandler<? super T> handler, final int limit) {
+		final int n = queue.drain(handler, limit);
+		if (n > 0) {
+			replenish();
+		}
+		return n;
+	}
+
+	/**
+	 * @return true once upstream completed or failed; the queue may still
+	 *         hold elements
+	 */
+	public boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * @return the upstream failure, or null
+	 */
+	public Throwable getError() {
+		return error;
+	}
+
+	public void cancel() {
+		final Flow.Subscription s = subscription;
+		done = true;
+		if (s != null) {
+			s.cancel();
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+
+import org.junit.Test;
+
+import com.gaea.concurrent.FastQueue;
+import com.gaea.concurrent.flow.FastQueuePublisher;
+
+/**
+ * FastQueuePublisher 按 request(n) 批量发出、非法请求与关闭
+ *
+ * @author zhenyu.yin
+ *
+ */
+public class FastQueuePublisherTest {
+
+	/** 在调用线程上执行, 让每次 request 之后的结果可以直接断言 */
+	static final Executor DIRECT = new Executor() {
+		@Override
+		public void execute(final Runnable command) {
+			command.run();
+		}
+	};
+
+	static final class Recorder implements Flow.Subscriber<Integer> {
+
+		final List<Integer> received = new ArrayList<Integer>();
+		Flow.Subscription subscription;
+		boolean completed;
+		Throwable error;
+
+		@Override
+		public void onSubscribe(final Flow.Subscription subscription) {
+			this.subscription = subscription;
+		}
+
+		@Override
+		public void onNext(final Integer item) {
+			received.add(item);
+		}
+
+		@Override
+		public void onError(final Throwable throwable) {
+			error = throwable;
+		}
+
+		@Override
+		public void onComplete() {
+			completed = true;
+		}
+	}
+
+	@Test
+	public void emitsExactlyTheRequestedElements() {
+		final FastQueue<Integer> queue = new FastQueue<Integer>(64);
+		final FastQueuePublisher<Integer> publisher = new FastQueuePublisher<Integer>(queue, DIRECT, 4);
+		for (int i = 0; i < 10; i++) {
+			assertTrue(publisher.offer(i));
+		}
+		final Recorder recorder = new Recorder();
+		publisher.subscribe(recorder);
+		assertTrue(recorder.received.isEmpty());
+		assertEquals(10, queue.size());
+
+		recorder.subscription.request(3);
+		assertEquals(Arrays.asList(0, 1, 2), recorder.received);
+		// 只申请了请求的数量, 其余元素留在队列中
+		assertEquals(7, queue.size());
+
+		// 超过 maxBatch 的请求分批申请, 顺序不变
+		recorder.subscription.request(6);
+		assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8), recorder.received);
+		assertEquals(1, queue.size());
+
+		// 剩余的需求在之后入队时发出
+		recorder.subscription.request(5);
+		assertEquals(10, recorder.received.size());
+		for (int i = 10; i < 14; i++) {
+			assertTrue(publisher.offer(i));
+		}
+		assertEquals(14, recorder.received.size());
+		assertTrue(publisher.offer(14));
+		// 需求已用完
+		assertEquals(14, recorder.received.size());
+		assertEquals(1, queue.size());
+		assertFalse(recorder.completed);
+	}
+
+	@Test
+	public void nonPositiveRequestFails() {
+		final FastQueue<Integer> queue = new FastQueue<Integer>(16);
+		final FastQueuePublisher<Integer> publisher = new FastQueuePublisher<Integer>(queue, DIRECT, 4);
+		publisher.offer(1);
+		final Recorder recorder = new Recorder();
+		publisher.subscribe(recorder);
+		assertEquals(1, publisher.getNumberOfSubscribers());
+		recorder.subscription.request(0);
+		assertTrue(recorder.error instanceof IllegalArgumentException);
+		assertEquals(0, publisher.getNumberOfSubscribers());
+		recorder.subscription.request(1);
+		assertTrue(recorder.received.isEmpty());
+		assertFalse(recorder.completed);
+	}
+
+	@Test
+	public void closeCompletesOnceDrained() {
+		final FastQueue<Integer> queue = new FastQueue<Integer>(16);
+		final FastQueuePublisher<Integer> publisher = new FastQueuePublisher<Integer>(queue, DIRECT, 4);
+		for (int i = 0; i < 5; i++) {
+			publisher.offer(i);
+		}
+		final Recorder recorder = new Recorder();
+		publisher.subscribe(recorder);
+		publisher.close();
+		assertFalse(publisher.offer(5));
+		assertFalse(recorder.completed);
+		recorder.subscription.request(3);
+		assertEquals(3, recorder.received.size());
+		assertFalse(recorder.completed);
+		recorder.subscription.request(10);
+		assertEquals(Arrays.asList(0, 1, 2, 3, 4), recorder.received);
+		assertTrue(recorder.completed);
+		assertEquals(null, recorder.error);
+
+		// 关闭后订阅, 队列为空时立即完成
+		final Recorder late = new Recorder();
+		publisher.subscribe(late);
+		assertTrue(late.completed);
+
+		final FastQueuePublisher<Integer> failing = new FastQueuePublisher<Integer>(new FastQueue<Integer>(16),
+				DIRECT, 4);
+		final Recorder failed = new Recorder();
+		failing.subscribe(failed);
+		final IllegalStateException error = new IllegalStateException("upstream");
+		failing.closeExceptionally(error);
+		assertEquals(error, failed.error);
+	}
+}
@@ -0,0 +1,134 @@
+package demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.gaea.concurrent.FastQueue;
+import com.gaea.concurrent.flow.FastQueuePublisher;
+import com.gaea.concurrent.flow.FastQueueSubscriber;
+
+/**
+ * FastQueueSubscriber 的需求不超过队列剩余空间, 以及发布者到订阅者的桥接
+ *
+ * @author zhenyu.yin
+ *
+ */
+public class FastQueueSubscriberTest {
+
+	static final class CountingSubscription implements Flow.Subscription {
+
+		long requested;
+		boolean cancelled;
+
+		@Override
+		public void request(final long n) {
+			requested += n;
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+		}
+	}
+
+	@Test
+	public void demandNeverExceedsFreeSpace() {
+		final FastQueue<Integer> queue = new FastQueue<Integer>(16);
+		final FastQueueSubscriber<Integer> subscriber = new FastQueueSubscriber<Integer>(queue);
+		final CountingSubscription subscription = new CountingSubscription();
+		subscriber.onSubscribe(subscription);
+		assertEquals(16, subscription.requested);
+
+		int delivered = 0;
+		for (; delivered < 16; delivered++) {
+			subscriber.onNext(delivered);
+		}
+		assertEquals(16, queue.size());
+		subscriber.replenish();
+		assertEquals(16, subscription.requested);
+
+		// 不足容量四分之一的空间先不归还
+		for (int i = 0; i < 3; i++) {
+			assertEquals(Integer.valueOf(i), subscriber.poll());
+			assertTrue(subscription.requested - delivered <= 16 - queue.size());
+		}
+		assertEquals(16, subscription.requested);
+		assertEquals(Integer.valueOf(3), subscriber.poll());
+		assertEquals(20, subscription.requested);
+		assertTrue(subscription.requested - delivered <= 16 - queue.size());
+
+		subscriber.onNext(delivered++);
+		subscriber.onNext(delivered++);
+		assertEquals(Integer.valueOf(4), queue.poll());
+		subscriber.replenish();
+		// 已请求未到达的 2 个元素仍占着空间
+		assertEquals(20, subscription.requested);
+		assertTrue(subscription.requested - delivered <= 16 - queue.size());
+		assertNull(subscriber.getError());
+		assertFalse(subscription.cancelled);
+	}
+
+	@Test
+	public void overflowCancelsUpstream() {
+		final FastQueue<Integer> queue = new FastQueue<Integer>(4);
+		final FastQueueSubscriber<Integer> subscriber = new FastQueueSubscriber<Integer>(queue);
+		final CountingSubscription subscription = new CountingSubscription();
+		subscriber.onSubscribe(subscription);
+		// 另一个生产者占用了空间
+		queue.offer(-1);
+		for (int i = 0; i < 4; i++) {
+			subscriber.onNext(i);
+		}
+		assertTrue(subscription.cancelled);
+		assertTrue(subscriber.isDone());
+		assertTrue(subscriber.getError() instanceof IllegalStateException);
+	}
+
+	@Test
+	public void bridgesPublisherToSubscriber() throws Exception {
+		final FastQueue<Long> source = new FastQueue<Long>(1024);
+		final FastQueuePublisher<Long> publisher = new FastQueuePublisher<Long>(source, ForkJoinPool.commonPool(),
+				64);
+		final FastQueue<Long> sink = new FastQueue<Long>(256);
+		final FastQueueSubscriber<Long> subscriber = new FastQueueSubscriber<Long>(sink);
+		publisher.subscribe(subscriber);
+		final long total = 500000;
+		final Thread producer = new Thread() {
+			@Override
+			public void run() {
+				for (long l = 0; l < total; l++) {
+					while (!publisher.offer(l)) {
+						Thread.yield();
+					}
+				}
+				publisher.close();
+			}
+		};
+		producer.start();
+		long expected = 0;
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+		while (expected < total && System.nanoTime() < deadline) {
+			final Long l = subscriber.poll();
+			if (l == null) {
+				Thread.yield();
+				continue;
+			}
+			assertEquals(expected++, l.longValue());
+		}
+		producer.join();
+		assertEquals(total, expected);
+		while (!subscriber.isDone() && System.nanoTime() < deadline) {
+			Thread.yield();
+		}
+		assertTrue(subscriber.isDone());
+		assertNull(subscriber.getError());
+	}
+}
@@ -0,0 +1,62 @@
+package com.gaea.concurrent;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * {@link ShardRingBuffer} storing every shard in an
+ * {@code AtomicReferenceArray} plus an {@code AtomicLongArray} of sequences.
+ *
+ * @author zhenyu.yin
+ *
+ */
+final class AtomicShardRingBuffer<T> extends ShardRingBuffer<T> {
+
+	private final AtomicReferenceArray<Object>[] nodes;
+	private final AtomicLongArray[] sequences;
+
+	@SuppressWarnings("unchecked")
+	AtomicShardRingBuffer(final int size, final WaitStrategy waitStrategy, final ShardLayout layout) {
+		super(size, waitStrategy, layout);
+		this.nodes = new AtomicReferenceArray[shard];
+		this.sequences = new AtomicLongArray[shard];
+		for (int i = 0; i < shard; i++) {
+			this.nodes[i] = new AtomicReferenceArray<Object>(indexMask + 1);
+			final AtomicLongArray sequence = new AtomicLongArray(indexMask + 1);
+			for (int j = 0; j <= indexMask; j++) {
+				sequence.set(j, initialSequence(i, j));
+			}
+			this.sequences[i] = sequence;
+		}
+	}
+
+	@Override
+	public long sequence(final long index) {
+		return sequences[nodeIndex(index)].get(index(index));
+	}
+
+	@Override
+	void lazySetSequence(final long index, final long sequence) {
+		sequences[nodeIndex(index)].lazySet(index(index), sequence);
+	}
+
+	@Override
+	Object getValue(final long index) {
+		return nodes[nodeIndex(index)].get(index(index));
+	}
+
+	@Override
+	void lazySetValue(final long index, final Object value) {
+		nodes[nodeIndex(index)].lazySet(index(index), value);
+	}
+
+	@Override
+	Object getAndSetValue(final long index, final Object value) {
+		return nodes[nodeIndex(index)].getAndSet(index(index), value);
+	}
+
+	@Override
+	boolean compareAndSetValue(final long index, final Object expect, final Object update) {
+		return nodes[nodeIndex(index)].compareAndSet(index(index), expect, update);
+	}
+}
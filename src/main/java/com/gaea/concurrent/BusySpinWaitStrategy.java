@@ -0,0 +1,15 @@
+package com.gaea.concurrent;
+
+/**
+ * Spins on the cursor without ever giving up the CPU.
+ *
+ * @author zhenyu.yin
+ *
+ */
+final class BusySpinWaitStrategy extends WaitStrategy {
+
+	@Override
+	int idle(final int counter) {
+		return counter + 1;
+	}
+}
@@ -0,0 +1,24 @@
+package com.gaea.concurrent;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Callback that receives the messages read by
+ * {@link FastByteQueue#read(ByteMessageHandler, int)}.
+ *
+ * @author zhenyu.yin
+ *
+ */
+public interface ByteMessageHandler {
+
+	/**
+	 * @param buffer
+	 *            read-only view of the ring, valid only until this method
+	 *            returns; use absolute gets
+	 * @param offset
+	 *            index of the first payload byte in {@code buffer}
+	 * @param length
+	 *            payload length in bytes
+	 */
+	void onMessage(ByteBuffer buffer, int offset, int length);
+}
@@ -0,0 +1,17 @@
+package com.gaea.concurrent;
+
+/**
+ * Callback that receives the elements removed by
+ * {@link FastQueue#drain(ElementHandler, int)}.
+ *
+ * @author zhenyu.yin
+ *
+ */
+public interface ElementHandler<T> {
+
+	/**
+	 * @param t
+	 *            the element removed from the queue, never null
+	 */
+	void onElement(T t);
+}
@@ -0,0 +1,15 @@
+package com.gaea.concurrent;
+
+/**
+ * Creates the events a {@link FastEventRing} preallocates for its slots.
+ *
+ * @author zhenyu.yin
+ *
+ */
+public interface EventFactory<E> {
+
+	/**
+	 * @return a new event, never null
+	 */
+	E newInstance();
+}
@@ -12,6 +12,11 @@ class Value extends Head {
 
 /**
  * copy from AtomicLong jdk1.7
+ * <p>
+ * On JDK 8+ the read-modify-write methods use {@code Unsafe.getAndAddLong} and
+ * {@code Unsafe.getAndSetLong}, which the JIT turns into a single
+ * {@code lock xadd}/{@code xchg} instead of a CAS retry loop; on JDK 7 they
+ * fall back to the CAS loops.
  * 
  * @author zhenyu.yin
  *
@@ -22,6 +27,8 @@ class Value extends Head {
 	// setup to use Unsafe.compareAndSwapLong for updates
 	private static final Unsafe unsafe = Util.getUnsafe();
 	private static final long valueOffset;
+	/** whether Unsafe has the JDK 8 fetch-and-add/exchange intrinsics */
+	private static final boolean XADD;
 
 	/**
 	 * Records whether the underlying JVM supports lockless compareAndSwap for
@@ -36,6 +43,15 @@ class Value extends Head {
 		} catch (Exception ex) {
 			throw new Error(ex);
 		}
+		boolean xadd;
+		try {
+			Unsafe.class.getMethod("getAndAddLong", Object.class, long.class, long.class);
+			Unsafe.class.getMethod("getAndSetLong", Object.class, long.class, long.class);
+			xadd = true;
+		} catch (NoSuchMethodException e) {
+			xadd = false;
+		}
+		XADD = xadd;
 	}
 
 	/**
@@ -92,6 +108,9 @@ class Value extends Head {
 	 * @return the previous value
 	 */
 	public final long getAndSet(long newValue) {
+		if (XADD) {
+			return unsafe.getAndSetLong(this, valueOffset, newValue);
+		}
 		while (true) {
 			long current = get();
 			if (compareAndSet(current, newValue))
@@ -139,6 +158,9 @@ class Value extends Head {
 	 * @return the previous value
 	 */
 	public final long getAndIncrement() {
+		if (XADD) {
+			return unsafe.getAndAddLong(this, valueOffset, 1L);
+		}
 		while (true) {
 			long current = get();
 			long next = current + 1;
@@ -153,6 +175,9 @@ class Value extends Head {
 	 * @return the previous value
 	 */
 	public final long getAndDecrement() {
+		if (XADD) {
+			return unsafe.getAndAddLong(this, valueOffset, -1L);
+		}
 		while (true) {
 			long current = get();
 			long next = current - 1;
@@ -169,6 +194,9 @@ class Value extends Head {
 	 * @return the previous value
 	 */
 	public final long getAndAdd(long delta) {
+		if (XADD) {
+			return unsafe.getAndAddLong(this, valueOffset, delta);
+		}
 		while (true) {
 			long current = get();
 			long next = current + delta;
@@ -183,6 +211,9 @@ class Value extends Head {
 	 * @return the updated value
 	 */
 	public final long incrementAndGet() {
+		if (XADD) {
+			return unsafe.getAndAddLong(this, valueOffset, 1L) + 1L;
+		}
 		for (;;) {
 			long current = get();
 			if (compareAndSet(current, ++current))
@@ -196,6 +227,9 @@ class Value extends Head {
 	 * @return the updated value
 	 */
 	public final long decrementAndGet() {
+		if (XADD) {
+			return unsafe.getAndAddLong(this, valueOffset, -1L) - 1L;
+		}
 		for (;;) {
 			long current = get();
 			if (compareAndSet(current, --current))
@@ -211,6 +245,9 @@ class Value extends Head {
 	 * @return the updated value
 	 */
 	public final long addAndGet(long delta) {
+		if (XADD) {
+			return unsafe.getAndAddLong(this, valueOffset, delta) + delta;
+		}
 		for (;;) {
 			long current = get();
 			if (compareAndSet(current, current += delta))
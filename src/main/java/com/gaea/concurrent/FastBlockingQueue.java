@@ -11,7 +11,8 @@ import java.util.concurrent.TimeUnit;
  */
 public class FastBlockingQueue<T> extends FastQueue<T> implements BlockingQueue<T> {
 
-	private int wait = 0;
+	/** producers waiting for space, signalled by consumers */
+	private final WaitStrategy notFull;
 
 	/**
 	 * Creates an {@code FastBlockingQueue} with the given (fixed)
@@ -21,26 +22,159 @@ public class FastBlockingQueue<T> extends FastQueue<T> implements BlockingQueue<
 	 * @throws IllegalArgumentException  if {@code bufferSize < 1 or bufferSize < MAX_SIZE}
 	 */
 	public FastBlockingQueue(final int capacity) {
-		super(capacity);
+		this(capacity, WaitStrategy.blocking());
+	}
+
+	/**
+	 * Creates an {@code FastBlockingQueue} with the given (fixed) capacity and
+	 * wait strategy.
+	 *
+	 * @param capacity
+	 *            the capacity of this queue .the capacity will be corrected to 2 to the N
+	 * @param waitStrategy
+	 *            how blocked producers and consumers wait, see {@link WaitStrategy}
+	 * @throws IllegalArgumentException  if {@code bufferSize < 1 or bufferSize < MAX_SIZE}
+	 */
+	public FastBlockingQueue(final int capacity, final WaitStrategy waitStrategy) {
+		this(capacity, waitStrategy, ShardLayout.atomic());
+	}
+
+	/**
+	 * Creates an {@code FastBlockingQueue} with the given (fixed) capacity,
+	 * wait strategy and ring layout.
+	 *
+	 * @param capacity
+	 *            the capacity of this queue .the capacity will be corrected to 2 to the N
+	 * @param waitStrategy
+	 *            how blocked producers and consumers wait, see {@link WaitStrategy}
+	 * @param layout
+	 *            shard size and slot storage of the ring, see {@link ShardLayout}
+	 * @throws IllegalArgumentException  if {@code bufferSize < 1 or bufferSize < MAX_SIZE}
+	 */
+	public FastBlockingQueue(final int capacity, final WaitStrategy waitStrategy, final ShardLayout layout) {
+		this(capacity, waitStrategy, layout, null);
+	}
+
+	/**
+	 * Creates an instrumented {@code FastBlockingQueue}, see
+	 * {@link QueueMetrics}.
+	 *
+	 * @param capacity
+	 *            the capacity of this queue .the capacity will be corrected to 2 to the N
+	 * @param waitStrategy
+	 *            how blocked producers and consumers wait, see {@link WaitStrategy}
+	 * @param layout
+	 *            shard size and slot storage of the ring, see {@link ShardLayout}
+	 * @param metrics
+	 *            counters of this queue, or null for none; one instance per queue
+	 * @throws IllegalArgumentException  if {@code bufferSize < 1 or bufferSize < MAX_SIZE}
+	 */
+	public FastBlockingQueue(final int capacity, final WaitStrategy waitStrategy, final ShardLayout layout,
+			final QueueMetrics metrics) {
+		super(capacity, waitStrategy, layout, metrics);
+		this.notFull = waitStrategy.copy();
 	}
 
 	@Override
 	public void put(final T t) throws InterruptedException {
 		checkNotNull(t);
-		final long next = head.getAndIncrement();
-		buffer.put(next, t);
-		checkNotify();
+		int counter = 0;
+		for (;;) {
+			final long next = head.get();
+			final long seq = buffer.sequence(next);
+			if (seq == next) {
+				if (head.compareAndSet(next, next + 1)) {
+					buffer.publish(next, t);
+					if (metrics != null) {
+						metrics.offered(1, next + 1 - tail.get());
+					}
+					checkNotify();
+					return;
+				}
+				if (metrics != null) {
+					metrics.increment(QueueMetrics.OFFER_RETRIES);
+				}
+			} else if (seq < next) {
+				if (canPut(next)) {
+					counter = notFull.idle(counter); // 消费者已申请节点,但还没释放
+					if (metrics != null) {
+						metrics.increment(QueueMetrics.HANDOFF_SPINS);
+					}
+				} else {
+					tailcache = awaitSpace(next - capacity);
+				}
+			}
+		}
 	}
 
-	private final void checkNotify() {
-		if (wait == 0) {
-			return;
+	/**
+	 * Waits on {@code notFull} until {@code tail > sequence}, counting the
+	 * wait when instrumented.
+	 */
+	private long awaitSpace(final long sequence) throws InterruptedException {
+		if (metrics == null) {
+			return notFull.waitFor(sequence, tail);
+		}
+		metrics.increment(QueueMetrics.PRODUCER_WAITS);
+		metrics.add(QueueMetrics.WAITING_PRODUCERS, 1);
+		try {
+			return notFull.waitFor(sequence, tail);
+		} finally {
+			metrics.add(QueueMetrics.WAITING_PRODUCERS, -1);
+		}
+	}
+
+	private long awaitSpace(final long sequence, final long nanos) throws InterruptedException {
+		if (metrics == null) {
+			return notFull.waitFor(sequence, tail, nanos);
+		}
+		metrics.increment(QueueMetrics.PRODUCER_WAITS);
+		metrics.add(QueueMetrics.WAITING_PRODUCERS, 1);
+		try {
+			return notFull.waitFor(sequence, tail, nanos);
+		} finally {
+			metrics.add(QueueMetrics.WAITING_PRODUCERS, -1);
+		}
+	}
+
+	/**
+	 * Waits on the consumer strategy until {@code head > sequence}, counting
+	 * the wait when instrumented.
+	 */
+	private long awaitData(final long sequence) throws InterruptedException {
+		if (metrics == null) {
+			return waitStrategy.waitFor(sequence, head);
 		}
-		synchronized (head) {
-			head.notify();
+		metrics.increment(QueueMetrics.CONSUMER_WAITS);
+		metrics.add(QueueMetrics.WAITING_CONSUMERS, 1);
+		try {
+			return waitStrategy.waitFor(sequence, head);
+		} finally {
+			metrics.add(QueueMetrics.WAITING_CONSUMERS, -1);
 		}
 	}
 
+	private long awaitData(final long sequence, final long nanos) throws InterruptedException {
+		if (metrics == null) {
+			return waitStrategy.waitFor(sequence, head, nanos);
+		}
+		metrics.increment(QueueMetrics.CONSUMER_WAITS);
+		metrics.add(QueueMetrics.WAITING_CONSUMERS, 1);
+		try {
+			return waitStrategy.waitFor(sequence, head, nanos);
+		} finally {
+			metrics.add(QueueMetrics.WAITING_CONSUMERS, -1);
+		}
+	}
+
+	private final void checkNotify() {
+		waitStrategy.signalAll();
+	}
+
+	private final void checkNotifyProducer() {
+		notFull.signalAll();
+	}
+
 	@Override
 	public boolean offer(final T t) {
 		final boolean suc = super.offer(t);
@@ -51,61 +185,201 @@ public class FastBlockingQueue<T> extends FastQueue<T> implements BlockingQueue<
 	}
 
 	@Override
-	public T take() throws InterruptedException {
-		long next;
-		do {
-			if (!canTake(next = tail.get())) {
-				waitNext(next);
-			}
-		} while (!tail.compareAndSet(next, next + 1));
+	public int offerBatch(final T[] items, final int off, final int len) {
+		final int n = super.offerBatch(items, off, len);
+		if (n > 0) {
+			checkNotify();
+		}
+		return n;
+	}
 
-		return buffer.take(next);
+	/**
+	 * Inserts all elements of {@code c}, waiting for space as necessary. Each
+	 * round claims as many slots as are free with one atomic on {@code head}.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting; the elements inserted before
+	 *             the interrupt stay in the queue
+	 */
+	@SuppressWarnings("unchecked")
+	public void putAll(final Collection<? extends T> c) throws InterruptedException {
+		checkNotNull(c);
+		if (c == this)
+			throw new IllegalArgumentException();
+		final Object[] items = c.toArray();
+		putAll((T[]) items, 0, items.length);
 	}
 
-	private final long waitNext(final long next) throws InterruptedException {
-		synchronized (head) {
-			wait++;
+	/**
+	 * Inserts {@code items[off, off + len)} in order, waiting for space as
+	 * necessary. Each round claims as many slots as are free with one atomic on
+	 * {@code head}.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting; the elements inserted before
+	 *             the interrupt stay in the queue
+	 */
+	public void putAll(final T[] items, final int off, final int len) throws InterruptedException {
+		checkBatch(items, off, len);
+		int done = 0;
+		while (done < len) {
+			long next;
+			int n;
 			do {
-				head.wait();
-			} while (next >= (headcache = head.get()));
-			wait--;
+				if ((n = available(next = head.get(), len - done)) == 0) {
+					tailcache = awaitSpace(next - capacity);
+				}
+			} while (n == 0 || !head.compareAndSet(next, next + n));
+
+			buffer.putAll(next, items, off + done, n);
+			if (metrics != null) {
+				metrics.offered(n, next + n - tail.get());
+			}
+			done += n;
+			checkNotify();
 		}
-		return headcache;
 	}
 
 	@Override
-	public int remainingCapacity() {
-		return super.capacity - size();
+	public T take() throws InterruptedException {
+		return take(false, 0L);
 	}
 
 	@Override
-	public T poll(final long timeout, final TimeUnit unit) {
-		final long now = System.nanoTime();
-		final long nanos = unit.toNanos(timeout);
-		long next;
-		do {
-			if (System.nanoTime() - now > nanos) {
+	@SuppressWarnings("unchecked")
+	public T poll() {
+		for (;;) {
+			final Object o = pollSlot();
+			if (o == null) {
 				return null;
 			}
-			next = tail.get();
-			if (!canTake(next)) {
-				return null;
+			// 跳过的墓碑同样释放了节点
+			checkNotifyProducer();
+			if (o != SKIPPED) {
+				return (T) o;
+			}
+		}
+	}
+
+	/**
+	 * Claims the next published slot, waiting for data, and skips removed
+	 * elements.
+	 *
+	 * @return the element, or null if the timeout elapsed
+	 */
+	private T take(final boolean timed, final long nanos) throws InterruptedException {
+		final long deadline = timed ? System.nanoTime() + nanos : 0L;
+		int counter = 0;
+		for (;;) {
+			final long next = tail.get();
+			final long seq = buffer.sequence(next);
+			if (seq == next + 1) {
+				if (tail.compareAndSet(next, next + 1)) {
+					final T t = buffer.release(next);
+					checkNotifyProducer();
+					if (t != null) {
+						if (metrics != null) {
+							metrics.increment(QueueMetrics.POLLS);
+						}
+						return t;
+					}
+				} else if (metrics != null) {
+					metrics.increment(QueueMetrics.POLL_RETRIES);
+				}
+			} else if (seq < next + 1) {
+				if (canTake(next)) {
+					counter = waitStrategy.idle(counter); // 生产者已申请节点,但还没发布
+					if (metrics != null) {
+						metrics.increment(QueueMetrics.HANDOFF_SPINS);
+					}
+				} else if (!timed) {
+					headcache = awaitData(next);
+				} else {
+					final long remaining = deadline - System.nanoTime();
+					if (remaining <= 0 || (headcache = awaitData(next, remaining)) <= next) {
+						return null;
+					}
+				}
 			}
-		} while (!tail.compareAndSet(next, next + 1));
+		}
+	}
 
-		return buffer.take(next);
+	@Override
+	public int drain(final ElementHandler<? super T> handler, final int limit) {
+		try {
+			return super.drain(handler, limit);
+		} finally {
+			checkNotifyProducer();
+		}
 	}
 
 	@Override
-	public boolean offer(final T t, final long timeout, final TimeUnit unit) {
-		final long now = System.nanoTime();
-		final long nanos = unit.toNanos(timeout);
+	public int drain(final T[] dst, final int off, final int limit) {
+		final int n = super.drain(dst, off, limit);
+		if (n > 0) {
+			checkNotifyProducer();
+		}
+		return n;
+	}
+
+	/**
+	 * Like {@link #drain(ElementHandler, int)}, but waits up to
+	 * {@code timeout} for the first element to become available.
+	 *
+	 * @return the number of elements removed, 0 if the timeout elapsed
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public int drain(final ElementHandler<? super T> handler, final int limit, final long timeout,
+			final TimeUnit unit) throws InterruptedException {
+		checkNotNull(handler);
+		if (limit <= 0)
+			return 0;
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		long next, end;
 		do {
-			if (super.offer(t)) {
-				return true;
+			if (!canTake(next = tail.get())) {
+				final long nanos = deadline - System.nanoTime();
+				if (nanos <= 0 || (headcache = awaitData(next, nanos)) <= next) {
+					return 0;
+				}
+			}
+			end = Math.min(headcache = head.get(), next + limit);
+		} while (!tail.compareAndSet(next, end));
+
+		try {
+			final int n = buffer.drain(next, (int) (end - next), handler);
+			if (metrics != null) {
+				metrics.add(QueueMetrics.POLLS, n);
 			}
-		} while (System.nanoTime() - now < nanos);
-		return false;
+			return n;
+		} finally {
+			checkNotifyProducer();
+		}
+	}
+
+	@Override
+	public int remainingCapacity() {
+		return super.capacity - size();
+	}
+
+	@Override
+	public T poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+		return take(true, unit.toNanos(timeout));
+	}
+
+	@Override
+	public boolean offer(final T t, final long timeout, final TimeUnit unit) throws InterruptedException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!offer(t)) {
+			final long nanos = deadline - System.nanoTime();
+			if (nanos <= 0) {
+				return false;
+			}
+			// 等待消费者释放 head - capacity 之前的节点
+			awaitSpace(head.get() - capacity, nanos);
+		}
+		return true;
 	}
 
 	@Override
@@ -128,9 +402,17 @@ public class FastBlockingQueue<T> extends FastQueue<T> implements BlockingQueue<
 			headIndex = Math.min(head.get(), nextIndex + maxElements);
 		} while (!tail.compareAndSet(nextIndex, headIndex));
 		T t;
-		while (nextIndex + count < headIndex) {
-			t = buffer.take(nextIndex + count++);
-			c.add(t);
+		for (long i = nextIndex; i < headIndex; i++) {
+			if ((t = buffer.take(i)) != null) {
+				c.add(t);
+				count++;
+			}
+		}
+		if (headIndex > nextIndex) {
+			checkNotifyProducer();
+		}
+		if (metrics != null) {
+			metrics.add(QueueMetrics.POLLS, count);
 		}
 		return count;
 	}
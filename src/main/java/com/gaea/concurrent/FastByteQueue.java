@@ -0,0 +1,281 @@
+package com.gaea.concurrent;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import sun.misc.Unsafe;
+
+/**
+ * Multi producer, single consumer queue of variable-length byte messages kept
+ * off-heap in one direct {@link ByteBuffer}.
+ * <p>
+ * Every message is a record {@code [int length][int state][payload][padding]}
+ * aligned to {@code alignment} bytes. Producers claim a byte range with one CAS
+ * on the padded {@code head}, encode the payload in place and publish it with
+ * {@link #commit(int)}:
+ *
+ * <pre>
+ * int offset = queue.claim(length);
+ * if (offset &gt;= 0) {
+ * 	queue.buffer().putLong(offset, id);
+ * 	queue.commit(offset);
+ * }
+ * </pre>
+ *
+ * A record that would run past the end of the ring is preceded by a padding
+ * record covering the rest of the ring, so payloads never wrap. The consumer
+ * gets a zero-copy read-only view of each payload and clears the records it
+ * has read before handing their bytes back to producers.
+ *
+ * @author zhenyu.yin
+ *
+ */
+public class FastByteQueue {
+
+	public static final int HEADER_LENGTH = 8;
+	public static final int DEFAULT_ALIGNMENT = 8;
+
+	private static final int STATE_OFFSET = 4;
+	private static final int EMPTY = 0;
+	private static final int MESSAGE = 1;
+	private static final int PADDING = 2;
+
+	private static final Unsafe unsafe = Util.getUnsafe();
+
+	private final FastAtomicLong head = new FastAtomicLong();
+	private final FastAtomicLong tail = new FastAtomicLong();
+	private long tailcache = 0;
+
+	private final int capacity;
+	private final int mask;
+	private final int alignMask;
+	private final int maxMessageLength;
+	private final ByteBuffer buffer;
+	private final ByteBuffer view;
+	private final long address;
+
+	/**
+	 * Creates an {@code FastByteQueue} of {@code capacity} bytes with 8-byte
+	 * record alignment.
+	 *
+	 * @param capacity
+	 *            ring size in bytes .the capacity will be corrected to 2 to the N
+	 */
+	public FastByteQueue(final int capacity) {
+		this(capacity, DEFAULT_ALIGNMENT);
+	}
+
+	/**
+	 * @param capacity
+	 *            ring size in bytes .the capacity will be corrected to 2 to the N
+	 * @param alignment
+	 *            record alignment, a power of 2 not less than
+	 *            {@link #HEADER_LENGTH}, e.g. 64 to start every record on its
+	 *            own cache line
+	 * @throws IllegalArgumentException
+	 *             if {@code capacity < 1 or capacity > MAX_SIZE} or the
+	 *             alignment is invalid or too large for the capacity
+	 */
+	public FastByteQueue(int capacity, final int alignment) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must not be less than 1");
+		}
+		if (capacity > FastQueue.MAX_SIZE) {
+			throw new IllegalArgumentException("capacity must not be less than " + FastQueue.MAX_SIZE);
+		}
+		if (alignment < HEADER_LENGTH || Integer.bitCount(alignment) != 1) {
+			throw new IllegalArgumentException("alignment must be a power of 2 not less than " + HEADER_LENGTH);
+		}
+		if (Integer.bitCount(capacity) != 1) {
+			capacity = Integer.highestOneBit(capacity) << 1;
+		}
+		// 记录不超过容量的 1/8, 保证补齐到队尾后仍能放下
+		this.maxMessageLength = capacity / 8 - HEADER_LENGTH;
+		if (maxMessageLength < 0 || alignment > capacity / 8) {
+			throw new IllegalArgumentException("capacity " + capacity + " is too small for alignment " + alignment);
+		}
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+		this.alignMask = alignment - 1;
+		this.buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+		this.view = buffer.asReadOnlyBuffer().order(ByteOrder.nativeOrder());
+		this.address = Util.address(buffer);
+		unsafe.setMemory(address, capacity, (byte) 0);
+	}
+
+	/**
+	 * Claims space for a message of {@code length} bytes.
+	 *
+	 * @return the offset in {@link #buffer()} to write the payload at, or -1 if
+	 *         there is not enough free space
+	 * @throws IllegalArgumentException
+	 *             if {@code length < 0 or length > maxMessageLength()}
+	 */
+	public int claim(final int length) {
+		if (length < 0 || length > maxMessageLength) {
+			throw new IllegalArgumentException("length must be in [0, " + maxMessageLength + "]");
+		}
+		final int recordLength = align(HEADER_LENGTH + length);
+		long next;
+		int padding;
+		do {
+			next = head.get();
+			final int toEnd = capacity - (int) (next & mask);
+			padding = recordLength > toEnd ? toEnd : 0;
+			final long end = next + padding + recordLength;
+			if (end - tailcache > capacity && end - (tailcache = tail.get()) > capacity) {
+				return -1;
+			}
+		} while (!head.compareAndSet(next, next + padding + recordLength));
+
+		if (padding > 0) {
+			final long pad = address + (next & mask);
+			unsafe.putInt(pad, padding - HEADER_LENGTH);
+			unsafe.putOrderedInt(null, pad + STATE_OFFSET, PADDING);
+			next += padding;
+		}
+		final int offset = (int) (next & mask);
+		unsafe.putInt(address + offset, length);
+		return offset + HEADER_LENGTH;
+	}
+
+	/**
+	 * Publishes the message whose payload starts at {@code offset}.
+	 */
+	public void commit(final int offset) {
+		unsafe.putOrderedInt(null, address + offset - HEADER_LENGTH + STATE_OFFSET, MESSAGE);
+	}
+
+	/**
+	 * Gives up a claimed message; the consumer skips it.
+	 */
+	public void abort(final int offset) {
+		unsafe.putOrderedInt(null, address + offset - HEADER_LENGTH + STATE_OFFSET, PADDING);
+	}
+
+	/**
+	 * Copies {@code src[off, off + len)} into the ring as one message.
+	 *
+	 * @return false if there is not enough free space
+	 */
+	public boolean offer(final byte[] src, final int off, final int len) {
+		if (off < 0 || len < 0 || off > src.length - len)
+			throw new IndexOutOfBoundsException();
+		final int offset = claim(len);
+		if (offset < 0) {
+			return false;
+		}
+		unsafe.copyMemory(src, Unsafe.ARRAY_BYTE_BASE_OFFSET + off, null, address + offset, len);
+		commit(offset);
+		return true;
+	}
+
+	/**
+	 * Copies the remaining bytes of {@code src} into the ring as one message
+	 * without moving its position.
+	 *
+	 * @return false if there is not enough free space
+	 */
+	public boolean offer(final ByteBuffer src) {
+		final int len = src.remaining();
+		final int offset = claim(len);
+		if (offset < 0) {
+			return false;
+		}
+		if (src.hasArray()) {
+			unsafe.copyMemory(src.array(), Unsafe.ARRAY_BYTE_BASE_OFFSET + src.arrayOffset() + src.position(), null,
+					address + offset, len);
+		} else if (src.isDirect()) {
+			unsafe.copyMemory(Util.address(src) + src.position(), address + offset, len);
+		} else {
+			for (int i = 0; i < len; i++) {
+				unsafe.putByte(address + offset + i, src.get(src.position() + i));
+			}
+		}
+		commit(offset);
+		return true;
+	}
+
+	/**
+	 * Reads up to {@code limit} committed messages in order. Must only be
+	 * called by one consumer thread at a time. Reading stops at the first
+	 * record that is claimed but not yet committed. If the handler throws, the
+	 * message it was given counts as read.
+	 *
+	 * @return the number of messages passed to {@code handler}
+	 */
+	public int read(final ByteMessageHandler handler, final int limit) {
+		FastQueue.checkNotNull(handler);
+		final long start = tail.get();
+		long next = start;
+		int count = 0;
+		try {
+			// 读过的记录在 release 前不清零, 最多读一圈
+			while (count < limit && next - start < capacity) {
+				final long record = address + (next & mask);
+				final int state = unsafe.getIntVolatile(null, record + STATE_OFFSET);
+				if (state == EMPTY) {
+					break;
+				}
+				final int length = unsafe.getInt(record);
+				next += align(HEADER_LENGTH + length);
+				if (state == MESSAGE) {
+					count++;
+					handler.onMessage(view, (int) (record - address) + HEADER_LENGTH, length);
+				}
+			}
+		} finally {
+			if (next > start) {
+				release(start, next);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Zeroes the bytes of the records read so far, then hands them back to
+	 * producers. Records never wrap, but the range read can.
+	 */
+	private void release(final long start, final long end) {
+		final int from = (int) (start & mask);
+		final long len = end - start;
+		final long first = Math.min(len, capacity - from);
+		unsafe.setMemory(address + from, first, (byte) 0);
+		if (len > first) {
+			unsafe.setMemory(address, len - first, (byte) 0);
+		}
+		tail.lazySet(end);
+	}
+
+	private int align(final int length) {
+		return (length + alignMask) & ~alignMask;
+	}
+
+	/**
+	 * @return the buffer producers write claimed payloads into; use absolute
+	 *         puts only, the buffer is shared by all producers
+	 */
+	public ByteBuffer buffer() {
+		return buffer;
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	public int maxMessageLength() {
+		return maxMessageLength;
+	}
+
+	/**
+	 * @return the number of bytes claimed and not yet read, including headers
+	 *         and padding
+	 */
+	public int size() {
+		return (int) Math.max(head.get() - tail.get(), 0);
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+}
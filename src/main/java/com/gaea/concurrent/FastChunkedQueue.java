@@ -0,0 +1,477 @@
+package com.gaea.concurrent;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Unbounded (or softly bounded) multi producer, multi consumer blocking queue
+ * made of a linked list of fixed size array chunks, so that memory follows
+ * the load like {@code LinkedBlockingQueue} while elements still sit in
+ * arrays.
+ * <p>
+ * Producers claim an index with one fetch-and-add on {@code head} and never
+ * retry. The producer that runs past the last chunk links a new one with a
+ * single CAS on its {@code next}; consumers claim published slots with a CAS
+ * on {@code tail}. A chunk that every consumer has moved past is no longer
+ * referenced and is released to the GC; chunks are never reused, because a
+ * slow thread may still walk from a stale chunk through its {@code next}
+ * link.
+ * <p>
+ * The optional {@code maxCapacity} is checked before the fetch-and-add, so
+ * concurrent producers may overshoot it by at most one element each.
+ *
+ * @author zhenyu.yin
+ *
+ */
+public class FastChunkedQueue<T> extends AbstractQueue<T> implements BlockingQueue<T> {
+
+	public static final int DEFAULT_CHUNK_SIZE = 1 << 10;
+
+	private final int chunkSize;
+	private final int maxCapacity;
+	private final WaitStrategy waitStrategy;
+	/** producers waiting for space, only used when bounded */
+	private final WaitStrategy notFull;
+	private final FastAtomicLong head = new FastAtomicLong();
+	private final FastAtomicLong tail = new FastAtomicLong();
+	/** a chunk at or before the one holding {@code head} */
+	private final AtomicReference<Chunk> producerChunk;
+	/** a chunk at or before the one holding {@code tail} */
+	private final AtomicReference<Chunk> consumerChunk;
+	private long tailcache = 0;
+
+	/**
+	 * Creates an unbounded {@code FastChunkedQueue} with chunks of
+	 * {@link #DEFAULT_CHUNK_SIZE} slots.
+	 */
+	public FastChunkedQueue() {
+		this(DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Creates an unbounded {@code FastChunkedQueue}.
+	 *
+	 * @param chunkSize
+	 *            the number of slots of every chunk .the size will be corrected
+	 *            to 2 to the N
+	 * @throws IllegalArgumentException
+	 *             if {@code chunkSize < 1 or chunkSize > MAX_SIZE}
+	 */
+	public FastChunkedQueue(final int chunkSize) {
+		this(chunkSize, Integer.MAX_VALUE, WaitStrategy.blocking());
+	}
+
+	/**
+	 * @param chunkSize
+	 *            the number of slots of every chunk .the size will be corrected
+	 *            to 2 to the N
+	 * @param maxCapacity
+	 *            soft bound on the number of elements, {@code Integer.MAX_VALUE}
+	 *            for an unbounded queue
+	 * @param waitStrategy
+	 *            how blocked producers and consumers wait, see
+	 *            {@link WaitStrategy}
+	 * @throws IllegalArgumentException
+	 *             if {@code chunkSize < 1 or chunkSize > MAX_SIZE}, or
+	 *             {@code maxCapacity < 1}
+	 */
+	public FastChunkedQueue(int chunkSize, final int maxCapacity, final WaitStrategy waitStrategy) {
+		FastQueue.checkNotNull(waitStrategy);
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("chunkSize must not be less than 1");
+		}
+		if (chunkSize > FastQueue.MAX_SIZE) {
+			throw new IllegalArgumentException("chunkSize must not be less than " + FastQueue.MAX_SIZE);
+		}
+		if (maxCapacity < 1) {
+			throw new IllegalArgumentException("maxCapacity must not be less than 1");
+		}
+		if (Integer.bitCount(chunkSize) != 1) {
+			chunkSize = Integer.highestOneBit(chunkSize) << 1;
+		}
+		this.chunkSize = chunkSize;
+		this.maxCapacity = maxCapacity;
+		this.waitStrategy = waitStrategy;
+		this.notFull = waitStrategy.copy();
+		final Chunk first = new Chunk(0L, chunkSize);
+		this.producerChunk = new AtomicReference<Chunk>(first);
+		this.consumerChunk = new AtomicReference<Chunk>(first);
+	}
+
+	private boolean bounded() {
+		return maxCapacity != Integer.MAX_VALUE;
+	}
+
+	@Override
+	public boolean offer(final T t) {
+		FastQueue.checkNotNull(t);
+		if (bounded()) {
+			final long next = head.get();
+			if (next - tailcache >= maxCapacity && next - (tailcache = tail.get()) >= maxCapacity) {
+				return false;
+			}
+		}
+		// 先读块游标再 FAA, 保证游标所在块不晚于申请到的序号
+		final Chunk from = producerChunk.get();
+		final long index = head.getAndIncrement();
+		final Chunk chunk = append(from, index);
+		chunk.slots.lazySet((int) (index - chunk.base), t);
+		waitStrategy.signalAll();
+		return true;
+	}
+
+	/**
+	 * Walks from {@code from} to the chunk holding {@code index}, linking new
+	 * chunks as needed, and moves {@code producerChunk} forward.
+	 */
+	private Chunk append(final Chunk from, final long index) {
+		Chunk chunk = from;
+		while (index - chunk.base >= chunkSize) {
+			Chunk next = chunk.next.get();
+			if (next == null) {
+				next = new Chunk(chunk.base + chunkSize, chunkSize);
+				if (!chunk.next.compareAndSet(null, next)) {
+					next = chunk.next.get(); // 其它生产者已链接新块
+				}
+			}
+			chunk = next;
+		}
+		if (chunk != from) {
+			producerChunk.compareAndSet(from, chunk);
+		}
+		return chunk;
+	}
+
+	/**
+	 * Walks from {@code from} to the chunk holding {@code index}.
+	 *
+	 * @return the chunk, or {@code null} if it is not linked yet, or if
+	 *         {@code from} is already past {@code index}
+	 */
+	private Chunk find(final Chunk from, final long index) {
+		Chunk chunk = from;
+		if (index < chunk.base) {
+			return null;
+		}
+		while (index - chunk.base >= chunkSize) {
+			if ((chunk = chunk.next.get()) == null) {
+				return null;
+			}
+		}
+		return chunk;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T poll() {
+		for (;;) {
+			final Chunk from = consumerChunk.get();
+			final long next = tail.get();
+			final Chunk chunk = find(from, next);
+			if (chunk == null) {
+				if (tail.get() == next) {
+					return null; // 生产者已申请序号, 但还没链接新块
+				}
+				continue;
+			}
+			if (chunk.slots.get((int) (next - chunk.base)) == null) {
+				if (tail.get() == next) {
+					return null;
+				}
+				continue;
+			}
+			final Object t = claim(from, chunk, next);
+			if (t != null && t != ShardRingBuffer.TOMBSTONE) {
+				return (T) t;
+			}
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T peek() {
+		for (;;) {
+			final Chunk from = consumerChunk.get();
+			final long next = tail.get();
+			final Chunk chunk = find(from, next);
+			final Object t = chunk == null ? null : chunk.slots.get((int) (next - chunk.base));
+			if (t == null) {
+				if (tail.get() == next) {
+					return null;
+				}
+				continue;
+			}
+			if (t != ShardRingBuffer.TOMBSTONE) {
+				return (T) t;
+			}
+			// 队首元素已被移除, 像 poll 一样跳过
+			claim(from, chunk, next);
+		}
+	}
+
+	/**
+	 * Claims the published index {@code next} with a CAS on {@code tail} and
+	 * takes its slot. The slot is swapped rather than read, so an element that
+	 * {@link #remove(Object)} tombstoned after it was seen is not returned.
+	 *
+	 * @return the element, {@code TOMBSTONE} if it was removed, or null if
+	 *         another consumer claimed the index first
+	 */
+	private Object claim(final Chunk from, final Chunk chunk, final long next) {
+		if (!tail.compareAndSet(next, next + 1)) {
+			return null;
+		}
+		if (chunk != from) {
+			consumerChunk.compareAndSet(from, chunk);
+		}
+		final Object t = chunk.slots.getAndSet((int) (next - chunk.base), null);
+		if (bounded()) {
+			notFull.signalAll();
+		}
+		return t;
+	}
+
+	/**
+	 * Replaces the first element equal to {@code o} with a tombstone that
+	 * consumers skip.
+	 *
+	 * @return true if the element was removed before a consumer took it
+	 */
+	@Override
+	public boolean remove(final Object o) {
+		FastQueue.checkNotNull(o);
+		// 先读块游标再读 tail
+		Chunk chunk = consumerChunk.get();
+		for (long next = tail.get(); next < head.get(); next++) {
+			final Chunk c = find(chunk, next);
+			if (c == null) {
+				return false;
+			}
+			chunk = c;
+			final int i = (int) (next - c.base);
+			final Object t = c.slots.get(i);
+			if (o.equals(t)) {
+				return tombstone(c, i, t);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Replaces the live element {@code t} of a slot with a tombstone. Fails if
+	 * a consumer already swapped it out in {@link #claim}.
+	 */
+	private static boolean tombstone(final Chunk chunk, final int i, final Object t) {
+		return chunk.slots.compareAndSet(i, t, ShardRingBuffer.TOMBSTONE);
+	}
+
+	@Override
+	public void put(final T t) throws InterruptedException {
+		while (!offer(t)) {
+			// 等待消费者移过 head - maxCapacity
+			notFull.waitFor(head.get() - maxCapacity, tail);
+		}
+	}
+
+	@Override
+	public boolean offer(final T t, final long timeout, final TimeUnit unit) throws InterruptedException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!offer(t)) {
+			final long nanos = deadline - System.nanoTime();
+			if (nanos <= 0) {
+				return false;
+			}
+			notFull.waitFor(head.get() - maxCapacity, tail, nanos);
+		}
+		return true;
+	}
+
+	@Override
+	public T take() throws InterruptedException {
+		return take(false, 0L);
+	}
+
+	@Override
+	public T poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+		return take(true, unit.toNanos(timeout));
+	}
+
+	/**
+	 * Polls, waiting on {@code head} for a producer to claim an index.
+	 *
+	 * @return the element, or null if the timeout elapsed
+	 */
+	private T take(final boolean timed, final long nanos) throws InterruptedException {
+		final long deadline = timed ? System.nanoTime() + nanos : 0L;
+		int counter = 0;
+		for (;;) {
+			final T t = poll();
+			if (t != null) {
+				return t;
+			}
+			final long next = tail.get();
+			if (head.get() > next) {
+				counter = waitStrategy.idle(counter); // 生产者已申请序号,但还没发布
+			} else if (!timed) {
+				waitStrategy.waitFor(next, head);
+			} else {
+				final long remaining = deadline - System.nanoTime();
+				if (remaining <= 0 || waitStrategy.waitFor(next, head, remaining) <= next) {
+					return null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes up to {@code limit} elements and passes them to {@code handler}
+	 * in queue order.
+	 *
+	 * @return the number of elements passed to {@code handler}
+	 */
+	public int drain(final ElementHandler<? super T> handler, final int limit) {
+		FastQueue.checkNotNull(handler);
+		int count = 0;
+		T t;
+		while (count < limit && (t = poll()) != null) {
+			count++;
+			handler.onElement(t);
+		}
+		return count;
+	}
+
+	@Override
+	public int drainTo(final Collection<? super T> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public int drainTo(final Collection<? super T> c, final int maxElements) {
+		FastQueue.checkNotNull(c);
+		if (c == this)
+			throw new IllegalArgumentException();
+		int count = 0;
+		T t;
+		while (count < maxElements && (t = poll()) != null) {
+			c.add(t);
+			count++;
+		}
+		return count;
+	}
+
+	@Override
+	public int remainingCapacity() {
+		return bounded() ? Math.max(maxCapacity - size(), 0) : Integer.MAX_VALUE;
+	}
+
+	@Override
+	public int size() {
+		return (int) Math.min(Math.max(head.get() - tail.get(), 0), Integer.MAX_VALUE);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public int chunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Weakly consistent iterator over the published elements. {@code remove}
+	 * replaces the element with a tombstone that consumers skip.
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return new Itr();
+	}
+
+	private final class Itr implements Iterator<T> {
+
+		// 先读块游标再读 tail
+		Chunk chunk = consumerChunk.get();
+		long next = tail.get();
+		T last;
+		int lastIndex;
+		Chunk lastChunk;
+		T lastRet;
+		int lastRetIndex;
+		Chunk lastRetChunk;
+
+		Itr() {
+			advance();
+		}
+
+		@SuppressWarnings("unchecked")
+		private void advance() {
+			last = null;
+			for (final long h = head.get(); next < h; next++) {
+				final Chunk c = find(chunk, next);
+				if (c == null) {
+					return;
+				}
+				chunk = c;
+				final int i = (int) (next - c.base);
+				final Object t = c.slots.get(i);
+				if (t != null && t != ShardRingBuffer.TOMBSTONE) {
+					last = (T) t;
+					lastChunk = c;
+					lastIndex = i;
+					next++;
+					return;
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return last != null;
+		}
+
+		@Override
+		public T next() {
+			if (last == null) {
+				throw new NoSuchElementException();
+			}
+			lastRet = last;
+			lastRetChunk = lastChunk;
+			lastRetIndex = lastIndex;
+			advance();
+			return lastRet;
+		}
+
+		@Override
+		public void remove() {
+			if (lastRet == null) {
+				throw new IllegalStateException();
+			}
+			// 消费者已取走该元素时不做任何事, 与 FastQueue 一致
+			tombstone(lastRetChunk, lastRetIndex, lastRet);
+			lastRet = null;
+		}
+	}
+
+	/**
+	 * A fixed run of {@code chunkSize} slots holding indices
+	 * {@code [base, base + chunkSize)}. {@code null} means not published yet
+	 * or already taken.
+	 */
+	private static final class Chunk {
+
+		final long base;
+		final AtomicReferenceArray<Object> slots;
+		final AtomicReference<Chunk> next = new AtomicReference<Chunk>();
+
+		Chunk(final long base, final int size) {
+			this.base = base;
+			this.slots = new AtomicReferenceArray<Object>(size);
+		}
+	}
+}
@@ -0,0 +1,326 @@
+package com.gaea.concurrent;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Delay queue built on a hierarchical hashed timing wheel.
+ * <p>
+ * {@link #offer(Object, long, TimeUnit)} allocates one {@link Timeout} and
+ * offers it to an unbounded {@link FastChunkedQueue}; there is no lock and
+ * no heap. A single ticker thread wakes up once per tick, moves the new
+ * timeouts into the wheel, cascades the coarser levels into the finer ones
+ * and hands every expired element to a {@link FastBlockingQueue}, where
+ * consumers {@link #take()} it.
+ * <p>
+ * Level {@code k} of the wheel has {@code wheelSize} buckets of
+ * {@code wheelSize^k} ticks each. The buckets are intrusive lists through
+ * the timeouts and only the ticker touches them, so placing, cascading and
+ * expiring a timeout allocates nothing. A timeout beyond the top level waits
+ * in its farthest bucket and is placed again when that bucket cascades.
+ * <p>
+ * Expiry is at tick resolution: an element comes out at the first tick that
+ * is not before its deadline, so up to one tick late. {@link Timeout#cancel()}
+ * is one CAS; the ticker drops cancelled timeouts the next time it touches
+ * their bucket.
+ *
+ * @author zhenyu.yin
+ *
+ */
+public class FastDelayQueue<T> {
+
+	public static final int DEFAULT_WHEEL_SIZE = 256;
+	public static final int DEFAULT_LEVELS = 4;
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	private final long tickNanos;
+	private final long startNanos;
+	private final int bits;
+	private final int mask;
+	private final int levels;
+	/** ticks covered by the whole wheel */
+	private final long span;
+	private final Timeout<T>[][] wheel;
+	private final FastChunkedQueue<Timeout<T>> inbound = new FastChunkedQueue<Timeout<T>>(256);
+	private final FastBlockingQueue<T> expired;
+	private final Thread ticker;
+	private volatile boolean closed;
+
+	/**
+	 * Creates a queue with a 256-bucket, 4-level wheel, a ready queue of
+	 * {@link #DEFAULT_CAPACITY} and a daemon ticker thread.
+	 *
+	 * @param tick
+	 *            the resolution of the wheel
+	 */
+	public FastDelayQueue(final long tick, final TimeUnit unit) {
+		this(tick, unit, DEFAULT_WHEEL_SIZE, DEFAULT_LEVELS, new FastBlockingQueue<T>(DEFAULT_CAPACITY),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable r) {
+						final Thread t = new Thread(r, "FastDelayQueue-ticker");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+	}
+
+	/**
+	 * @param tick
+	 *            the resolution of the wheel
+	 * @param wheelSize
+	 *            buckets per level, rounded up to a power of 2
+	 * @param levels
+	 *            number of levels; the wheel covers
+	 *            {@code wheelSize^levels} ticks before timeouts overflow
+	 *            into the top level
+	 * @param expired
+	 *            receives the expired elements; when it is full the ticker
+	 *            waits for consumers, delaying later expiries
+	 * @param threadFactory
+	 *            creates the ticker thread
+	 * @throws IllegalArgumentException
+	 *             if {@code tick < 1}, {@code wheelSize < 2}, {@code levels < 1}
+	 *             or the wheel spans more than 2^62 ticks
+	 */
+	@SuppressWarnings("unchecked")
+	public FastDelayQueue(final long tick, final TimeUnit unit, int wheelSize, final int levels,
+			final FastBlockingQueue<T> expired, final ThreadFactory threadFactory) {
+		FastQueue.checkNotNull(unit);
+		FastQueue.checkNotNull(expired);
+		FastQueue.checkNotNull(threadFactory);
+		this.tickNanos = unit.toNanos(tick);
+		if (tickNanos < 1) {
+			throw new IllegalArgumentException("tick must not be less than 1ns");
+		}
+		if (wheelSize < 2 || wheelSize > 1 << 16) {
+			throw new IllegalArgumentException("wheelSize must be in [2, 65536]");
+		}
+		if (Integer.bitCount(wheelSize) != 1) {
+			wheelSize = Integer.highestOneBit(wheelSize) << 1;
+		}
+		this.bits = Integer.numberOfTrailingZeros(wheelSize);
+		if (levels < 1 || bits * levels > 62) {
+			throw new IllegalArgumentException("levels must be in [1, " + 62 / bits + "]");
+		}
+		this.mask = wheelSize - 1;
+		this.levels = levels;
+		this.span = 1L << (bits * levels);
+		this.wheel = new Timeout[levels][wheelSize];
+		this.expired = expired;
+		this.startNanos = System.nanoTime();
+		this.ticker = threadFactory.newThread(new Ticker());
+		if (ticker == null) {
+			throw new IllegalStateException("threadFactory returned null");
+		}
+		ticker.start();
+	}
+
+	/**
+	 * Schedules {@code e} to come out of the queue after {@code delay}.
+	 *
+	 * @return the handle to cancel it with
+	 * @throws IllegalStateException
+	 *             if the queue is closed
+	 */
+	public Timeout<T> offer(final T e, final long delay, final TimeUnit unit) {
+		FastQueue.checkNotNull(e);
+		FastQueue.checkNotNull(unit);
+		if (closed) {
+			throw new IllegalStateException("queue is closed");
+		}
+		final long elapsed = System.nanoTime() - startNanos;
+		final long nanos = unit.toNanos(delay);
+		// toNanos 对超大延迟饱和到 Long.MAX_VALUE, 相加前截断避免溢出成负数
+		final long deadline = nanos > Long.MAX_VALUE - elapsed ? Long.MAX_VALUE : elapsed + nanos;
+		// 向上取整到 tick, 保证不会早于截止时间到期
+		final long deadlineTick = deadline <= 0 ? 0 : (deadline - 1) / tickNanos + 1;
+		final Timeout<T> timeout = new Timeout<T>(e, deadlineTick);
+		inbound.offer(timeout);
+		return timeout;
+	}
+
+	/**
+	 * @return the next expired element, waiting for one
+	 */
+	public T take() throws InterruptedException {
+		return expired.take();
+	}
+
+	/**
+	 * @return the next expired element, or null if none has expired
+	 */
+	public T poll() {
+		return expired.poll();
+	}
+
+	public T poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+		return expired.poll(timeout, unit);
+	}
+
+	/**
+	 * Hands up to {@code limit} expired elements to {@code handler}.
+	 */
+	public int drain(final ElementHandler<? super T> handler, final int limit) {
+		return expired.drain(handler, limit);
+	}
+
+	/**
+	 * @return the queue the ticker hands expired elements to
+	 */
+	public FastBlockingQueue<T> expired() {
+		return expired;
+	}
+
+	/**
+	 * @return the resolution of the wheel in nanoseconds
+	 */
+	public long tickNanos() {
+		return tickNanos;
+	}
+
+	/**
+	 * Stops the ticker. Pending timeouts never expire; elements already in
+	 * {@link #expired()} stay there.
+	 */
+	public void close() {
+		closed = true;
+		ticker.interrupt();
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Puts {@code timeout} into the bucket that comes up at its deadline, or
+	 * expires it if the deadline is not after {@code now}.
+	 */
+	private void place(final Timeout<T> timeout, final long now) throws InterruptedException {
+		if (timeout.state != Timeout.PENDING) {
+			return;
+		}
+		final long deadline = timeout.deadlineTick;
+		if (deadline <= now) {
+			if (Timeout.STATE.compareAndSet(timeout, Timeout.PENDING, Timeout.EXPIRED)) {
+				expired.put(timeout.element);
+			}
+			timeout.element = null;
+			return;
+		}
+		// 超出整个时间轮的放进最高层最远的桶, 到时再重新放置
+		final long target = Math.min(deadline, now + span - 1);
+		final long delta = target - now;
+		int level = 0;
+		while (level < levels - 1 && delta >= 1L << (bits * (level + 1))) {
+			level++;
+		}
+		final int bucket = (int) (target >>> (bits * level)) & mask;
+		timeout.next = wheel[level][bucket];
+		wheel[level][bucket] = timeout;
+	}
+
+	/**
+	 * Empties one bucket and places every timeout in it again.
+	 */
+	private void flush(final int level, final int bucket, final long now) throws InterruptedException {
+		Timeout<T> timeout = wheel[level][bucket];
+		wheel[level][bucket] = null;
+		while (timeout != null) {
+			final Timeout<T> next = timeout.next;
+			timeout.next = null;
+			if (timeout.state == Timeout.PENDING) {
+				place(timeout, now);
+			} else {
+				timeout.element = null;
+			}
+			timeout = next;
+		}
+	}
+
+	/**
+	 * Processes tick {@code now}: cascades the levels whose bucket boundary it
+	 * is, moves new timeouts in and expires the level-0 bucket.
+	 */
+	private void advance(final long now) throws InterruptedException {
+		for (int level = 1; level < levels; level++) {
+			if ((now & ((1L << (bits * level)) - 1)) != 0) {
+				break;
+			}
+			flush(level, (int) (now >>> (bits * level)) & mask, now);
+		}
+		Timeout<T> timeout;
+		while ((timeout = inbound.poll()) != null) {
+			place(timeout, now);
+		}
+		flush(0, (int) now & mask, now);
+	}
+
+	private final class Ticker implements Runnable {
+
+		@Override
+		public void run() {
+			long next = 0;
+			try {
+				while (!closed) {
+					final long wait = startNanos + next * tickNanos - System.nanoTime();
+					if (wait > 0) {
+						LockSupport.parkNanos(this, wait);
+						if (Thread.interrupted()) {
+							return;
+						}
+						continue;
+					}
+					advance(next++);
+				}
+			} catch (InterruptedException e) {
+				// close() 中断了交付过期元素的等待
+			}
+		}
+	}
+
+	/**
+	 * A scheduled element, returned by {@link FastDelayQueue#offer}.
+	 */
+	public static final class Timeout<T> {
+
+		static final int PENDING = 0;
+		static final int EXPIRED = 1;
+		static final int CANCELLED = 2;
+
+		@SuppressWarnings("rawtypes")
+		static final AtomicIntegerFieldUpdater<Timeout> STATE = AtomicIntegerFieldUpdater.newUpdater(Timeout.class,
+				"state");
+
+		/** cleared once the timeout leaves the wheel */
+		T element;
+		final long deadlineTick;
+		volatile int state;
+		/** the next timeout in the same bucket, ticker only */
+		Timeout<T> next;
+
+		Timeout(final T element, final long deadlineTick) {
+			this.element = element;
+			this.deadlineTick = deadlineTick;
+		}
+
+		/**
+		 * Prevents the element from expiring.
+		 *
+		 * @return true if it had not expired or been cancelled yet
+		 */
+		public boolean cancel() {
+			return STATE.compareAndSet(this, PENDING, CANCELLED);
+		}
+
+		public boolean isCancelled() {
+			return state == CANCELLED;
+		}
+
+		public boolean isExpired() {
+			return state == EXPIRED;
+		}
+	}
+}
@@ -0,0 +1,339 @@
+package com.gaea.concurrent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded multi-producer, multi-consumer ring of preallocated, mutable events.
+ * <p>
+ * Every slot gets its event from an {@link EventFactory} when the ring is
+ * built, and the event stays in the slot for the life of the ring. A producer
+ * {@link #claim()}s a sequence, fills {@link #get(long)} and
+ * {@link #publish(long)}es it; a consumer {@link #poll()}s or
+ * {@link #take()}s a published sequence, reads the event and
+ * {@link #release(long)}s the slot back to the producers. Nothing is
+ * allocated once the ring is built, and every event is handed to exactly one
+ * consumer, like a {@link FastQueue}.
+ * <p>
+ * A claimed sequence must always be published and a taken one released,
+ * otherwise the ring stalls one lap later. Events are reused: a consumer must
+ * not keep a reference to one after releasing it.
+ * <p>
+ * Lazy {@link ShardLayout}s are not supported, since dropping a shard would
+ * drop its events.
+ *
+ * @author zhenyu.yin
+ *
+ */
+public final class FastEventRing<E> {
+
+	private final int capacity;
+	private final ShardRingBuffer<E> buffer;
+	private final FastAtomicLong head = new FastAtomicLong();
+	private final FastAtomicLong tail = new FastAtomicLong();
+	private final WaiterGate notEmpty;
+	private final WaiterGate notFull;
+
+	/**
+	 * @param capacity
+	 *            rounded up to a power of 2
+	 * @param factory
+	 *            called {@code capacity} times while the ring is built
+	 */
+	public FastEventRing(final int capacity, final EventFactory<E> factory) {
+		this(capacity, factory, WaitStrategy.blocking(), ShardLayout.atomic());
+	}
+
+	public FastEventRing(final int capacity, final EventFactory<E> factory, final WaitStrategy waitStrategy) {
+		this(capacity, factory, waitStrategy, ShardLayout.atomic());
+	}
+
+	/**
+	 * @param capacity
+	 *            rounded up to a power of 2
+	 * @param factory
+	 *            called {@code capacity} times while the ring is built
+	 * @param waitStrategy
+	 *            how blocked producers and consumers wait, see
+	 *            {@link WaitStrategy}
+	 * @param layout
+	 *            shard size and slot storage of the ring, must not be lazy
+	 * @throws IllegalArgumentException
+	 *             if {@code capacity < 1 or capacity > MAX_SIZE}, or the
+	 *             layout is lazy
+	 */
+	public FastEventRing(int capacity, final EventFactory<E> factory, final WaitStrategy waitStrategy,
+			final ShardLayout layout) {
+		FastQueue.checkNotNull(factory);
+		FastQueue.checkNotNull(waitStrategy);
+		FastQueue.checkNotNull(layout);
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must not be less than 1");
+		}
+		if (capacity > FastQueue.MAX_SIZE) {
+			throw new IllegalArgumentException("capacity must not be less than " + FastQueue.MAX_SIZE);
+		}
+		if (layout.lazy) {
+			throw new IllegalArgumentException("lazy shard layouts are not supported");
+		}
+		if (Integer.bitCount(capacity) != 1) {
+			capacity = Integer.highestOneBit(capacity) << 1;
+		}
+		this.capacity = capacity;
+		this.buffer = ShardRingBuffer.create(capacity, waitStrategy, layout);
+		for (int i = 0; i < capacity; i++) {
+			final E event = factory.newInstance();
+			FastQueue.checkNotNull(event);
+			buffer.lazySetValue(i, event);
+		}
+		this.notEmpty = new WaiterGate(waitStrategy);
+		this.notFull = new WaiterGate(waitStrategy.copy());
+	}
+
+	/**
+	 * Claims the next sequence, waiting for space.
+	 *
+	 * @return the sequence to fill through {@link #get(long)} and publish
+	 */
+	public long claim() throws InterruptedException {
+		return claim(1);
+	}
+
+	/**
+	 * Claims {@code n} consecutive sequences, waiting for space.
+	 *
+	 * @return the first of the claimed sequences
+	 * @throws IllegalArgumentException
+	 *             if {@code n < 1 or n > capacity}
+	 */
+	public long claim(final int n) throws InterruptedException {
+		for (;;) {
+			final long seq = tryClaim(n);
+			if (seq >= 0) {
+				return seq;
+			}
+			if (!isFull(n)) {
+				continue; // 其它生产者移动了 head, 或节点刚被释放
+			}
+			final long seen = notFull.enter();
+			try {
+				if (isFull(n)) {
+					notFull.await(seen);
+				}
+			} finally {
+				notFull.leave();
+			}
+		}
+	}
+
+	/**
+	 * @return the claimed sequence, or -1 if the ring is full
+	 */
+	public long tryClaim() {
+		return tryClaim(1);
+	}
+
+	/**
+	 * @return the first of {@code n} claimed sequences, or -1 if one of them
+	 *         is not released yet
+	 * @throws IllegalArgumentException
+	 *             if {@code n < 1 or n > capacity}
+	 */
+	public long tryClaim(final int n) {
+		if (n < 1 || n > capacity) {
+			throw new IllegalArgumentException("n must be in [1, capacity]");
+		}
+		outer: for (;;) {
+			final long next = head.get();
+			// 逐个确认节点已被消费者释放, 成功申请前没有别的生产者能改动它们
+			for (long seq = next; seq < next + n; seq++) {
+				final long s = buffer.sequence(seq);
+				if (s < seq) {
+					return -1L;
+				}
+				if (s != seq) {
+					continue outer;
+				}
+			}
+			if (head.compareAndSet(next, next + n)) {
+				return next;
+			}
+		}
+	}
+
+	/**
+	 * Checks the slots rather than the tail: a taken slot stays unavailable
+	 * until the consumer has processed its event and released it, so
+	 * producers wait on {@code notFull}, which {@link #release(long)} signals.
+	 */
+	private boolean isFull(final int n) {
+		final long next = head.get();
+		for (long seq = next; seq < next + n; seq++) {
+			// 上一圈的 seq - capacity 还没有释放
+			if (buffer.sequence(seq) < seq) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the event of a claimed or taken sequence
+	 */
+	public E get(final long seq) {
+		return buffer.get(seq);
+	}
+
+	/**
+	 * Makes the event of a claimed sequence visible to consumers.
+	 */
+	public void publish(final long seq) {
+		buffer.lazySetSequence(seq, seq + 1);
+		notEmpty.signal();
+	}
+
+	/**
+	 * Publishes the claimed sequences {@code [lo, hi]}.
+	 */
+	public void publish(final long lo, final long hi) {
+		for (long seq = lo; seq <= hi; seq++) {
+			buffer.lazySetSequence(seq, seq + 1);
+		}
+		notEmpty.signal();
+	}
+
+	/**
+	 * Takes the next published sequence.
+	 *
+	 * @return the sequence to read through {@link #get(long)} and release, or
+	 *         -1 if no event is published at the tail
+	 */
+	public long poll() {
+		for (;;) {
+			final long next = tail.get();
+			final long seq = buffer.sequence(next);
+			if (seq == next + 1) {
+				if (tail.compareAndSet(next, next + 1)) {
+					return next;
+				}
+			} else if (seq < next + 1) {
+				return -1L;
+			}
+		}
+	}
+
+	/**
+	 * Takes the next published sequence, waiting for one.
+	 */
+	public long take() throws InterruptedException {
+		return take(false, 0L);
+	}
+
+	/**
+	 * @return the taken sequence, or -1 if none was published within
+	 *         {@code timeout}
+	 */
+	public long poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+		return take(true, unit.toNanos(timeout));
+	}
+
+	private long take(final boolean timed, final long nanos) throws InterruptedException {
+		final long deadline = timed ? System.nanoTime() + nanos : 0L;
+		int counter = 0;
+		for (;;) {
+			final long seq = poll();
+			if (seq >= 0) {
+				return seq;
+			}
+			final long remaining = timed ? deadline - System.nanoTime() : 0L;
+			if (timed && remaining <= 0) {
+				return -1L;
+			}
+			if (!isEmptyClaimed()) {
+				counter = notEmpty.idle(counter); // 生产者已申请节点,但还没发布
+				continue;
+			}
+			final long seen = notEmpty.enter();
+			try {
+				if (isEmptyClaimed()) {
+					if (timed) {
+						notEmpty.await(seen, remaining);
+					} else {
+						notEmpty.await(seen);
+					}
+				}
+			} finally {
+				notEmpty.leave();
+			}
+		}
+	}
+
+	private boolean isEmptyClaimed() {
+		return tail.get() >= head.get();
+	}
+
+	/**
+	 * Returns the slot of a taken sequence to the producers.
+	 */
+	public void release(final long seq) {
+		buffer.lazySetSequence(seq, seq + capacity);
+		// 释放是有序写, 读等待者数之前需要 StoreLoad 屏障
+		Util.fullFence();
+		notFull.signal();
+	}
+
+	/**
+	 * Takes up to {@code limit} published events, hands each to
+	 * {@code handler} and releases it. If the handler throws, the remaining
+	 * taken events are released unhandled.
+	 *
+	 * @return the number of events passed to {@code handler}
+	 */
+	public int drain(final ElementHandler<? super E> handler, final int limit) {
+		FastQueue.checkNotNull(handler);
+		long next;
+		int n;
+		for (;;) {
+			next = tail.get();
+			n = 0;
+			while (n < limit && buffer.sequence(next + n) == next + n + 1) {
+				n++;
+			}
+			if (n == 0 || tail.compareAndSet(next, next + n)) {
+				break;
+			}
+		}
+		int done = 0;
+		try {
+			while (done < n) {
+				final long seq = next + done++;
+				try {
+					handler.onElement(buffer.get(seq));
+				} finally {
+					buffer.lazySetSequence(seq, seq + capacity);
+				}
+			}
+		} finally {
+			while (done < n) {
+				final long seq = next + done++;
+				buffer.lazySetSequence(seq, seq + capacity);
+			}
+			if (n > 0) {
+				Util.fullFence();
+				notFull.signal();
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * @return the number of claimed sequences not yet taken, weakly consistent
+	 */
+	public int size() {
+		final long size = head.get() - tail.get();
+		return (int) Math.max(0L, Math.min(size, capacity));
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+}
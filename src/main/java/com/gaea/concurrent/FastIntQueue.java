@@ -0,0 +1,124 @@
+package com.gaea.concurrent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded blocking queue of primitive {@code int} values.
+ * <p>
+ * Values live in {@code int[]} shards with the same power-of-two layout as
+ * {@link FastQueue}; every slot carries a publication sequence instead of a
+ * null sentinel, so neither {@code offer} nor {@code poll} allocates or boxes.
+ * Methods that can find the queue empty return {@link #missingValue()}.
+ *
+ * @author zhenyu.yin
+ *
+ */
+public class FastIntQueue extends PrimitiveQueue {
+
+	private final int[][] values;
+	private final int missingValue;
+
+	/**
+	 * Creates an {@code FastIntQueue} whose empty marker is
+	 * {@code Integer.MIN_VALUE}.
+	 *
+	 * @param capacity
+	 *            the capacity of this queue .the capacity will be corrected to 2
+	 *            to the N
+	 */
+	public FastIntQueue(final int capacity) {
+		this(capacity, Integer.MIN_VALUE, WaitStrategy.blocking());
+	}
+
+	/**
+	 * @param capacity
+	 *            the capacity of this queue .the capacity will be corrected to 2
+	 *            to the N
+	 * @param missingValue
+	 *            returned by {@code poll} when the queue is empty
+	 * @param waitStrategy
+	 *            how blocked producers and consumers wait, see
+	 *            {@link WaitStrategy}
+	 * @throws IllegalArgumentException
+	 *             if {@code capacity < 1 or capacity > MAX_SIZE}
+	 */
+	public FastIntQueue(final int capacity, final int missingValue, final WaitStrategy waitStrategy) {
+		super(capacity, waitStrategy);
+		this.values = new int[ring.shardCount()][ring.shardSize()];
+		this.missingValue = missingValue;
+	}
+
+	public boolean offer(final int v) {
+		final long next = ring.tryClaimPut();
+		if (next < 0) {
+			return false;
+		}
+		store(next, v);
+		return true;
+	}
+
+	public void put(final int v) throws InterruptedException {
+		store(ring.claimPut(false, 0L), v);
+	}
+
+	public boolean offer(final int v, final long timeout, final TimeUnit unit) throws InterruptedException {
+		final long next = ring.claimPut(true, unit.toNanos(timeout));
+		if (next < 0) {
+			return false;
+		}
+		store(next, v);
+		return true;
+	}
+
+	/**
+	 * @return the head value, or {@link #missingValue()} if the queue is empty
+	 */
+	public int poll() {
+		final long next = ring.tryClaimTake();
+		return next < 0 ? missingValue : load(next);
+	}
+
+	public int take() throws InterruptedException {
+		return load(ring.claimTake(false, 0L));
+	}
+
+	/**
+	 * @return the head value, or {@link #missingValue()} if the timeout elapsed
+	 */
+	public int poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+		final long next = ring.claimTake(true, unit.toNanos(timeout));
+		return next < 0 ? missingValue : load(next);
+	}
+
+	/**
+	 * @return the head value without removing it, or {@link #missingValue()}
+	 *         if the queue is empty
+	 */
+	public int peek() {
+		for (;;) {
+			final long next = head();
+			if (next < 0) {
+				return missingValue;
+			}
+			final int v = values[ring.shard(next)][ring.index(next)];
+			if (stillHead(next)) {
+				return v;
+			}
+		}
+	}
+
+	private void store(final long next, final int v) {
+		values[ring.shard(next)][ring.index(next)] = v;
+		ring.publish(next);
+	}
+
+	private int load(final long next) {
+		final int v = values[ring.shard(next)][ring.index(next)];
+		ring.release(next);
+		return v;
+	}
+
+	public int missingValue() {
+		return missingValue;
+	}
+}
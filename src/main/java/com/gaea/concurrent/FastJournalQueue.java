@@ -0,0 +1,596 @@
+package com.gaea.concurrent;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import sun.misc.Unsafe;
+
+/**
+ * Persistent multi producer, single consumer queue of byte messages that
+ * survives a process restart.
+ * <p>
+ * The ring is split into shard-sized segment files, each mapped once with its
+ * own {@link MappedByteBuffer}; a position maps to a segment and an offset the
+ * same way {@link ShardRingBuffer} maps an index to a shard and a slot.
+ * Messages are {@code [int length][int mark][long checksum][payload]} records
+ * aligned to 8 bytes that never span two segments. Producers claim space with one CAS on
+ * {@code head}, copy the payload straight into the mapping and publish in
+ * claim order, so the committed range is always contiguous. A small
+ * {@code journal.meta} file keeps the committed head and the consumed tail and
+ * is written whenever the {@link FlushPolicy} forces the segments.
+ * <p>
+ * Reopening a directory continues from the persisted head and tail and scans
+ * forward only over records committed after the last flush, so recovery time
+ * depends on the unflushed tail of the journal, not its history. The mark of a
+ * record is derived from its position, so stale records of an earlier lap are
+ * not mistaken for new ones, and the scan stops at the first record whose
+ * checksum does not match its payload, so a torn write is not replayed.
+ * Messages read but not yet flushed as consumed are delivered again after a
+ * restart; their space is not reused until the consumed tail is on disk, and a
+ * producer that finds the journal full only up to that tail flushes it first.
+ * Files use the native byte order.
+ *
+ * @author zhenyu.yin
+ *
+ */
+public class FastJournalQueue implements Closeable {
+
+	public static final int HEADER_LENGTH = 16;
+	public static final int DEFAULT_SEGMENTS = 8;
+
+	private static final String META_FILE = "journal.meta";
+	private static final int MAGIC = 0x464a5132;
+	private static final int META_LENGTH = 64;
+	private static final int SEGMENT_SIZE_OFFSET = 4;
+	private static final int CAPACITY_OFFSET = 8;
+	private static final int HEAD_OFFSET = 16;
+	private static final int TAIL_OFFSET = 24;
+	private static final int MARK_OFFSET = 4;
+	private static final int CHECKSUM_OFFSET = 8;
+	private static final int ALIGN_MASK = 7;
+
+	private static final Unsafe unsafe = Util.getUnsafe();
+
+	private final FastAtomicLong head;
+	private final FastAtomicLong committed;
+	private final FastAtomicLong tail;
+	private final FastAtomicLong writes = new FastAtomicLong();
+	/** the consumed tail last written to disk, producers never pass it by more than capacity */
+	private volatile long durableTail;
+	private long tailcache;
+
+	private final int capacity;
+	private final int segmentSize;
+	private final int segmentBit;
+	private final int segmentMask;
+	private final int maxMessageLength;
+	private final WaitStrategy waitStrategy = WaitStrategy.yielding();
+	private final FlushPolicy flushPolicy;
+
+	private final RandomAccessFile[] files;
+	private final MappedByteBuffer[] segments;
+	private final ByteBuffer[] views;
+	private final long[] addresses;
+	private final MappedByteBuffer meta;
+	private final long metaAddress;
+
+	private final ReentrantLock flushLock = new ReentrantLock();
+	private volatile long flushed;
+	private volatile boolean closed;
+	private final ScheduledExecutorService flusher;
+
+	/**
+	 * Opens or creates a journal of {@code capacity} bytes in {@link #DEFAULT_SEGMENTS}
+	 * segments that is forced to disk once a second.
+	 *
+	 * @param dir
+	 *            the directory holding the segment files, created if missing
+	 * @param capacity
+	 *            ring size in bytes .the capacity will be corrected to 2 to the N
+	 */
+	public FastJournalQueue(final File dir, final int capacity) throws IOException {
+		this(dir, capacity, Math.max(capacity / DEFAULT_SEGMENTS, 64), FlushPolicy.periodic(1, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * @param dir
+	 *            the directory holding the segment files, created if missing
+	 * @param capacity
+	 *            ring size in bytes .the capacity will be corrected to 2 to the N
+	 * @param segmentSize
+	 *            bytes per segment file, also the largest record .the size will
+	 *            be corrected to 2 to the N
+	 * @param flushPolicy
+	 *            when segments and header are forced to disk
+	 * @throws IllegalArgumentException
+	 *             if {@code capacity < 1 or capacity > MAX_SIZE}, the segment
+	 *             size is less than 64 or larger than the capacity, or an
+	 *             existing journal was created with another geometry
+	 * @throws IOException
+	 *             if the files cannot be created, mapped or recovered
+	 */
+	public FastJournalQueue(final File dir, int capacity, int segmentSize, final FlushPolicy flushPolicy)
+			throws IOException {
+		FastQueue.checkNotNull(dir);
+		FastQueue.checkNotNull(flushPolicy);
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must not be less than 1");
+		}
+		if (capacity > FastQueue.MAX_SIZE) {
+			throw new IllegalArgumentException("capacity must not be less than " + FastQueue.MAX_SIZE);
+		}
+		if (Integer.bitCount(capacity) != 1) {
+			capacity = Integer.highestOneBit(capacity) << 1;
+		}
+		if (segmentSize > 0 && Integer.bitCount(segmentSize) != 1) {
+			segmentSize = Integer.highestOneBit(segmentSize) << 1;
+		}
+		if (segmentSize < 64 || segmentSize > capacity) {
+			throw new IllegalArgumentException("segmentSize must be in [64, " + capacity + "]");
+		}
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("cannot create " + dir);
+		}
+		this.capacity = capacity;
+		this.segmentSize = segmentSize;
+		this.segmentMask = segmentSize - 1;
+		this.segmentBit = Integer.bitCount(segmentMask);
+		this.maxMessageLength = segmentSize - HEADER_LENGTH;
+		this.flushPolicy = flushPolicy;
+
+		final int count = capacity / segmentSize;
+		this.files = new RandomAccessFile[count + 1];
+		this.segments = new MappedByteBuffer[count];
+		this.views = new ByteBuffer[count];
+		this.addresses = new long[count];
+
+		final File metaFile = new File(dir, META_FILE);
+		final boolean exists = metaFile.exists();
+		this.meta = map(count, metaFile, META_LENGTH);
+		this.metaAddress = Util.address(meta);
+		for (int i = 0; i < count; i++) {
+			segments[i] = map(i, new File(dir, "segment-" + i + ".dat"), segmentSize);
+			views[i] = segments[i].asReadOnlyBuffer().order(ByteOrder.nativeOrder());
+			addresses[i] = Util.address(segments[i]);
+		}
+
+		long h = 0;
+		long t = 0;
+		if (exists) {
+			if (unsafe.getInt(metaAddress) != MAGIC) {
+				close(files);
+				throw new IOException(metaFile + " is not a journal header");
+			}
+			if (unsafe.getInt(metaAddress + SEGMENT_SIZE_OFFSET) != segmentSize
+					|| unsafe.getInt(metaAddress + CAPACITY_OFFSET) != capacity) {
+				close(files);
+				throw new IllegalArgumentException("journal in " + dir + " has capacity "
+						+ unsafe.getInt(metaAddress + CAPACITY_OFFSET) + " and segmentSize "
+						+ unsafe.getInt(metaAddress + SEGMENT_SIZE_OFFSET));
+			}
+			h = unsafe.getLong(metaAddress + HEAD_OFFSET);
+			t = unsafe.getLong(metaAddress + TAIL_OFFSET);
+			if (t < 0 || t > h || h - t > capacity) {
+				close(files);
+				throw new IOException(metaFile + " is corrupted");
+			}
+			h = recover(h, t);
+		} else {
+			unsafe.putInt(metaAddress, MAGIC);
+			unsafe.putInt(metaAddress + SEGMENT_SIZE_OFFSET, segmentSize);
+			unsafe.putInt(metaAddress + CAPACITY_OFFSET, capacity);
+		}
+		this.head = new FastAtomicLong(h);
+		this.committed = new FastAtomicLong(h);
+		this.tail = new FastAtomicLong(t);
+		this.durableTail = t;
+		this.tailcache = t;
+		this.flushed = -1;
+		flush();
+
+		if (flushPolicy.periodNanos > 0) {
+			this.flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread t = new Thread(r, "fast-journal-flusher");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			flusher.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					flush();
+				}
+			}, flushPolicy.periodNanos, flushPolicy.periodNanos, TimeUnit.NANOSECONDS);
+		} else {
+			this.flusher = null;
+		}
+	}
+
+	private MappedByteBuffer map(final int i, final File file, final int length) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		files[i] = raf;
+		try {
+			if (raf.length() != length) {
+				raf.setLength(length);
+			}
+			final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+			buffer.order(ByteOrder.nativeOrder());
+			return buffer;
+		} catch (IOException e) {
+			close(files);
+			throw e;
+		}
+	}
+
+	/**
+	 * Walks the records committed after the last flush of the header.
+	 *
+	 * @return the recovered head
+	 */
+	private long recover(long h, final long t) {
+		for (;;) {
+			final long address = address(h);
+			final int mark = unsafe.getInt(address + MARK_OFFSET);
+			final int length = unsafe.getInt(address);
+			final int toEnd = segmentSize - (int) (h & segmentMask);
+			final long end;
+			if (mark == mark(h) && length >= 0 && length <= maxMessageLength && HEADER_LENGTH + length <= toEnd
+					&& unsafe.getLong(address + CHECKSUM_OFFSET) == checksum(address + HEADER_LENGTH, length)) {
+				end = h + align(HEADER_LENGTH + length);
+			} else if (mark == ~mark(h) && length == toEnd - HEADER_LENGTH) {
+				end = h + toEnd;
+			} else {
+				return h;
+			}
+			if (end - t > capacity) {
+				return h;
+			}
+			h = end;
+		}
+	}
+
+	/**
+	 * Appends {@code src[off, off + len)} as one message.
+	 *
+	 * @return false if the journal is full
+	 * @throws IllegalArgumentException
+	 *             if {@code len > maxMessageLength()}
+	 * @throws IllegalStateException
+	 *             if the journal is closed
+	 */
+	public boolean offer(final byte[] src, final int off, final int len) {
+		if (off < 0 || len < 0 || off > src.length - len)
+			throw new IndexOutOfBoundsException();
+		final long next = claim(len);
+		if (next < 0) {
+			return false;
+		}
+		unsafe.copyMemory(src, Unsafe.ARRAY_BYTE_BASE_OFFSET + off, null, address(record(next, len)) + HEADER_LENGTH,
+				len);
+		commit(next, len);
+		return true;
+	}
+
+	public boolean offer(final byte[] src) {
+		return offer(src, 0, src.length);
+	}
+
+	/**
+	 * Appends the remaining bytes of {@code src} as one message without moving
+	 * its position.
+	 *
+	 * @return false if the journal is full
+	 */
+	public boolean offer(final ByteBuffer src) {
+		final int len = src.remaining();
+		final long next = claim(len);
+		if (next < 0) {
+			return false;
+		}
+		final long address = address(record(next, len)) + HEADER_LENGTH;
+		if (src.hasArray()) {
+			unsafe.copyMemory(src.array(), Unsafe.ARRAY_BYTE_BASE_OFFSET + src.arrayOffset() + src.position(), null,
+					address, len);
+		} else if (src.isDirect()) {
+			unsafe.copyMemory(Util.address(src) + src.position(), address, len);
+		} else {
+			for (int i = 0; i < len; i++) {
+				unsafe.putByte(address + i, src.get(src.position() + i));
+			}
+		}
+		commit(next, len);
+		return true;
+	}
+
+	/**
+	 * @return the claimed position, or -1 if the journal is full
+	 */
+	private long claim(final int length) {
+		if (closed) {
+			throw new IllegalStateException("queue is closed");
+		}
+		if (length > maxMessageLength) {
+			throw new IllegalArgumentException("length must not be greater than " + maxMessageLength);
+		}
+		final int recordLength = align(HEADER_LENGTH + length);
+		long next;
+		long end;
+		int padding;
+		for (;;) {
+			next = head.get();
+			final int toEnd = segmentSize - (int) (next & segmentMask);
+			padding = recordLength > toEnd ? toEnd : 0;
+			end = next + padding + recordLength;
+			if (end - tailcache > capacity && end - (tailcache = durableTail) > capacity) {
+				if (end - tail.get() > capacity) {
+					return -1;
+				}
+				// 已读的空间要等消费位置落盘后才能覆盖, 否则重启后会从旧位置重放被覆盖的记录
+				flush();
+				continue;
+			}
+			if (head.compareAndSet(next, end)) {
+				break;
+			}
+		}
+		if (padding > 0) {
+			final long pad = address(next);
+			unsafe.putInt(pad, padding - HEADER_LENGTH);
+			unsafe.putInt(pad + MARK_OFFSET, ~mark(next));
+		}
+		unsafe.putInt(address(next + padding), length);
+		return next;
+	}
+
+	/**
+	 * Publishes the record claimed at {@code next} once every record claimed
+	 * before it is published, then applies the flush policy.
+	 */
+	private void commit(final long next, final int length) {
+		final long start = record(next, length);
+		final long end = start + align(HEADER_LENGTH + length);
+		int counter = 0;
+		// 按申请顺序发布, committed 之前的记录都已写完
+		while (committed.get() != next) {
+			counter = waitStrategy.idle(counter);
+		}
+		final long address = address(start);
+		unsafe.putLong(address + CHECKSUM_OFFSET, checksum(address + HEADER_LENGTH, length));
+		unsafe.putOrderedInt(null, address + MARK_OFFSET, mark(start));
+		committed.set(end);
+		if (flushPolicy.batch > 0 && writes.incrementAndGet() % flushPolicy.batch == 0) {
+			flush(end);
+		}
+	}
+
+	/**
+	 * @return the position of a record of {@code length} bytes claimed at
+	 *         {@code next}, after the padding to the end of the segment if it
+	 *         does not fit there
+	 */
+	private long record(final long next, final int length) {
+		final int toEnd = segmentSize - (int) (next & segmentMask);
+		return align(HEADER_LENGTH + length) > toEnd ? next + toEnd : next;
+	}
+
+	/**
+	 * Reads up to {@code limit} messages in order. Must only be called by one
+	 * consumer thread at a time. The handler gets a read-only view of the
+	 * mapped segment; if it throws, the message it was given counts as read.
+	 *
+	 * @return the number of messages passed to {@code handler}
+	 * @throws IllegalStateException
+	 *             if a committed record is neither a message nor padding
+	 */
+	public int read(final ByteMessageHandler handler, final int limit) {
+		FastQueue.checkNotNull(handler);
+		final long end = committed.get();
+		long next = tail.get();
+		int count = 0;
+		try {
+			while (count < limit && next < end) {
+				final long address = address(next);
+				final int length = unsafe.getInt(address);
+				final int mark = unsafe.getInt(address + MARK_OFFSET);
+				final long position = next;
+				if (mark == mark(position)) {
+					next += align(HEADER_LENGTH + length);
+					count++;
+					handler.onMessage(views[segment(position)], (int) (position & segmentMask) + HEADER_LENGTH,
+							length);
+				} else if (mark == ~mark(position)) {
+					next += segmentSize - (int) (position & segmentMask);
+				} else {
+					throw corrupted(position);
+				}
+			}
+		} finally {
+			tail.lazySet(next);
+		}
+		return count;
+	}
+
+	/**
+	 * @return a copy of the next message, or {@code null} if the journal is
+	 *         empty
+	 * @throws IllegalStateException
+	 *             if a committed record is neither a message nor padding
+	 */
+	public byte[] poll() {
+		final long end = committed.get();
+		long next = tail.get();
+		while (next < end) {
+			final long address = address(next);
+			final int length = unsafe.getInt(address);
+			final int mark = unsafe.getInt(address + MARK_OFFSET);
+			if (mark == mark(next)) {
+				final byte[] bytes = new byte[length];
+				unsafe.copyMemory(null, address + HEADER_LENGTH, bytes, Unsafe.ARRAY_BYTE_BASE_OFFSET, length);
+				tail.lazySet(next + align(HEADER_LENGTH + length));
+				return bytes;
+			}
+			if (mark != ~mark(next)) {
+				throw corrupted(next);
+			}
+			next += segmentSize - (int) (next & segmentMask);
+			tail.lazySet(next);
+		}
+		return null;
+	}
+
+	private IllegalStateException corrupted(final long position) {
+		return new IllegalStateException("corrupted record at " + position);
+	}
+
+	/**
+	 * Forces the segments written since the last flush, then the header with
+	 * the committed head and the consumed tail.
+	 */
+	public void flush() {
+		flush(Long.MAX_VALUE);
+	}
+
+	/**
+	 * @param upTo
+	 *            the caller only needs the journal durable up to this position
+	 */
+	private void flush(final long upTo) {
+		if (flushed >= upTo) {
+			return; // 其他线程已经刷盘
+		}
+		flushLock.lock();
+		try {
+			final long end = committed.get();
+			final long from = flushed;
+			if (from >= upTo) {
+				return;
+			}
+			if (from < 0 || end - from >= capacity) {
+				for (MappedByteBuffer segment : segments) {
+					segment.force();
+				}
+			} else if (end > from) {
+				final long last = (end - 1) >> segmentBit;
+				for (long s = from >> segmentBit; s <= last; s++) {
+					segments[(int) s & (segments.length - 1)].force();
+				}
+			}
+			final long t = tail.get();
+			unsafe.putLong(metaAddress + HEAD_OFFSET, end);
+			unsafe.putLong(metaAddress + TAIL_OFFSET, t);
+			meta.force();
+			flushed = end;
+			durableTail = t;
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	/**
+	 * Flushes and closes the segment files. The mappings stay valid until
+	 * they are garbage collected.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (flusher != null) {
+			flusher.shutdown();
+		}
+		flush();
+		close(files);
+	}
+
+	private static void close(final RandomAccessFile[] files) throws IOException {
+		IOException failure = null;
+		for (RandomAccessFile file : files) {
+			if (file == null) {
+				continue;
+			}
+			try {
+				file.close();
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private int segment(final long position) {
+		return (int) (position >> segmentBit) & (segments.length - 1);
+	}
+
+	private long address(final long position) {
+		return addresses[segment(position)] + (position & segmentMask);
+	}
+
+	/**
+	 * @return the commit mark of a record at {@code position}; a padding
+	 *         record carries its complement
+	 */
+	private static int mark(final long position) {
+		return (int) (position >>> 3) ^ MAGIC;
+	}
+
+	/**
+	 * @return a hash of {@code length} bytes at {@code address}, so that the
+	 *         recovery scan rejects a record whose payload was only partly
+	 *         written
+	 */
+	private static long checksum(final long address, final int length) {
+		long h = (length + 1) * 0x9E3779B97F4A7C15L;
+		int i = 0;
+		for (; i + 8 <= length; i += 8) {
+			h = Long.rotateLeft(h ^ unsafe.getLong(address + i) * 0xC2B2AE3D27D4EB4FL, 31) * 0x9E3779B97F4A7C15L;
+		}
+		for (; i < length; i++) {
+			h = (h ^ unsafe.getByte(address + i)) * 0x100000001B3L;
+		}
+		return h ^ h >>> 29;
+	}
+
+	private static int align(final int length) {
+		return (length + ALIGN_MASK) & ~ALIGN_MASK;
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	public int segmentSize() {
+		return segmentSize;
+	}
+
+	public int maxMessageLength() {
+		return maxMessageLength;
+	}
+
+	/**
+	 * @return the number of bytes committed and not yet read, including
+	 *         headers and padding
+	 */
+	public int size() {
+		return (int) Math.max(committed.get() - tail.get(), 0);
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+}
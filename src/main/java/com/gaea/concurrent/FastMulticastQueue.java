@@ -0,0 +1,434 @@
+package com.gaea.concurrent;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Bounded multi-producer ring that broadcasts every element to all of its
+ * {@link Reader}s, instead of handing it to exactly one consumer like
+ * {@link FastQueue}.
+ * <p>
+ * Every reader owns a padded cursor, the index of the next element it reads.
+ * Slots are never released: a producer may overwrite a slot once the slowest
+ * reader has moved past it, so the ring keeps up to one lap of references
+ * alive. Producers cache the slowest cursor and only scan the readers again
+ * when the ring looks full.
+ * <p>
+ * Readers join with {@link #subscribe()} and see the elements offered after
+ * they joined; {@link Reader#close()} leaves the ring and stops gating the
+ * producers. A reader may be subscribed after other readers of the same ring
+ * and then never gets ahead of any of them, e.g. a replicator that only sends
+ * what the journaller has already written. With no reader at all, offered
+ * elements are dropped.
+ * <p>
+ * Lazy {@link ShardLayout}s are not supported, since their shards are
+ * recycled through the release step a broadcast ring does not have.
+ *
+ * @author zhenyu.yin
+ *
+ */
+public final class FastMulticastQueue<T> {
+
+	@SuppressWarnings("rawtypes")
+	private static final Reader[] NO_READERS = new Reader[0];
+
+	private final int capacity;
+	private final ShardRingBuffer<T> buffer;
+	private final FastAtomicLong head = new FastAtomicLong();
+	/** a lower bound of the slowest reader cursor */
+	private final FastAtomicLong gate = new FastAtomicLong();
+	private final AtomicReference<Reader<T>[]> readers;
+	private final WaiterGate notEmpty;
+	private final WaiterGate notFull;
+
+	/**
+	 * @param capacity
+	 *            rounded up to a power of 2
+	 */
+	public FastMulticastQueue(final int capacity) {
+		this(capacity, WaitStrategy.blocking(), ShardLayout.atomic());
+	}
+
+	public FastMulticastQueue(final int capacity, final WaitStrategy waitStrategy) {
+		this(capacity, waitStrategy, ShardLayout.atomic());
+	}
+
+	/**
+	 * @param capacity
+	 *            rounded up to a power of 2
+	 * @param waitStrategy
+	 *            how blocked producers and readers wait, see
+	 *            {@link WaitStrategy}
+	 * @param layout
+	 *            shard size and slot storage of the ring, must not be lazy
+	 * @throws IllegalArgumentException
+	 *             if {@code capacity < 1 or capacity > MAX_SIZE}, or the
+	 *             layout is lazy
+	 */
+	@SuppressWarnings("unchecked")
+	public FastMulticastQueue(int capacity, final WaitStrategy waitStrategy, final ShardLayout layout) {
+		FastQueue.checkNotNull(waitStrategy);
+		FastQueue.checkNotNull(layout);
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must not be less than 1");
+		}
+		if (capacity > FastQueue.MAX_SIZE) {
+			throw new IllegalArgumentException("capacity must not be less than " + FastQueue.MAX_SIZE);
+		}
+		if (layout.lazy) {
+			throw new IllegalArgumentException("lazy shard layouts are not supported");
+		}
+		if (Integer.bitCount(capacity) != 1) {
+			capacity = Integer.highestOneBit(capacity) << 1;
+		}
+		this.capacity = capacity;
+		this.buffer = ShardRingBuffer.create(capacity, waitStrategy, layout);
+		this.readers = new AtomicReference<Reader<T>[]>(NO_READERS);
+		this.notEmpty = new WaiterGate(waitStrategy);
+		this.notFull = new WaiterGate(waitStrategy.copy());
+	}
+
+	/**
+	 * Inserts {@code t} for every current reader if the slowest one leaves
+	 * room for it.
+	 *
+	 * @return false if the ring is full
+	 */
+	public boolean offer(final T t) {
+		FastQueue.checkNotNull(t);
+		for (;;) {
+			final long next = head.get();
+			final long wrap = next - capacity;
+			if (wrap >= gate.get()) {
+				final long min = slowest(next);
+				gate.lazySet(min);
+				if (wrap >= min) {
+					return false;
+				}
+			}
+			if (head.compareAndSet(next, next + 1)) {
+				buffer.publish(next, t);
+				notEmpty.signal();
+				return true;
+			}
+		}
+	}
+
+	public void put(final T t) throws InterruptedException {
+		FastQueue.checkNotNull(t);
+		while (!offer(t)) {
+			final long seen = notFull.enter();
+			try {
+				if (isFull()) {
+					notFull.await(seen);
+				}
+			} finally {
+				notFull.leave();
+			}
+		}
+	}
+
+	/**
+	 * @return false if the ring stayed full for {@code timeout}
+	 */
+	public boolean offer(final T t, final long timeout, final TimeUnit unit) throws InterruptedException {
+		FastQueue.checkNotNull(t);
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!offer(t)) {
+			final long nanos = deadline - System.nanoTime();
+			if (nanos <= 0) {
+				return false;
+			}
+			final long seen = notFull.enter();
+			try {
+				if (isFull()) {
+					notFull.await(seen, nanos);
+				}
+			} finally {
+				notFull.leave();
+			}
+		}
+		return true;
+	}
+
+	private boolean isFull() {
+		final long next = head.get();
+		return next - capacity >= slowest(next);
+	}
+
+	/**
+	 * The smallest cursor of the readers, but at most {@code next}. The reader
+	 * array is read again afterwards: a scan that missed a reader which joined
+	 * meanwhile is repeated, so that the joining reader can trust every bound
+	 * published before its join was visible.
+	 */
+	private long slowest(final long next) {
+		for (;;) {
+			final Reader<T>[] rs = readers.get();
+			long min = next;
+			for (int i = 0; i < rs.length; i++) {
+				min = Math.min(min, rs[i].cursor.get());
+			}
+			if (readers.get() == rs) {
+				return min;
+			}
+		}
+	}
+
+	/**
+	 * Adds a reader that sees every element offered from now on.
+	 */
+	public Reader<T> subscribe() {
+		return subscribe(Collections.<Reader<T>> emptyList());
+	}
+
+	/**
+	 * Adds a reader that never gets ahead of {@code after}.
+	 */
+	public Reader<T> subscribe(final Reader<T> after) {
+		return subscribe(Collections.singletonList(after));
+	}
+
+	/**
+	 * Adds a reader that never gets ahead of any reader in {@code after}.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if one of them belongs to another ring
+	 */
+	@SuppressWarnings("unchecked")
+	public Reader<T> subscribe(final Collection<? extends Reader<T>> after) {
+		FastQueue.checkNotNull(after);
+		final Reader<T>[] deps = after.toArray(new Reader[after.size()]);
+		for (int i = 0; i < deps.length; i++) {
+			FastQueue.checkNotNull(deps[i]);
+			if (deps[i].queue != this) {
+				throw new IllegalArgumentException("reader belongs to another queue");
+			}
+		}
+		final Reader<T> reader = new Reader<T>(this, deps, head.get());
+		for (;;) {
+			final Reader<T>[] rs = readers.get();
+			final Reader<T>[] update = Arrays.copyOf(rs, rs.length + 1);
+			update[rs.length] = reader;
+			if (readers.compareAndSet(rs, update)) {
+				break;
+			}
+		}
+		// 加入后再取一次 head: 之前按旧读者集合算出的写入上界都不会超过它
+		reader.start(head.get());
+		return reader;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void remove(final Reader<T> reader) {
+		for (;;) {
+			final Reader<T>[] rs = readers.get();
+			int i = 0;
+			while (i < rs.length && rs[i] != reader) {
+				i++;
+			}
+			if (i == rs.length) {
+				return;
+			}
+			final Reader<T>[] update = rs.length == 1 ? NO_READERS : new Reader[rs.length - 1];
+			System.arraycopy(rs, 0, update, 0, i);
+			System.arraycopy(rs, i + 1, update, i, rs.length - i - 1);
+			if (readers.compareAndSet(rs, update)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of subscribed readers
+	 */
+	public int readers() {
+		return readers.get().length;
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * One consumer of a {@link FastMulticastQueue}, seeing every element in
+	 * order. A reader is used by one thread at a time, the thread that also
+	 * closes it.
+	 */
+	public static final class Reader<T> {
+
+		private final FastMulticastQueue<T> queue;
+		private final Reader<T>[] after;
+		private final FastAtomicLong cursor;
+		/** the next index to read, the same as cursor but thread-local */
+		private long next;
+		/** the cursor of the slowest reader in after, cached */
+		private long limit;
+		private boolean closed;
+
+		Reader(final FastMulticastQueue<T> queue, final Reader<T>[] after, final long start) {
+			this.queue = queue;
+			this.after = after;
+			this.cursor = new FastAtomicLong(start);
+			this.next = start;
+			this.limit = after.length == 0 ? Long.MAX_VALUE : Long.MIN_VALUE;
+		}
+
+		void start(final long start) {
+			next = start;
+			cursor.set(start);
+		}
+
+		/**
+		 * @return the next element, or null if there is none yet
+		 * @throws IllegalStateException
+		 *             if the reader is closed
+		 */
+		public T poll() {
+			if (!available(next)) {
+				return null;
+			}
+			final T t = queue.buffer.get(next);
+			advance(next + 1);
+			return t;
+		}
+
+		public T take() throws InterruptedException {
+			return take(false, 0L);
+		}
+
+		/**
+		 * @return the next element, or null if none arrived within
+		 *         {@code timeout}
+		 */
+		public T poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+			return take(true, unit.toNanos(timeout));
+		}
+
+		private T take(final boolean timed, final long nanos) throws InterruptedException {
+			final long deadline = timed ? System.nanoTime() + nanos : 0L;
+			final WaiterGate notEmpty = queue.notEmpty;
+			int counter = 0;
+			for (;;) {
+				final T t = poll();
+				if (t != null) {
+					return t;
+				}
+				final long remaining = timed ? deadline - System.nanoTime() : 0L;
+				if (timed && remaining <= 0) {
+					return null;
+				}
+				if (!isEmptyClaimed()) {
+					counter = notEmpty.idle(counter); // 生产者已申请节点,但还没发布
+					continue;
+				}
+				final long seen = notEmpty.enter();
+				try {
+					if (isEmptyClaimed()) {
+						if (timed) {
+							notEmpty.await(seen, remaining);
+						} else {
+							notEmpty.await(seen);
+						}
+					}
+				} finally {
+					notEmpty.leave();
+				}
+			}
+		}
+
+		/**
+		 * Hands up to {@code limit} available elements to {@code handler}
+		 * and moves the cursor once for all of them. If the handler throws,
+		 * the cursor is left after the element it threw on.
+		 *
+		 * @return the number of elements passed to {@code handler}
+		 */
+		public int drain(final ElementHandler<? super T> handler, final int limit) {
+			FastQueue.checkNotNull(handler);
+			final long start = next;
+			long index = start;
+			try {
+				while (index - start < limit && available(index)) {
+					final T t = queue.buffer.get(index++);
+					handler.onElement(t);
+				}
+			} finally {
+				if (index != start) {
+					advance(index);
+				}
+			}
+			return (int) (index - start);
+		}
+
+		/**
+		 * @return the number of elements claimed by producers that this reader
+		 *         has not read yet
+		 */
+		public long lag() {
+			return closed ? 0L : Math.max(0L, queue.head.get() - next);
+		}
+
+		/**
+		 * Leaves the ring: producers no longer wait for this reader and the
+		 * readers subscribed after it are no longer held back by it.
+		 */
+		public void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			queue.remove(this);
+			cursor.set(Long.MAX_VALUE);
+			queue.notFull.signal();
+			queue.notEmpty.signal();
+		}
+
+		public boolean isClosed() {
+			return closed;
+		}
+
+		private boolean available(final long index) {
+			if (closed) {
+				throw new IllegalStateException("reader is closed");
+			}
+			if (index >= limit) {
+				limit = slowestBefore();
+				if (index >= limit) {
+					return false;
+				}
+			}
+			return queue.buffer.sequence(index) == index + 1;
+		}
+
+		private long slowestBefore() {
+			long min = Long.MAX_VALUE;
+			for (int i = 0; i < after.length; i++) {
+				min = Math.min(min, after[i].cursor.get());
+			}
+			return min;
+		}
+
+		/**
+		 * Publishes the cursor with a volatile store, the full fence the
+		 * {@link WaiterGate} protocol needs before signalling.
+		 */
+		private void advance(final long index) {
+			next = index;
+			cursor.set(index);
+			queue.notFull.signal();
+			queue.notEmpty.signal();
+		}
+
+		/**
+		 * @return true if nothing is claimed past this reader, or the readers
+		 *         it follows have not moved on yet
+		 */
+		private boolean isEmptyClaimed() {
+			return next >= queue.head.get() || next >= slowestBefore();
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package com.gaea.concurrent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded blocking queue with a small fixed number of priority levels, each
+ * backed by its own {@link FastQueue} ring. Level 0 is the highest.
+ * <p>
+ * {@link #poll()} and {@link #take()} serve the highest non-empty level;
+ * elements of one level come out in FIFO order. With weights, a level that
+ * has been served {@code weights[level]} times since it last gave way lets
+ * one element of a lower non-empty level through, so bulk levels are slowed
+ * down but never starved. The weight counters are plain fields shared by all
+ * consumers, so under concurrent consumers the ratio is approximate.
+ * <p>
+ * Offers and polls are lock-free ring operations. A consumer blocks once for
+ * all levels on a {@link WaiterGate}, and producers of a full level block on
+ * another one; neither costs more than one volatile read while nobody waits.
+ * The {@code Queue}/{@code BlockingQueue} methods without a level insert at
+ * the lowest level.
+ *
+ * @author zhenyu.yin
+ *
+ */
+public class FastPriorityBlockingQueue<T> extends MultiRingQueue<T> {
+
+	public static final int MAX_LEVELS = 32;
+
+	/** elements a level may serve before a lower level gets one, null for strict priority */
+	private final int[] weights;
+	private final int[] credits;
+
+	/**
+	 * Creates a strict priority queue.
+	 *
+	 * @param levels
+	 *            the number of priority levels, in [1, MAX_LEVELS]
+	 * @param capacity
+	 *            the capacity of every level .the capacity will be corrected to
+	 *            2 to the N
+	 * @throws IllegalArgumentException
+	 *             if {@code levels} is out of range, or
+	 *             {@code capacity < 1 or capacity > MAX_SIZE}
+	 */
+	public FastPriorityBlockingQueue(final int levels, final int capacity) {
+		this(levels, capacity, null, WaitStrategy.blocking());
+	}
+
+	/**
+	 * @param levels
+	 *            the number of priority levels, in [1, MAX_LEVELS]
+	 * @param capacity
+	 *            the capacity of every level .the capacity will be corrected to
+	 *            2 to the N
+	 * @param weights
+	 *            for every level, how many elements it serves in a row while a
+	 *            lower level waits, or {@code null} for strict priority; the
+	 *            weight of the lowest level is not used
+	 * @param waitStrategy
+	 *            how blocked producers and consumers wait, see
+	 *            {@link WaitStrategy}
+	 * @throws IllegalArgumentException
+	 *             if {@code levels} is out of range,
+	 *             {@code capacity < 1 or capacity > MAX_SIZE}, or a weight is
+	 *             less than 1
+	 */
+	public FastPriorityBlockingQueue(final int levels, final int capacity, final int[] weights,
+			final WaitStrategy waitStrategy) {
+		super(checkLevels(levels), capacity, waitStrategy);
+		if (weights != null) {
+			if (weights.length != levels) {
+				throw new IllegalArgumentException("weights must have one entry per level");
+			}
+			for (int w : weights) {
+				if (w < 1) {
+					throw new IllegalArgumentException("weight must not be less than 1");
+				}
+			}
+			this.weights = weights.clone();
+			this.credits = weights.clone();
+		} else {
+			this.weights = null;
+			this.credits = null;
+		}
+	}
+
+	private static int checkLevels(final int levels) {
+		if (levels < 1 || levels > MAX_LEVELS) {
+			throw new IllegalArgumentException("levels must be in [1, " + MAX_LEVELS + "]");
+		}
+		return levels;
+	}
+
+	private void checkLevel(final int level) {
+		if (level < 0 || level >= rings.length) {
+			throw new IllegalArgumentException("level must be in [0, " + rings.length + ")");
+		}
+	}
+
+	/**
+	 * Inserts {@code t} at {@code level} if that level has room.
+	 *
+	 * @return false if the level is full
+	 */
+	public boolean offer(final int level, final T t) {
+		checkLevel(level);
+		return offerRing(level, t);
+	}
+
+	/**
+	 * Inserts {@code t} at {@code level}, waiting for room in that level.
+	 */
+	public void put(final int level, final T t) throws InterruptedException {
+		checkLevel(level);
+		putAt(level, t);
+	}
+
+	/**
+	 * Inserts {@code t} at {@code level}, waiting up to {@code timeout} for
+	 * room in that level.
+	 *
+	 * @return false if the timeout elapsed
+	 */
+	public boolean offer(final int level, final T t, final long timeout, final TimeUnit unit)
+			throws InterruptedException {
+		checkLevel(level);
+		return offerAt(level, t, timeout, unit);
+	}
+
+	@Override
+	boolean tryOffer(final int level, final T t) {
+		return offerRing(level, t);
+	}
+
+	@Override
+	boolean isFull(final int level) {
+		return isFullRing(level);
+	}
+
+	/**
+	 * Peeks and drains visit the highest level first and ignore the weights.
+	 */
+	@Override
+	int first() {
+		return 0;
+	}
+
+	@Override
+	public boolean offer(final T t) {
+		return offer(rings.length - 1, t);
+	}
+
+	@Override
+	public void put(final T t) throws InterruptedException {
+		put(rings.length - 1, t);
+	}
+
+	@Override
+	public boolean offer(final T t, final long timeout, final TimeUnit unit) throws InterruptedException {
+		return offer(rings.length - 1, t, timeout, unit);
+	}
+
+	@Override
+	public T poll() {
+		T t = null;
+		for (int i = 0; i < rings.length && t == null; i++) {
+			if (weights != null && credits[i] <= 0) {
+				// 本级已连续服务 weight 次, 让低优先级通过一个元素
+				credits[i] = weights[i];
+				t = pollBelow(i);
+				if (t != null) {
+					break;
+				}
+			}
+			t = pollRing(i);
+			if (t != null && weights != null) {
+				credits[i]--;
+			}
+		}
+		return t;
+	}
+
+	private T pollBelow(final int level) {
+		for (int i = level + 1; i < rings.length; i++) {
+			final T t = pollRing(i);
+			if (t != null) {
+				return t;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the number of elements waiting at {@code level}
+	 */
+	public int size(final int level) {
+		checkLevel(level);
+		return rings[level].size();
+	}
+
+	/**
+	 * @return the number of priority levels
+	 */
+	public int levels() {
+		return rings.length;
+	}
+
+	/**
+	 * @return the capacity of every level
+	 */
+	public int capacity() {
+		return ringCapacity;
+	}
+}
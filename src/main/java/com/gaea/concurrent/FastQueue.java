@@ -16,9 +16,16 @@ public class FastQueue<T> extends AbstractQueue<T> {
 
 	protected final ShardRingBuffer<T> buffer;
 	protected final int capacity;
+	protected final WaitStrategy waitStrategy;
+	/** returned by {@link #pollSlot()} for a slot whose element was removed */
+	static final Object SKIPPED = new Object();
+
+	/** runtime counters, null unless instrumented */
+	protected final QueueMetrics metrics;
 	protected final FastAtomicLong head = new FastAtomicLong();
 	protected final FastAtomicLong tail = new FastAtomicLong();
 	protected long headcache = 0;
+	protected long tailcache = 0;
 
 	  /**
      * Creates an {@code FastQueue} with the given (fixed)
@@ -28,6 +35,65 @@ public class FastQueue<T> extends AbstractQueue<T> {
      * @throws IllegalArgumentException if {@code bufferSize < 1 or bufferSize < MAX_SIZE}
      */
 	public FastQueue(int capacity) {
+		this(capacity, WaitStrategy.blocking());
+	}
+
+	/**
+	 * Creates an {@code FastQueue} with the given (fixed) capacity and wait
+	 * strategy.
+	 *
+	 * @param capacity
+	 *            the capacity of this queue .the capacity will be corrected to 2
+	 *            to the N
+	 * @param waitStrategy
+	 *            how threads wait for each other, see {@link WaitStrategy}
+	 * @throws IllegalArgumentException
+	 *             if {@code bufferSize < 1 or bufferSize < MAX_SIZE}
+	 */
+	public FastQueue(final int capacity, final WaitStrategy waitStrategy) {
+		this(capacity, waitStrategy, ShardLayout.atomic());
+	}
+
+	/**
+	 * Creates an {@code FastQueue} with the given (fixed) capacity, wait
+	 * strategy and ring layout.
+	 *
+	 * @param capacity
+	 *            the capacity of this queue .the capacity will be corrected to 2
+	 *            to the N
+	 * @param waitStrategy
+	 *            how threads wait for each other, see {@link WaitStrategy}
+	 * @param layout
+	 *            shard size and slot storage of the ring, see
+	 *            {@link ShardLayout}
+	 * @throws IllegalArgumentException
+	 *             if {@code bufferSize < 1 or bufferSize < MAX_SIZE}
+	 */
+	public FastQueue(final int capacity, final WaitStrategy waitStrategy, final ShardLayout layout) {
+		this(capacity, waitStrategy, layout, null);
+	}
+
+	/**
+	 * Creates an instrumented {@code FastQueue}, see {@link QueueMetrics}.
+	 *
+	 * @param capacity
+	 *            the capacity of this queue .the capacity will be corrected to 2
+	 *            to the N
+	 * @param waitStrategy
+	 *            how threads wait for each other, see {@link WaitStrategy}
+	 * @param layout
+	 *            shard size and slot storage of the ring, see
+	 *            {@link ShardLayout}
+	 * @param metrics
+	 *            counters of this queue, or null for none; one instance per
+	 *            queue
+	 * @throws IllegalArgumentException
+	 *             if {@code bufferSize < 1 or bufferSize < MAX_SIZE}
+	 */
+	public FastQueue(int capacity, final WaitStrategy waitStrategy, final ShardLayout layout,
+			final QueueMetrics metrics) {
+		checkNotNull(waitStrategy);
+		checkNotNull(layout);
 		if (capacity < 1) {
 			throw new IllegalArgumentException("capacity must not be less than 1");
 		}
@@ -39,23 +105,107 @@ public class FastQueue<T> extends AbstractQueue<T> {
 			capacity = Integer.highestOneBit(capacity) << 1;
 		}
 		this.capacity = capacity;
-		buffer = new ShardRingBuffer<>(capacity);
+		this.waitStrategy = waitStrategy;
+		buffer = ShardRingBuffer.create(capacity, waitStrategy, layout);
+		this.metrics = metrics;
+		if (metrics != null) {
+			metrics.attach(this);
+			buffer.metrics = metrics;
+			buffer.sojourn = metrics.sampler(capacity);
+		}
+	}
+
+	/**
+	 * Creates a queue for exactly one producer thread and one consumer thread.
+	 * Neither {@code offer} nor {@code poll} runs a CAS.
+	 *
+	 * @param capacity
+	 *            the capacity of this queue .the capacity will be corrected to 2
+	 *            to the N
+	 */
+	public static <T> FastQueue<T> spsc(final int capacity) {
+		return new SpscFastQueue<T>(capacity, WaitStrategy.blocking());
+	}
+
+	/**
+	 * Creates a queue for any number of producer threads and exactly one
+	 * consumer thread. {@code poll} runs no CAS.
+	 *
+	 * @param capacity
+	 *            the capacity of this queue .the capacity will be corrected to 2
+	 *            to the N
+	 */
+	public static <T> FastQueue<T> mpsc(final int capacity) {
+		return new MpscFastQueue<T>(capacity, WaitStrategy.blocking());
+	}
+
+	/**
+	 * Creates a queue for exactly one producer thread and any number of
+	 * consumer threads. {@code offer} runs no CAS.
+	 *
+	 * @param capacity
+	 *            the capacity of this queue .the capacity will be corrected to 2
+	 *            to the N
+	 */
+	public static <T> FastQueue<T> spmc(final int capacity) {
+		return new SpmcFastQueue<T>(capacity, WaitStrategy.blocking());
 	}
 
 	@Override
 	public boolean offer(final T t) {
 		checkNotNull(t);
-		long next;
+		for (;;) {
+			final long next = head.get();
+			final long seq = buffer.sequence(next);
+			if (seq == next) {
+				if (head.compareAndSet(next, next + 1)) {
+					buffer.publish(next, t);
+					if (metrics != null) {
+						metrics.offered(1, next + 1 - tail.get());
+					}
+					return true;
+				}
+				if (metrics != null) {
+					metrics.increment(QueueMetrics.OFFER_RETRIES);
+				}
+			} else if (seq < next) {
+				if (metrics != null) {
+					metrics.increment(QueueMetrics.OFFER_REJECTS);
+				}
+				return false; // 上一圈的元素还没被消费
+			}
+		}
+	}
 
+	/**
+	 * Inserts as many of {@code items[off, off + len)} as there is room for,
+	 * claiming the whole range with one atomic on {@code head}.
+	 *
+	 * @return the number of elements inserted, the first ones of the range
+	 * @throws NullPointerException
+	 *             if any element of the range is null
+	 * @throws IndexOutOfBoundsException
+	 *             if the range is outside {@code items}
+	 */
+	public int offerBatch(final T[] items, final int off, final int len) {
+		checkBatch(items, off, len);
+		long next;
+		int n;
 		do {
 			next = head.get();
-			if (buffer.get(next) != null && head.get() == next) {
-				return false;
+			if ((n = available(next, len)) == 0) {
+				if (metrics != null) {
+					metrics.increment(QueueMetrics.OFFER_REJECTS);
+				}
+				return 0;
 			}
-		} while (!head.compareAndSet(next, next + 1));
-		
-		buffer.put(next, t);
-		return true;
+		} while (!head.compareAndSet(next, next + n));
+
+		buffer.putAll(next, items, off, n);
+		if (metrics != null) {
+			metrics.offered(n, next + n - tail.get());
+		}
+		return n;
 	}
 
 	@Override
@@ -68,26 +218,133 @@ public class FastQueue<T> extends AbstractQueue<T> {
 	}
 
 	@Override
+	@SuppressWarnings("unchecked")
 	public T poll() {
-		long next;
+		Object o;
 		do {
-			if (!canTake(next = tail.get())) {
+			o = pollSlot();
+		} while (o == SKIPPED);
+		return (T) o;
+	}
+
+	/**
+	 * Claims at most one published slot.
+	 *
+	 * @return the element, {@link #SKIPPED} if the slot held an element
+	 *         removed by {@link #remove(Object)}, or null if the queue is empty
+	 */
+	final Object pollSlot() {
+		for (;;) {
+			final long next = tail.get();
+			final long seq = buffer.sequence(next);
+			if (seq == next + 1) {
+				if (tail.compareAndSet(next, next + 1)) {
+					final T t = buffer.release(next);
+					if (t == null) {
+						return SKIPPED;
+					}
+					if (metrics != null) {
+						metrics.increment(QueueMetrics.POLLS);
+					}
+					return t;
+				} else if (metrics != null) {
+					metrics.increment(QueueMetrics.POLL_RETRIES);
+				}
+			} else if (seq < next + 1) {
+				if (metrics != null) {
+					metrics.increment(QueueMetrics.POLL_MISSES);
+				}
 				return null;
 			}
-		} while (!tail.compareAndSet(next, next + 1));
+		}
+	}
+
+	/**
+	 * Removes up to {@code limit} elements and passes them to {@code handler}
+	 * in queue order. The whole range is claimed with one atomic on
+	 * {@code tail} and read straight out of the ring, so nothing is allocated.
+	 * If the handler throws, the exception propagates and the rest of the
+	 * claimed elements are discarded.
+	 *
+	 * @return the number of elements passed to {@code handler}
+	 */
+	public int drain(final ElementHandler<? super T> handler, final int limit) {
+		checkNotNull(handler);
+		if (limit <= 0)
+			return 0;
+		long next, end;
+		do {
+			if (!canTake(next = tail.get())) {
+				return 0;
+			}
+			end = Math.min(headcache = head.get(), next + limit);
+		} while (!tail.compareAndSet(next, end));
+
+		final int n = buffer.drain(next, (int) (end - next), handler);
+		if (metrics != null) {
+			metrics.add(QueueMetrics.POLLS, n);
+		}
+		return n;
+	}
+
+	/**
+	 * Removes up to {@code limit} elements into {@code dst} starting at
+	 * {@code off}, claiming the whole range with one atomic on {@code tail}.
+	 *
+	 * @return the number of elements stored into {@code dst}
+	 * @throws IndexOutOfBoundsException
+	 *             if {@code dst} has less than {@code limit} slots from
+	 *             {@code off}
+	 */
+	public int drain(final T[] dst, final int off, final int limit) {
+		checkNotNull(dst);
+		if (off < 0 || limit < 0 || off > dst.length - limit)
+			throw new IndexOutOfBoundsException();
+		if (limit == 0)
+			return 0;
+		long next, end;
+		do {
+			if (!canTake(next = tail.get())) {
+				return 0;
+			}
+			end = Math.min(headcache = head.get(), next + limit);
+		} while (!tail.compareAndSet(next, end));
 
-		return buffer.take(next);
+		final int n = buffer.drain(next, (int) (end - next), dst, off);
+		if (metrics != null) {
+			metrics.add(QueueMetrics.POLLS, n);
+		}
+		return n;
 	}
 
 	protected final boolean canTake(final long next) {
 		return headcache > next || (headcache = head.get()) > next;
 	}
 
+	protected final boolean canPut(final long next) {
+		return next - tailcache < capacity || next - (tailcache = tail.get()) < capacity;
+	}
+
+	/**
+	 * @return how many of the {@code len} slots from {@code next} are free
+	 */
+	protected final int available(final long next, final int len) {
+		long free = capacity - (next - tailcache);
+		if (free < len) {
+			free = capacity - (next - (tailcache = tail.get()));
+		}
+		return (int) Math.max(0, Math.min(len, free));
+	}
+
 	@Override
 	public int size() {
 		return (int) Math.max(head.get() - tail.get(), 0);
 	}
 
+	public int capacity() {
+		return capacity;
+	}
+
 	@Override
 	public boolean isEmpty() {
 		return size() == 0;
@@ -108,6 +365,7 @@ public class FastQueue<T> extends AbstractQueue<T> {
 		long next = 0;
 		long index;
 		T last;
+		T lastRet;
 
 		public Itr() {
 			initNext();
@@ -126,6 +384,7 @@ public class FastQueue<T> extends AbstractQueue<T> {
 			T _t = last;
 			index = next++;
 			last = null;
+			lastRet = _t;
 			initNext();
 			return _t;
 		}
@@ -138,15 +397,17 @@ public class FastQueue<T> extends AbstractQueue<T> {
 				if (last != null) {
 					break;
 				}
+				next++;
 			}
 		}
 
 		@Override
 		public void remove() {
-			if (last == null) {
+			if (lastRet == null) {
 				throw new IllegalStateException();
 			}
-			buffer.compareAndSet(index, last, null);
+			buffer.remove(index, lastRet);
+			lastRet = null;
 		}
 	}
 
@@ -160,6 +421,15 @@ public class FastQueue<T> extends AbstractQueue<T> {
 			throw new NullPointerException();
 	}
 
+	static void checkBatch(final Object[] items, final int off, final int len) {
+		checkNotNull(items);
+		if (off < 0 || len < 0 || off > items.length - len)
+			throw new IndexOutOfBoundsException();
+		for (int i = off; i < off + len; i++) {
+			checkNotNull(items[i]);
+		}
+	}
+
 	@Override
 	public Object[] toArray() {
 		List<T> list = toList();
@@ -199,7 +469,7 @@ public class FastQueue<T> extends AbstractQueue<T> {
 		for (long i = tail.get(); i < head.get(); i++) {
 			t = buffer.get(i);
 			if (o.equals(t)) {
-				return buffer.compareAndSet(i, t, null);
+				return buffer.remove(i, t);
 			}
 		}
 		return false;
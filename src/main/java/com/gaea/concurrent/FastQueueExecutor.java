@@ -0,0 +1,452 @@
+package com.gaea.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * {@link java.util.concurrent.ExecutorService} whose work queue is a
+ * {@link FastBlockingQueue}.
+ * <p>
+ * Submitting a task is one lock-free offer plus a read of the worker count;
+ * there is no executor lock and no {@code ctl} word shared with the workers.
+ * Workers drain the ring in batches of up to {@code batchSize} tasks and only
+ * block, in the queue's own {@link WaitStrategy}, when it is empty.
+ * <p>
+ * The pool starts {@code coreThreads} workers on demand and adds workers up
+ * to {@code maxThreads} while the queue holds more than {@code batchSize}
+ * tasks per worker; workers above the core size retire after
+ * {@code keepAlive} without work. A full queue is handled by the
+ * {@link RejectPolicy}.
+ * <p>
+ * Workers are created by the {@link ThreadFactory}. On a runtime with virtual
+ * threads, passing {@code Thread.ofVirtual().factory()} gives virtual-thread
+ * workers; the library itself stays on the Java 7 API.
+ *
+ * @author zhenyu.yin
+ *
+ */
+public class FastQueueExecutor extends AbstractExecutorService {
+
+	public static final int DEFAULT_BATCH_SIZE = 64;
+
+	/**
+	 * What {@link #execute(Runnable)} does when the queue is full.
+	 */
+	public enum RejectPolicy {
+		/** throw {@link RejectedExecutionException} */
+		ABORT,
+		/** run the task in the submitting thread */
+		CALLER_RUNS,
+		/** wait for space */
+		BLOCK,
+		/** drop the task silently */
+		DISCARD
+	}
+
+	private static final int RUNNING = 0;
+	private static final int SHUTDOWN = 1;
+	private static final int STOP = 2;
+
+	private final FastBlockingQueue<Runnable> queue;
+	private final int coreThreads;
+	private final int maxThreads;
+	private final long keepAliveNanos;
+	private final int batchSize;
+	private final RejectPolicy rejectPolicy;
+	private final ThreadFactory threadFactory;
+	private final AtomicInteger workerCount = new AtomicInteger();
+	private final Set<Worker> workers = Collections.newSetFromMap(new ConcurrentHashMap<Worker, Boolean>());
+	private final CountDownLatch terminated = new CountDownLatch(1);
+	private volatile int state = RUNNING;
+
+	/**
+	 * Creates a fixed pool of {@code threads} workers that rejects tasks
+	 * when the queue is full.
+	 *
+	 * @param capacity
+	 *            the capacity of the work queue, rounded up to a power of 2
+	 */
+	public FastQueueExecutor(final int threads, final int capacity) {
+		this(threads, threads, capacity, RejectPolicy.ABORT);
+	}
+
+	public FastQueueExecutor(final int coreThreads, final int maxThreads, final int capacity,
+			final RejectPolicy rejectPolicy) {
+		this(coreThreads, maxThreads, capacity, 60, TimeUnit.SECONDS, DEFAULT_BATCH_SIZE, WaitStrategy.blocking(),
+				rejectPolicy, Executors.defaultThreadFactory());
+	}
+
+	/**
+	 * @param coreThreads
+	 *            workers kept alive while idle
+	 * @param maxThreads
+	 *            workers at most, added while the queue backs up
+	 * @param capacity
+	 *            the capacity of the work queue, rounded up to a power of 2
+	 * @param keepAlive
+	 *            how long a worker above the core size waits for work
+	 * @param batchSize
+	 *            tasks a worker takes from the queue at once
+	 * @param waitStrategy
+	 *            how idle workers and blocked submitters wait
+	 * @param rejectPolicy
+	 *            what to do when the queue is full
+	 * @param threadFactory
+	 *            creates the worker threads
+	 * @throws IllegalArgumentException
+	 *             if {@code coreThreads < 0}, {@code maxThreads < 1},
+	 *             {@code maxThreads < coreThreads} or {@code batchSize < 1}
+	 */
+	public FastQueueExecutor(final int coreThreads, final int maxThreads, final int capacity, final long keepAlive,
+			final TimeUnit unit, final int batchSize, final WaitStrategy waitStrategy,
+			final RejectPolicy rejectPolicy, final ThreadFactory threadFactory) {
+		FastQueue.checkNotNull(unit);
+		FastQueue.checkNotNull(rejectPolicy);
+		FastQueue.checkNotNull(threadFactory);
+		if (coreThreads < 0) {
+			throw new IllegalArgumentException("coreThreads must not be less than 0");
+		}
+		if (maxThreads < 1 || maxThreads < coreThreads) {
+			throw new IllegalArgumentException("maxThreads must not be less than 1 or coreThreads");
+		}
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must not be less than 1");
+		}
+		this.queue = new FastBlockingQueue<Runnable>(capacity, waitStrategy);
+		this.coreThreads = coreThreads;
+		this.maxThreads = maxThreads;
+		this.keepAliveNanos = unit.toNanos(keepAlive);
+		this.batchSize = batchSize;
+		this.rejectPolicy = rejectPolicy;
+		this.threadFactory = threadFactory;
+	}
+
+	@Override
+	public void execute(final Runnable task) {
+		FastQueue.checkNotNull(task);
+		if (state != RUNNING) {
+			throw new RejectedExecutionException("executor is shut down");
+		}
+		int workers = workerCount.get();
+		if (workers < coreThreads) {
+			addWorker(coreThreads);
+		}
+		if (!queue.offer(task)) {
+			reject(task);
+			return;
+		}
+		// 入队之后再检查状态, 与 shutdown 的先改状态后看队列配对
+		if (state != RUNNING && queue.remove(task)) {
+			throw new RejectedExecutionException("executor is shut down");
+		}
+		workers = workerCount.get();
+		if (workers == 0 || workers < maxThreads && queue.size() > (long) workers * batchSize) {
+			addWorker(maxThreads);
+		}
+	}
+
+	private void reject(final Runnable task) {
+		switch (rejectPolicy) {
+		case CALLER_RUNS:
+			if (state != RUNNING) {
+				throw new RejectedExecutionException("executor is shut down");
+			}
+			task.run();
+			return;
+		case BLOCK:
+			try {
+				queue.put(task);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException("interrupted while waiting for space", e);
+			}
+			// 等待期间可能已关闭, worker 也许都已退出
+			if (state != RUNNING && queue.remove(task)) {
+				throw new RejectedExecutionException("executor is shut down");
+			}
+			if (workerCount.get() == 0) {
+				addWorker(maxThreads);
+			}
+			return;
+		case DISCARD:
+			return;
+		default:
+			throw new RejectedExecutionException("work queue is full");
+		}
+	}
+
+	/**
+	 * Starts a worker unless there are {@code limit} already.
+	 */
+	private boolean addWorker(final int limit) {
+		for (;;) {
+			final int c = workerCount.get();
+			if (c >= limit || state == STOP) {
+				return false;
+			}
+			if (workerCount.compareAndSet(c, c + 1)) {
+				break;
+			}
+		}
+		final Worker worker = new Worker();
+		final Thread thread = threadFactory.newThread(worker);
+		if (thread == null) {
+			workerExited(worker, true);
+			throw new IllegalStateException("threadFactory returned null");
+		}
+		worker.thread = thread;
+		workers.add(worker);
+		thread.start();
+		return true;
+	}
+
+	/**
+	 * @param counted
+	 *            whether the worker is still part of {@code workerCount}
+	 */
+	private void workerExited(final Worker worker, final boolean counted) {
+		if (state != STOP) {
+			// 停止后保留, shutdownNow 还要收走它批次中未开始的任务
+			workers.remove(worker);
+		}
+		if ((counted ? workerCount.decrementAndGet() : workerCount.get()) == 0) {
+			tryTerminate();
+		}
+	}
+
+	private void tryTerminate() {
+		if (state == RUNNING || workerCount.get() != 0) {
+			return;
+		}
+		if (state == SHUTDOWN && !queue.isEmpty()) {
+			// 最后一个 worker 退出时又有任务入队, 补一个 worker 把它执行完
+			addWorker(1);
+			return;
+		}
+		terminated.countDown();
+	}
+
+	private final class Worker implements Runnable, ElementHandler<Runnable> {
+
+		Thread thread;
+		/** set while blocked on the queue, so shutdown interrupts only idle workers */
+		volatile boolean idle;
+		/** set while filling the batch, so shutdownNow sweeps it only once it is filled */
+		volatile boolean draining;
+		/** drained tasks not started yet, each claimed by this worker or by shutdownNow */
+		final AtomicReferenceArray<Runnable> batch = new AtomicReferenceArray<Runnable>(batchSize);
+		private int filled;
+		/** already taken out of workerCount by {@link #retire()} */
+		private boolean retired;
+
+		@Override
+		public void run() {
+			try {
+				for (;;) {
+					// 先置 draining 再读状态, 与 shutdownNow 的先改状态后读 draining 配对
+					draining = true;
+					if (state == STOP) {
+						draining = false;
+						return;
+					}
+					filled = 0;
+					queue.drain(this, batchSize);
+					draining = false;
+					if (filled > 0) {
+						runBatch(filled);
+						continue;
+					}
+					final Runnable task = await();
+					if (task == null) {
+						if (retire()) {
+							return;
+						}
+						continue;
+					}
+					runTask(task);
+				}
+			} finally {
+				workerExited(this, !retired);
+			}
+		}
+
+		/**
+		 * Waits for one task, forever on core workers and for
+		 * {@code keepAlive} on the others.
+		 *
+		 * @return the task, or null on timeout, interrupt or shutdown
+		 */
+		private Runnable await() {
+			idle = true;
+			try {
+				if (state != RUNNING) {
+					return queue.poll();
+				}
+				if (workerCount.get() > coreThreads) {
+					return queue.poll(keepAliveNanos, TimeUnit.NANOSECONDS);
+				}
+				return queue.take();
+			} catch (InterruptedException e) {
+				return null;
+			} finally {
+				idle = false;
+				Thread.interrupted();
+			}
+		}
+
+		/**
+		 * @return true if this worker should exit
+		 */
+		private boolean retire() {
+			if (state == STOP) {
+				return true;
+			}
+			if (state == SHUTDOWN) {
+				return queue.isEmpty();
+			}
+			for (;;) {
+				final int c = workerCount.get();
+				if (c <= coreThreads) {
+					return false;
+				}
+				if (workerCount.compareAndSet(c, c - 1)) {
+					break;
+				}
+			}
+			// 先减计数再看队列, 与 execute 的先入队后读计数配对, 任务不会没人执行
+			if (!queue.isEmpty()) {
+				for (;;) {
+					final int c = workerCount.get();
+					if (c >= maxThreads) {
+						break;
+					}
+					if (workerCount.compareAndSet(c, c + 1)) {
+						return false;
+					}
+				}
+			}
+			retired = true;
+			return true;
+		}
+
+		@Override
+		public void onElement(final Runnable task) {
+			batch.lazySet(filled++, task);
+		}
+
+		private void runBatch(final int n) {
+			for (int i = 0; i < n; i++) {
+				if (state == STOP) {
+					// 剩下的任务由 shutdownNow 返回
+					return;
+				}
+				final Runnable task = batch.getAndSet(i, null);
+				if (task != null) {
+					runTask(task);
+				}
+			}
+		}
+
+		/**
+		 * Takes the tasks of the batch that have not started, once the worker
+		 * has finished filling it.
+		 */
+		void sweep(final List<Runnable> pending) {
+			while (draining) {
+				// 批量出队不会阻塞, 很快结束
+				Thread.yield();
+			}
+			for (int i = 0; i < batchSize; i++) {
+				final Runnable task = batch.getAndSet(i, null);
+				if (task != null) {
+					pending.add(task);
+				}
+			}
+		}
+
+		private void runTask(final Runnable task) {
+			try {
+				task.run();
+			} catch (Throwable e) {
+				final Thread t = Thread.currentThread();
+				t.getUncaughtExceptionHandler().uncaughtException(t, e);
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting tasks; queued tasks still run.
+	 */
+	@Override
+	public void shutdown() {
+		if (state == RUNNING) {
+			state = SHUTDOWN;
+		}
+		for (Worker w : workers) {
+			if (w.idle) {
+				w.thread.interrupt();
+			}
+		}
+		tryTerminate();
+	}
+
+	/**
+	 * Stops accepting tasks, interrupts all workers and returns the tasks
+	 * that never started, including those a worker had already taken from
+	 * the queue in its current batch.
+	 */
+	@Override
+	public List<Runnable> shutdownNow() {
+		state = STOP;
+		for (Worker w : workers) {
+			w.thread.interrupt();
+		}
+		final List<Runnable> pending = new ArrayList<Runnable>();
+		for (Worker w : workers) {
+			w.sweep(pending);
+		}
+		queue.drainTo(pending);
+		tryTerminate();
+		return pending;
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return state != RUNNING;
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return terminated.getCount() == 0;
+	}
+
+	@Override
+	public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+		return terminated.await(timeout, unit);
+	}
+
+	/**
+	 * @return the number of live workers
+	 */
+	public int getPoolSize() {
+		return workerCount.get();
+	}
+
+	/**
+	 * @return the number of queued tasks, weakly consistent
+	 */
+	public int getQueueSize() {
+		return queue.size();
+	}
+}
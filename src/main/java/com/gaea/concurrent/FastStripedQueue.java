@@ -0,0 +1,175 @@
+package com.gaea.concurrent;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded blocking queue striped over several {@link FastQueue} lanes, so that
+ * producers and consumers running on different cores do not all hit the same
+ * {@code head}/{@code tail} counters.
+ * <p>
+ * A producer offers to its home lane, picked by a hash of the current thread,
+ * and spills over to the following lanes only when that lane is full. A
+ * consumer polls its home lane first and then steals from the others.
+ * Ordering is therefore relaxed: every lane is FIFO, and the elements of one
+ * producer thread come out in order as long as its home lane does not
+ * overflow, but there is no order across lanes. {@link #size()},
+ * {@link #drainTo(Collection)} and the iterator cover all lanes and are weakly
+ * consistent.
+ * <p>
+ * Blocked threads wait on a {@link WaitStrategy} through a {@link WaiterGate}.
+ * The opposite side only touches the shared wake-up cursor while somebody is
+ * waiting, so an uncontended {@code offer}/{@code poll} costs one volatile
+ * read on top of the lane operation.
+ *
+ * @author zhenyu.yin
+ *
+ */
+public class FastStripedQueue<T> extends MultiRingQueue<T> {
+
+	private final int laneMask;
+	private final int capacity;
+
+	/**
+	 * Creates an {@code FastStripedQueue} with the given (fixed) capacity and
+	 * one lane per available processor, at most {@code capacity} lanes.
+	 *
+	 * @param capacity
+	 *            the capacity of this queue .the capacity will be corrected to 2
+	 *            to the N
+	 * @throws IllegalArgumentException
+	 *             if {@code capacity < 1 or capacity > MAX_SIZE}
+	 */
+	public FastStripedQueue(final int capacity) {
+		this(capacity, Math.min(Runtime.getRuntime().availableProcessors(), Math.max(capacity, 1)));
+	}
+
+	/**
+	 * @param capacity
+	 *            the capacity of this queue .the capacity will be corrected to 2
+	 *            to the N
+	 * @param lanes
+	 *            the number of lanes, corrected to 2 to the N; each lane holds
+	 *            {@code capacity / lanes} elements
+	 * @throws IllegalArgumentException
+	 *             if {@code capacity < 1 or capacity > MAX_SIZE}, or
+	 *             {@code lanes < 1 or lanes > capacity}
+	 */
+	public FastStripedQueue(final int capacity, final int lanes) {
+		this(capacity, lanes, WaitStrategy.blocking());
+	}
+
+	/**
+	 * @param capacity
+	 *            the capacity of this queue .the capacity will be corrected to 2
+	 *            to the N
+	 * @param lanes
+	 *            the number of lanes, corrected to 2 to the N; each lane holds
+	 *            {@code capacity / lanes} elements
+	 * @param waitStrategy
+	 *            how blocked producers and consumers wait, see
+	 *            {@link WaitStrategy}
+	 * @throws IllegalArgumentException
+	 *             if {@code capacity < 1 or capacity > MAX_SIZE}, or
+	 *             {@code lanes < 1 or lanes > capacity}
+	 */
+	public FastStripedQueue(final int capacity, final int lanes, final WaitStrategy waitStrategy) {
+		super(lanes(capacity, lanes), roundUp(capacity) / lanes(capacity, lanes), waitStrategy);
+		this.laneMask = rings.length - 1;
+		this.capacity = ringCapacity * rings.length;
+	}
+
+	private static int roundUp(final int n) {
+		return Integer.bitCount(n) == 1 ? n : Integer.highestOneBit(n) << 1;
+	}
+
+	/**
+	 * @return the number of lanes, corrected to 2 to the N
+	 */
+	private static int lanes(final int capacity, final int lanes) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must not be less than 1");
+		}
+		if (capacity > FastQueue.MAX_SIZE) {
+			throw new IllegalArgumentException("capacity must not be less than " + FastQueue.MAX_SIZE);
+		}
+		if (lanes < 1) {
+			throw new IllegalArgumentException("lanes must not be less than 1");
+		}
+		if (roundUp(lanes) > roundUp(capacity)) {
+			throw new IllegalArgumentException("lanes must not be greater than capacity");
+		}
+		return roundUp(lanes);
+	}
+
+	/**
+	 * @return the lane of the current thread
+	 */
+	private int home() {
+		final long id = Thread.currentThread().getId();
+		return (int) ((id * 0x9E3779B97F4A7C15L) >>> 40) & laneMask;
+	}
+
+	@Override
+	public boolean offer(final T t) {
+		return tryOffer(home(), t);
+	}
+
+	/**
+	 * Offers to lane {@code home} and spills over to the following lanes.
+	 */
+	@Override
+	boolean tryOffer(final int home, final T t) {
+		FastQueue.checkNotNull(t);
+		for (int i = 0; i <= laneMask; i++) {
+			if (offerRing((home + i) & laneMask, t)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if every lane has all its slots claimed
+	 */
+	@Override
+	boolean isFull(final int home) {
+		for (int i = 0; i <= laneMask; i++) {
+			if (!isFullRing(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	int first() {
+		return home();
+	}
+
+	@Override
+	public T poll() {
+		return pollFrom(home());
+	}
+
+	@Override
+	public void put(final T t) throws InterruptedException {
+		putAt(home(), t);
+	}
+
+	@Override
+	public boolean offer(final T t, final long timeout, final TimeUnit unit) throws InterruptedException {
+		return offerAt(home(), t, timeout, unit);
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the number of lanes
+	 */
+	public int lanes() {
+		return rings.length;
+	}
+}
@@ -0,0 +1,274 @@
+package com.gaea.concurrent;
+
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded multi producer, multi consumer queue that claims slots with one
+ * fetch-and-add on {@code head}/{@code tail} instead of a CAS retry loop (in
+ * the style of LCRQ), so contended producers and consumers never fail and
+ * retry their claim.
+ * <p>
+ * A claimed index can land on a slot that is not ready for it. Every slot
+ * carries a sequence that encodes the lap of its index {@code i}:
+ * <ul>
+ * <li>{@code 4i}: free for the producer of {@code i}</li>
+ * <li>{@code 4i + 1}: the producer of {@code i} is storing its element</li>
+ * <li>{@code 4i + 2}: the element of {@code i} is published</li>
+ * <li>{@code 4(i + capacity)}: released, or burned by the consumer of
+ * {@code i} because it arrived before the producer</li>
+ * </ul>
+ * A consumer that finds its slot empty burns it and claims again; the late
+ * producer then sees a newer lap and claims again too. A producer whose slot
+ * still holds an unconsumed element of the previous lap gives up its index,
+ * which the consumer of that index later burns. Both sides check the other
+ * counter before the fetch-and-add, so a full or empty queue is answered
+ * without claiming. {@link #size()} may count given-up indices until they are
+ * burned.
+ *
+ * @author zhenyu.yin
+ *
+ */
+public class FastXaddQueue<T> extends AbstractQueue<T> {
+
+	private final int capacity;
+	private final int shardMask;
+	private final int shardBit;
+	private final int indexMask;
+	private final AtomicReferenceArray<T>[] nodes;
+	private final AtomicLongArray[] sequences;
+	private final WaitStrategy waitStrategy;
+	private final FastAtomicLong head = new FastAtomicLong();
+	private final FastAtomicLong tail = new FastAtomicLong();
+	private long tailcache = 0;
+
+	/**
+	 * Creates an {@code FastXaddQueue} with the given (fixed) capacity.
+	 *
+	 * @param capacity
+	 *            the capacity of this queue .the capacity will be corrected to 2
+	 *            to the N
+	 * @throws IllegalArgumentException
+	 *             if {@code capacity < 1 or capacity > MAX_SIZE}
+	 */
+	public FastXaddQueue(final int capacity) {
+		this(capacity, WaitStrategy.blocking());
+	}
+
+	/**
+	 * @param capacity
+	 *            the capacity of this queue .the capacity will be corrected to 2
+	 *            to the N
+	 * @param waitStrategy
+	 *            how a thread backs off while the other side finishes with a
+	 *            slot, see {@link WaitStrategy}
+	 * @throws IllegalArgumentException
+	 *             if {@code capacity < 1 or capacity > MAX_SIZE}
+	 */
+	@SuppressWarnings("unchecked")
+	public FastXaddQueue(int capacity, final WaitStrategy waitStrategy) {
+		FastQueue.checkNotNull(waitStrategy);
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must not be less than 1");
+		}
+		if (capacity > FastQueue.MAX_SIZE) {
+			throw new IllegalArgumentException("capacity must not be less than " + FastQueue.MAX_SIZE);
+		}
+		if (Integer.bitCount(capacity) != 1) {
+			capacity = Integer.highestOneBit(capacity) << 1;
+		}
+		this.capacity = capacity;
+		this.waitStrategy = waitStrategy;
+		final int shard = Math.max(Integer.highestOneBit(capacity >> ShardRingBuffer.DEFAULT_BUFFER_LEVEL), 1);
+		this.shardMask = capacity - 1;
+		this.indexMask = capacity / shard - 1;
+		this.shardBit = Integer.bitCount(indexMask);
+		this.nodes = new AtomicReferenceArray[shard];
+		this.sequences = new AtomicLongArray[shard];
+		for (int i = 0; i < shard; i++) {
+			nodes[i] = new AtomicReferenceArray<T>(indexMask + 1);
+			final AtomicLongArray sequence = new AtomicLongArray(indexMask + 1);
+			for (int j = 0; j <= indexMask; j++) {
+				sequence.set(j, (((long) i << shardBit) + j) << 2);
+			}
+			sequences[i] = sequence;
+		}
+	}
+
+	@Override
+	public boolean offer(final T t) {
+		FastQueue.checkNotNull(t);
+		for (;;) {
+			final long next = head.get();
+			// 已满时不做 FAA
+			if (next - tailcache >= capacity && next - (tailcache = tail.get()) >= capacity) {
+				return false;
+			}
+			final long index = head.getAndIncrement();
+			final AtomicLongArray sequence = sequences[shard(index)];
+			final int i = index(index);
+			final long free = index << 2;
+			int counter = 0;
+			for (;;) {
+				final long seq = sequence.get(i);
+				if (seq == free) {
+					if (sequence.compareAndSet(i, free, free + 1)) {
+						nodes[shard(index)].lazySet(i, t);
+						sequence.lazySet(i, free + 2);
+						return true;
+					}
+				} else if (seq > free) {
+					break; // 已被消费者烧掉, 重新申请
+				} else if (index - tail.get() < capacity) {
+					counter = waitStrategy.idle(counter); // 上一圈的消费者正在释放节点
+				} else {
+					return false; // 放弃该序号, 由对应的消费者烧掉
+				}
+			}
+		}
+	}
+
+	@Override
+	public T poll() {
+		for (;;) {
+			// 为空时不做 FAA
+			if (tail.get() >= head.get()) {
+				return null;
+			}
+			final long index = tail.getAndIncrement();
+			final AtomicLongArray sequence = sequences[shard(index)];
+			final int i = index(index);
+			final long free = index << 2;
+			int counter = 0;
+			for (;;) {
+				final long seq = sequence.get(i);
+				if (seq == free + 2) {
+					// 只有本序号的消费者能走到这里, 先清空再释放给下一圈
+					final AtomicReferenceArray<T> node = nodes[shard(index)];
+					final T t = node.get(i);
+					node.lazySet(i, null);
+					sequence.lazySet(i, (index + capacity) << 2);
+					return t;
+				} else if (seq == free) {
+					if (sequence.compareAndSet(i, free, (index + capacity) << 2)) {
+						fixHead();
+						break; // 生产者还没到, 烧掉该节点后重新申请
+					}
+				} else if (seq > free + 2) {
+					break;
+				} else {
+					counter = waitStrategy.idle(counter); // 生产者正在写入, 或上一圈还没释放
+				}
+			}
+		}
+	}
+
+	/**
+	 * Moves {@code head} up to {@code tail} after consumers overshot it, so
+	 * that producers do not claim indices that are already burned.
+	 */
+	private void fixHead() {
+		for (;;) {
+			final long h = head.get();
+			final long t = tail.get();
+			if (h >= t || head.compareAndSet(h, t)) {
+				return;
+			}
+		}
+	}
+
+	@Override
+	public T peek() {
+		for (;;) {
+			final long index = tail.get();
+			if (index >= head.get()) {
+				return null;
+			}
+			final int i = index(index);
+			final AtomicLongArray sequence = sequences[shard(index)];
+			if (sequence.get(i) != (index << 2) + 2) {
+				if (tail.get() == index) {
+					return null;
+				}
+				continue;
+			}
+			final T t = nodes[shard(index)].get(i);
+			// 读取期间节点未被消费,值有效
+			if (t != null && sequence.get(i) == (index << 2) + 2) {
+				return t;
+			}
+		}
+	}
+
+	@Override
+	public int size() {
+		return (int) Math.max(Math.min(head.get() - tail.get(), capacity), 0);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	private int shard(final long index) {
+		return (int) (index & shardMask) >> shardBit;
+	}
+
+	private int index(final long index) {
+		return (int) (index & indexMask);
+	}
+
+	/**
+	 * Weakly consistent iterator over the published elements; it does not
+	 * support {@code remove}.
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return new Iterator<T>() {
+
+			long next = tail.get();
+			T last = advance();
+
+			private T advance() {
+				for (final long h = head.get(); next < h; next++) {
+					final int i = index(next);
+					if (sequences[shard(next)].get(i) == (next << 2) + 2) {
+						final T t = nodes[shard(next)].get(i);
+						if (t != null) {
+							next++;
+							return t;
+						}
+					}
+				}
+				return null;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return last != null;
+			}
+
+			@Override
+			public T next() {
+				if (last == null) {
+					throw new NoSuchElementException();
+				}
+				final T t = last;
+				last = advance();
+				return t;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
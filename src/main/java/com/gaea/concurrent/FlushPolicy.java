@@ -0,0 +1,63 @@
+package com.gaea.concurrent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When a {@link FastJournalQueue} forces its mapped segments and header to
+ * disk. Anything written after the last force survives a process crash (the
+ * pages are in the OS cache) but may be lost if the machine goes down.
+ * <ul>
+ * <li>{@link #perWrite()} every offer returns only after its message is on
+ * disk</li>
+ * <li>{@link #perBatch(int)} forces once every {@code n} messages</li>
+ * <li>{@link #periodic(long, TimeUnit)} a background thread forces at a fixed
+ * rate</li>
+ * <li>{@link #manual()} only {@link FastJournalQueue#flush()} and
+ * {@link FastJournalQueue#close()} force</li>
+ * </ul>
+ *
+ * @author zhenyu.yin
+ *
+ */
+public final class FlushPolicy {
+
+	final int batch;
+	final long periodNanos;
+
+	private FlushPolicy(final int batch, final long periodNanos) {
+		this.batch = batch;
+		this.periodNanos = periodNanos;
+	}
+
+	public static FlushPolicy perWrite() {
+		return new FlushPolicy(1, 0L);
+	}
+
+	/**
+	 * @param writes
+	 *            the number of messages written between two forces
+	 * @throws IllegalArgumentException
+	 *             if {@code writes < 1}
+	 */
+	public static FlushPolicy perBatch(final int writes) {
+		if (writes < 1) {
+			throw new IllegalArgumentException("writes must not be less than 1");
+		}
+		return new FlushPolicy(writes, 0L);
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if {@code period <= 0}
+	 */
+	public static FlushPolicy periodic(final long period, final TimeUnit unit) {
+		if (period <= 0) {
+			throw new IllegalArgumentException("period must be positive");
+		}
+		return new FlushPolicy(0, unit.toNanos(period));
+	}
+
+	public static FlushPolicy manual() {
+		return new FlushPolicy(0, 0L);
+	}
+}
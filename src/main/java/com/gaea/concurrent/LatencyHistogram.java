@@ -0,0 +1,186 @@
+package com.gaea.concurrent;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free, allocation-free log-linear histogram of durations in
+ * nanoseconds.
+ * <p>
+ * Values below {@code 2^SUB_BITS} get a bucket each; above that, every power
+ * of two is split into {@code 2^(SUB_BITS - 1)} equal buckets, so a reported
+ * percentile is at most about 3% above the recorded value. Recording is one
+ * atomic increment on the bucket plus a CAS when a new maximum shows up.
+ * Snapshots copy the buckets on the reading side.
+ *
+ * @author zhenyu.yin
+ *
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BITS = 6;
+	private static final int SUB = 1 << SUB_BITS;
+	private static final int HALF = SUB >> 1;
+	/** buckets up to values with the top bit 62 set */
+	private static final int BUCKETS = SUB + (62 - SUB_BITS + 1) * HALF;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final FastAtomicLong max = new FastAtomicLong();
+	private final FastAtomicLong intervalMax = new FastAtomicLong();
+	/** bucket counts at the last interval snapshot, guarded by this */
+	private long[] previous = new long[BUCKETS];
+
+	/**
+	 * Adds one duration; negative values count as 0.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		counts.getAndIncrement(bucket(nanos));
+		updateMax(max, nanos);
+		updateMax(intervalMax, nanos);
+	}
+
+	private static void updateMax(final FastAtomicLong max, final long nanos) {
+		long current;
+		while (nanos > (current = max.get())) {
+			if (max.compareAndSet(current, nanos)) {
+				return;
+			}
+		}
+	}
+
+	static int bucket(final long value) {
+		final int msb = 63 - Long.numberOfLeadingZeros(value | 1);
+		if (msb < SUB_BITS) {
+			return (int) value;
+		}
+		final int shift = msb - SUB_BITS + 1;
+		return SUB + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+	}
+
+	/**
+	 * @return the largest value that falls into {@code bucket}
+	 */
+	static long highestValue(final int bucket) {
+		if (bucket < SUB) {
+			return bucket;
+		}
+		final int k = bucket - SUB;
+		final int shift = k / HALF + 1;
+		final long sub = k % HALF + HALF;
+		return ((sub + 1) << shift) - 1;
+	}
+
+	/**
+	 * @return everything recorded since the histogram was created
+	 */
+	public Snapshot snapshot() {
+		final long[] copy = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = counts.get(i);
+		}
+		return new Snapshot(copy, max.get());
+	}
+
+	/**
+	 * @return everything recorded since the previous call, or since the
+	 *         histogram was created for the first call
+	 */
+	public synchronized Snapshot intervalSnapshot() {
+		final long intervalMaxValue = intervalMax.getAndSet(0);
+		final long[] now = new long[BUCKETS];
+		final long[] delta = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			now[i] = counts.get(i);
+			delta[i] = now[i] - previous[i];
+		}
+		previous = now;
+		return new Snapshot(delta, intervalMaxValue);
+	}
+
+	/**
+	 * Immutable bucket counts with percentile queries. Values are reported as
+	 * the upper bound of their bucket, never above the recorded maximum.
+	 */
+	public static final class Snapshot {
+
+		private final long[] counts;
+		private final long count;
+		private final long max;
+		private final double mean;
+
+		Snapshot(final long[] counts, final long max) {
+			this.counts = counts;
+			long count = 0;
+			double sum = 0;
+			for (int i = 0; i < counts.length; i++) {
+				count += counts[i];
+				sum += (double) counts[i] * Math.min(highestValue(i), max);
+			}
+			this.count = count;
+			this.max = count == 0 ? 0 : max;
+			this.mean = count == 0 ? 0 : sum / count;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return the largest recorded value, 0 if nothing was recorded
+		 */
+		public long getMax() {
+			return max;
+		}
+
+		/**
+		 * @return the mean, computed from bucket upper bounds
+		 */
+		public double getMean() {
+			return mean;
+		}
+
+		/**
+		 * @param percentile
+		 *            in [0, 100]
+		 * @return the smallest bucket bound that at least {@code percentile}
+		 *         percent of the values do not exceed, 0 if empty
+		 */
+		public long getValueAtPercentile(final double percentile) {
+			if (percentile < 0 || percentile > 100) {
+				throw new IllegalArgumentException("percentile must be in [0, 100]");
+			}
+			if (count == 0) {
+				return 0;
+			}
+			final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return Math.min(highestValue(i), max);
+				}
+			}
+			return max;
+		}
+
+		public long getP50() {
+			return getValueAtPercentile(50);
+		}
+
+		public long getP99() {
+			return getValueAtPercentile(99);
+		}
+
+		public long getP999() {
+			return getValueAtPercentile(99.9);
+		}
+
+		@Override
+		public String toString() {
+			return "count=" + count + ", p50=" + getP50() + "ns, p99=" + getP99() + "ns, p99.9=" + getP999()
+					+ "ns, max=" + max + "ns";
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package com.gaea.concurrent;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * {@link ShardRingBuffer} that allocates a shard on the first write to it and,
+ * if the layout asks for it, releases shards that have stayed unused for a
+ * while.
+ * <p>
+ * An unallocated shard is a placeholder that only remembers the sequence of
+ * its first slot; reads see every slot free and empty. A write replaces the
+ * placeholder with real arrays through one CAS, so concurrent producers agree
+ * on one shard.
+ * <p>
+ * To release a shard, every slot sequence is CASed from "free for the next
+ * lap" to {@code POISON}, then the shard is swapped for a new placeholder. Any
+ * slot that is not free makes the release roll back. Producers publish with a
+ * CAS from {@code index} to {@code index + 1}, so one that still holds the old
+ * shard fails and writes again into the current one.
+ *
+ * @author zhenyu.yin
+ *
+ */
+final class LazyShardRingBuffer<T> extends ShardRingBuffer<T> {
+
+	/** sequence of a slot whose shard is being released */
+	private static final long POISON = Long.MAX_VALUE;
+
+	private final AtomicReferenceArray<Shard> shards;
+	/** when the consumers last left a shard, 0 if not waiting for release */
+	private final AtomicLongArray passed;
+	/** the free sequence of slot 0 for the lap after the consumers left the shard */
+	private final AtomicLongArray bases;
+	private final long idleNanos;
+
+	LazyShardRingBuffer(final int size, final WaitStrategy waitStrategy, final ShardLayout layout) {
+		super(size, waitStrategy, layout);
+		this.idleNanos = layout.idleNanos;
+		this.shards = new AtomicReferenceArray<Shard>(shard);
+		for (int i = 0; i < shard; i++) {
+			shards.set(i, new Shard(initialSequence(i, 0)));
+		}
+		this.passed = idleNanos < 0 ? null : new AtomicLongArray(shard);
+		this.bases = idleNanos < 0 ? null : new AtomicLongArray(shard);
+	}
+
+	/**
+	 * @return the allocated shard {@code n}
+	 */
+	private Shard allocate(final int n) {
+		for (;;) {
+			final Shard current = shards.get(n);
+			if (current.sequences != null) {
+				return current;
+			}
+			final Shard shard = new Shard(current.base, indexMask + 1);
+			// 占位对象各不相同, CAS 不会有 ABA
+			if (shards.compareAndSet(n, current, shard)) {
+				return shard;
+			}
+		}
+	}
+
+	@Override
+	public void publish(final long index, final T t) {
+		final int n = nodeIndex(index);
+		final int i = index(index);
+		if (sojourn != null) {
+			sojourn.stamp(index);
+		}
+		if (passed == null) {
+			final Shard shard = allocate(n);
+			shard.values.lazySet(i, t);
+			shard.sequences.lazySet(i, index + 1);
+			return;
+		}
+		if (passed.get(n) != 0) {
+			// 分片被重新使用, 重新计算空闲时间
+			passed.set(n, 0);
+		}
+		for (;;) {
+			final Shard shard = allocate(n);
+			shard.values.lazySet(i, t);
+			if (shard.sequences.compareAndSet(i, index, index + 1)) {
+				return;
+			}
+			// 分片正在回收或已被回收, 重新写入当前分片
+		}
+	}
+
+	@Override
+	public long sequence(final long index) {
+		final Shard shard = shards.get(nodeIndex(index));
+		if (shard.sequences == null) {
+			return shard.base + index(index);
+		}
+		return shard.sequences.get(index(index));
+	}
+
+	@Override
+	void lazySetSequence(final long index, final long sequence) {
+		final int n = nodeIndex(index);
+		final int i = index(index);
+		shards.get(n).sequences.lazySet(i, sequence);
+		if (passed != null && i == indexMask && sequence == index + size) {
+			sweep(n, sequence - indexMask);
+		}
+	}
+
+	@Override
+	Object getValue(final long index) {
+		final Shard shard = shards.get(nodeIndex(index));
+		return shard.values == null ? null : shard.values.get(index(index));
+	}
+
+	@Override
+	void lazySetValue(final long index, final Object value) {
+		allocate(nodeIndex(index)).values.lazySet(index(index), value);
+	}
+
+	@Override
+	Object getAndSetValue(final long index, final Object value) {
+		return allocate(nodeIndex(index)).values.getAndSet(index(index), value);
+	}
+
+	@Override
+	boolean compareAndSetValue(final long index, final Object expect, final Object update) {
+		final Shard shard = shards.get(nodeIndex(index));
+		return shard.values != null && shard.values.compareAndSet(index(index), expect, update);
+	}
+
+	/**
+	 * Called by the consumer that released the last slot of shard {@code n}:
+	 * stamps it and releases every shard that was left long enough ago.
+	 *
+	 * @param base
+	 *            the free sequence of slot 0 for the next lap
+	 */
+	private void sweep(final int n, final long base) {
+		final long now = System.nanoTime() | 1L;
+		bases.set(n, base);
+		passed.set(n, now);
+		for (int k = 0; k < shard; k++) {
+			final long left = passed.get(k);
+			if (left != 0 && now - left >= idleNanos && passed.compareAndSet(k, left, 0)) {
+				release(k);
+			}
+		}
+	}
+
+	/**
+	 * Swaps shard {@code n} for a placeholder if every slot is still free for
+	 * the lap after the consumers left it. A slot a producer has filled since
+	 * is one sequence ahead and fails the CAS.
+	 */
+	private void release(final int n) {
+		final Shard shard = shards.get(n);
+		if (shard.sequences == null) {
+			return;
+		}
+		final long base = bases.get(n);
+		for (int i = 0; i <= indexMask; i++) {
+			if (!shard.sequences.compareAndSet(i, base + i, POISON)) {
+				// 仍有节点在使用, 撤销
+				while (--i >= 0) {
+					shard.sequences.set(i, base + i);
+				}
+				return;
+			}
+		}
+		shards.set(n, new Shard(base));
+	}
+
+	/**
+	 * The slots of one shard, or a placeholder without arrays.
+	 */
+	private static final class Shard {
+
+		/** sequence of slot 0 when the arrays are allocated */
+		final long base;
+		final AtomicReferenceArray<Object> values;
+		final AtomicLongArray sequences;
+
+		Shard(final long base) {
+			this.base = base;
+			this.values = null;
+			this.sequences = null;
+		}
+
+		Shard(final long base, final int size) {
+			this.base = base;
+			this.values = new AtomicReferenceArray<Object>(size);
+			this.sequences = new AtomicLongArray(size);
+			for (int j = 0; j < size; j++) {
+				sequences.set(j, base + j);
+			}
+		}
+	}
+}
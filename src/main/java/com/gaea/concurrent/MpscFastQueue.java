@@ -0,0 +1,93 @@
+package com.gaea.concurrent;
+
+/**
+ * Multi producer, single consumer {@link FastQueue}. Producers claim
+ * {@code head} with a CAS; the consumer owns {@code tail} and advances it with
+ * an ordered store after releasing the slot, so a producer that passed
+ * {@code canPut} always finds its slot free.
+ *
+ * @author zhenyu.yin
+ *
+ */
+final class MpscFastQueue<T> extends FastQueue<T> {
+
+	MpscFastQueue(final int capacity, final WaitStrategy waitStrategy) {
+		super(capacity, waitStrategy);
+	}
+
+	@Override
+	public boolean offer(final T t) {
+		checkNotNull(t);
+		long next;
+		do {
+			if (!canPut(next = head.get())) {
+				return false;
+			}
+		} while (!head.compareAndSet(next, next + 1));
+
+		buffer.publish(next, t);
+		return true;
+	}
+
+	@Override
+	public int offerBatch(final T[] items, final int off, final int len) {
+		checkBatch(items, off, len);
+		long next;
+		int n;
+		do {
+			if ((n = available(next = head.get(), len)) == 0) {
+				return 0;
+			}
+		} while (!head.compareAndSet(next, next + n));
+
+		buffer.lazySetAll(next, items, off, n);
+		return n;
+	}
+
+	@Override
+	public T poll() {
+		for (;;) {
+			final long next = tail.get();
+			if (buffer.sequence(next) != next + 1) {
+				return null; // 为空, 或生产者申请了节点但还没发布
+			}
+			final T t = buffer.release(next);
+			tail.lazySet(next + 1);
+			if (t != null) {
+				return t;
+			}
+		}
+	}
+
+	@Override
+	public int drain(final ElementHandler<? super T> handler, final int limit) {
+		checkNotNull(handler);
+		if (limit <= 0)
+			return 0;
+		final long next = tail.get();
+		if (!canTake(next)) {
+			return 0;
+		}
+		final long end = Math.min(headcache = head.get(), next + limit);
+		try {
+			return buffer.drain(next, (int) (end - next), handler);
+		} finally {
+			tail.lazySet(end);
+		}
+	}
+
+	@Override
+	public int drain(final T[] dst, final int off, final int limit) {
+		checkNotNull(dst);
+		if (off < 0 || limit < 0 || off > dst.length - limit)
+			throw new IndexOutOfBoundsException();
+		final long next = tail.get();
+		if (limit == 0 || !canTake(next)) {
+			return 0;
+		}
+		final long end = Math.min(headcache = head.get(), next + limit);
+		final int n = buffer.drain(next, (int) (end - next), dst, off);
+		tail.lazySet(end);
+		return n;
+	}
+}
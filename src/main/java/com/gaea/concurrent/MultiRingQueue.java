@@ -0,0 +1,370 @@
+package com.gaea.concurrent;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Blocking queue over several {@link FastQueue} rings that share one
+ * {@code notEmpty} and one {@code notFull} {@link WaiterGate}. Subclasses only
+ * pick the ring a producer offers to and the order in which consumers visit
+ * the rings; waiting, signalling and the collection views live here.
+ * <p>
+ * Producers signal {@code notEmpty} after their claim on a ring {@code head},
+ * consumers signal {@code notFull} for every slot they free, and a blocked
+ * thread enters its gate before it checks the rings for the last time, so
+ * either side sees the other.
+ *
+ * @author zhenyu.yin
+ *
+ */
+abstract class MultiRingQueue<T> extends AbstractQueue<T> implements BlockingQueue<T> {
+
+	final FastQueue<T>[] rings;
+	/** the capacity of every ring */
+	final int ringCapacity;
+	/** consumers waiting for data, signalled by producers */
+	final WaiterGate notEmpty;
+	/** producers waiting for space, signalled by consumers */
+	final WaiterGate notFull;
+
+	@SuppressWarnings("unchecked")
+	MultiRingQueue(final int rings, final int ringCapacity, final WaitStrategy waitStrategy) {
+		FastQueue.checkNotNull(waitStrategy);
+		this.rings = new FastQueue[rings];
+		for (int i = 0; i < rings; i++) {
+			this.rings[i] = new FastQueue<T>(ringCapacity, waitStrategy);
+		}
+		this.ringCapacity = this.rings[0].capacity;
+		this.notEmpty = new WaiterGate(waitStrategy);
+		this.notFull = new WaiterGate(waitStrategy.copy());
+	}
+
+	/**
+	 * Inserts {@code t}, starting at ring {@code target}.
+	 *
+	 * @return false if there is no room for it
+	 */
+	abstract boolean tryOffer(int target, T t);
+
+	/**
+	 * @return true if {@link #tryOffer(int, Object)} with {@code target} can
+	 *         only succeed after a consumer frees a slot
+	 */
+	abstract boolean isFull(int target);
+
+	/**
+	 * @return the ring that {@link #peek()} and {@link #drain} visit first
+	 */
+	abstract int first();
+
+	/**
+	 * @return the index of the {@code i}-th ring visited from {@code first}
+	 */
+	final int ring(final int first, final int i) {
+		final int r = first + i;
+		return r < rings.length ? r : r - rings.length;
+	}
+
+	/**
+	 * Offers {@code t} to ring {@code i} and wakes a waiting consumer.
+	 */
+	final boolean offerRing(final int i, final T t) {
+		if (rings[i].offer(t)) {
+			notEmpty.signal();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Polls ring {@code i}, waking producers only for slots actually freed.
+	 */
+	@SuppressWarnings("unchecked")
+	final T pollRing(final int i) {
+		for (;;) {
+			final Object o = rings[i].pollSlot();
+			if (o == null) {
+				return null;
+			}
+			// 跳过的墓碑同样释放了节点
+			notFull.signal();
+			if (o != FastQueue.SKIPPED) {
+				return (T) o;
+			}
+		}
+	}
+
+	/**
+	 * Polls every ring once, starting at {@code first}.
+	 */
+	final T pollFrom(final int first) {
+		T t = null;
+		for (int i = 0; i < rings.length && t == null; i++) {
+			t = pollRing(ring(first, i));
+		}
+		return t;
+	}
+
+	/**
+	 * Inserts {@code t} starting at ring {@code target}, waiting for room.
+	 */
+	final void putAt(final int target, final T t) throws InterruptedException {
+		FastQueue.checkNotNull(t);
+		int counter = 0;
+		while (!tryOffer(target, t)) {
+			if (!isFull(target)) {
+				counter = notFull.idle(counter); // 消费者已申请节点,但还没释放
+				continue;
+			}
+			final long seen = notFull.enter();
+			try {
+				if (isFull(target)) {
+					notFull.await(seen);
+				}
+			} finally {
+				notFull.leave();
+			}
+		}
+	}
+
+	/**
+	 * Inserts {@code t} starting at ring {@code target}, waiting up to
+	 * {@code timeout} for room.
+	 *
+	 * @return false if the timeout elapsed
+	 */
+	final boolean offerAt(final int target, final T t, final long timeout, final TimeUnit unit)
+			throws InterruptedException {
+		FastQueue.checkNotNull(t);
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		int counter = 0;
+		while (!tryOffer(target, t)) {
+			final long nanos = deadline - System.nanoTime();
+			if (nanos <= 0) {
+				return false;
+			}
+			if (!isFull(target)) {
+				counter = notFull.idle(counter);
+				continue;
+			}
+			final long seen = notFull.enter();
+			try {
+				if (isFull(target)) {
+					notFull.await(seen, nanos);
+				}
+			} finally {
+				notFull.leave();
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public T take() throws InterruptedException {
+		return take(false, 0L);
+	}
+
+	@Override
+	public T poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+		return take(true, unit.toNanos(timeout));
+	}
+
+	/**
+	 * Polls all rings, waiting once for any of them to receive data.
+	 *
+	 * @return the element, or null if the timeout elapsed
+	 */
+	private T take(final boolean timed, final long nanos) throws InterruptedException {
+		final long deadline = timed ? System.nanoTime() + nanos : 0L;
+		int counter = 0;
+		for (;;) {
+			final T t = poll();
+			if (t != null) {
+				return t;
+			}
+			final long remaining = timed ? deadline - System.nanoTime() : 0L;
+			if (timed && remaining <= 0) {
+				return null;
+			}
+			if (!isEmptyClaimed()) {
+				counter = notEmpty.idle(counter); // 生产者已申请节点,但还没发布
+				continue;
+			}
+			final long seen = notEmpty.enter();
+			try {
+				if (isEmptyClaimed()) {
+					if (timed) {
+						notEmpty.await(seen, remaining);
+					} else {
+						notEmpty.await(seen);
+					}
+				}
+			} finally {
+				notEmpty.leave();
+			}
+		}
+	}
+
+	/**
+	 * @return true if no ring has a claimed slot, published or not
+	 */
+	private boolean isEmptyClaimed() {
+		for (int i = 0; i < rings.length; i++) {
+			if (rings[i].head.get() > rings[i].tail.get()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if ring {@code i} has all its slots claimed
+	 */
+	final boolean isFullRing(final int i) {
+		return rings[i].head.get() - rings[i].tail.get() >= ringCapacity;
+	}
+
+	@Override
+	public T peek() {
+		final int first = first();
+		for (int i = 0; i < rings.length; i++) {
+			final T t = rings[ring(first, i)].peek();
+			if (t != null) {
+				return t;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Removes up to {@code limit} elements and passes them to {@code handler},
+	 * one ring after the other. Each ring is drained with one atomic on its
+	 * {@code tail}.
+	 *
+	 * @return the number of elements passed to {@code handler}
+	 */
+	public int drain(final ElementHandler<? super T> handler, final int limit) {
+		FastQueue.checkNotNull(handler);
+		if (limit <= 0)
+			return 0;
+		final int first = first();
+		int count = 0;
+		try {
+			for (int i = 0; i < rings.length && count < limit; i++) {
+				count += rings[ring(first, i)].drain(handler, limit - count);
+			}
+		} finally {
+			notFull.signal();
+		}
+		return count;
+	}
+
+	@Override
+	public int drainTo(final Collection<? super T> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public int drainTo(final Collection<? super T> c, final int maxElements) {
+		FastQueue.checkNotNull(c);
+		if (c == this)
+			throw new IllegalArgumentException();
+		return drain(new ElementHandler<T>() {
+			@Override
+			public void onElement(final T t) {
+				c.add(t);
+			}
+		}, maxElements);
+	}
+
+	@Override
+	public int remainingCapacity() {
+		return ringCapacity * rings.length - size();
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+		for (int i = 0; i < rings.length; i++) {
+			size += rings[i].size();
+		}
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		for (int i = 0; i < rings.length; i++) {
+			if (!rings[i].isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean contains(final Object o) {
+		for (int i = 0; i < rings.length; i++) {
+			if (rings[i].contains(o)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean remove(final Object o) {
+		FastQueue.checkNotNull(o);
+		for (int i = 0; i < rings.length; i++) {
+			if (rings[i].remove(o)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Weakly consistent iterator that walks the rings one after the other.
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return new Iterator<T>() {
+
+			int ring = 0;
+			Iterator<T> it = rings[0].iterator();
+			Iterator<T> lastRet;
+
+			@Override
+			public boolean hasNext() {
+				while (!it.hasNext()) {
+					if (++ring >= rings.length) {
+						return false;
+					}
+					it = rings[ring].iterator();
+				}
+				return true;
+			}
+
+			@Override
+			public T next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				lastRet = it;
+				return it.next();
+			}
+
+			@Override
+			public void remove() {
+				if (lastRet == null) {
+					throw new IllegalStateException();
+				}
+				lastRet.remove();
+				lastRet = null;
+			}
+		};
+	}
+}
@@ -0,0 +1,98 @@
+package com.gaea.concurrent;
+
+import sun.misc.Unsafe;
+
+/**
+ * {@link ShardRingBuffer} storing every shard in a plain {@code Object[]} and
+ * {@code long[]} accessed through {@code Unsafe} volatile reads, ordered
+ * stores and CAS, so an access is one array load with no bounds check.
+ * <p>
+ * Slot {@code j} of a shard lives at array index {@code PAD + j * stride};
+ * {@code PAD} elements before the first and after the last slot keep other
+ * heap objects off their cache lines.
+ *
+ * @author zhenyu.yin
+ *
+ */
+final class PaddedShardRingBuffer<T> extends ShardRingBuffer<T> {
+
+	/** bytes of padding on either side of the slots, two cache lines */
+	private static final int PAD_BYTES = 128;
+
+	private static final Unsafe unsafe = Util.getUnsafe();
+	private static final long VALUE_BASE;
+	private static final int VALUE_SHIFT;
+	private static final int VALUE_PAD;
+	private static final long SEQUENCE_BASE;
+	private static final int SEQUENCE_SHIFT = 3;
+	private static final int SEQUENCE_PAD = PAD_BYTES >> SEQUENCE_SHIFT;
+
+	static {
+		final int scale = unsafe.arrayIndexScale(Object[].class);
+		VALUE_SHIFT = Integer.numberOfTrailingZeros(scale);
+		VALUE_PAD = PAD_BYTES / scale;
+		VALUE_BASE = unsafe.arrayBaseOffset(Object[].class);
+		SEQUENCE_BASE = unsafe.arrayBaseOffset(long[].class);
+	}
+
+	private final Object[][] nodes;
+	private final long[][] sequences;
+	private final int strideShift;
+
+	PaddedShardRingBuffer(final int size, final WaitStrategy waitStrategy, final ShardLayout layout) {
+		super(size, waitStrategy, layout);
+		this.strideShift = Integer.numberOfTrailingZeros(layout.stride);
+		final int span = (indexMask + 1) << strideShift;
+		this.nodes = new Object[shard][VALUE_PAD * 2 + span];
+		this.sequences = new long[shard][SEQUENCE_PAD * 2 + span];
+		for (int i = 0; i < shard; i++) {
+			for (int j = 0; j <= indexMask; j++) {
+				sequences[i][SEQUENCE_PAD + (j << strideShift)] = initialSequence(i, j);
+			}
+		}
+	}
+
+	private long valueOffset(final long index) {
+		return VALUE_BASE + ((long) (VALUE_PAD + (index(index) << strideShift)) << VALUE_SHIFT);
+	}
+
+	private long sequenceOffset(final long index) {
+		return SEQUENCE_BASE + ((long) (SEQUENCE_PAD + (index(index) << strideShift)) << SEQUENCE_SHIFT);
+	}
+
+	@Override
+	public long sequence(final long index) {
+		return unsafe.getLongVolatile(sequences[nodeIndex(index)], sequenceOffset(index));
+	}
+
+	@Override
+	void lazySetSequence(final long index, final long sequence) {
+		unsafe.putOrderedLong(sequences[nodeIndex(index)], sequenceOffset(index), sequence);
+	}
+
+	@Override
+	Object getValue(final long index) {
+		return unsafe.getObjectVolatile(nodes[nodeIndex(index)], valueOffset(index));
+	}
+
+	@Override
+	void lazySetValue(final long index, final Object value) {
+		unsafe.putOrderedObject(nodes[nodeIndex(index)], valueOffset(index), value);
+	}
+
+	@Override
+	Object getAndSetValue(final long index, final Object value) {
+		final Object[] node = nodes[nodeIndex(index)];
+		final long offset = valueOffset(index);
+		Object current;
+		do {
+			current = unsafe.getObjectVolatile(node, offset);
+		} while (!unsafe.compareAndSwapObject(node, offset, current, value));
+		return current;
+	}
+
+	@Override
+	boolean compareAndSetValue(final long index, final Object expect, final Object update) {
+		return unsafe.compareAndSwapObject(nodes[nodeIndex(index)], valueOffset(index), expect, update);
+	}
+}
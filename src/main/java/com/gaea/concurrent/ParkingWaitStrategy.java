@@ -0,0 +1,36 @@
+package com.gaea.concurrent;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Spins, then yields, then parks; every further park doubles the park time up
+ * to {@code maxParkNanos}.
+ *
+ * @author zhenyu.yin
+ *
+ */
+final class ParkingWaitStrategy extends WaitStrategy {
+
+	private final long maxParkNanos;
+
+	ParkingWaitStrategy(final long maxParkNanos) {
+		if (maxParkNanos < 1) {
+			throw new IllegalArgumentException("maxPark must not be less than 1ns");
+		}
+		this.maxParkNanos = maxParkNanos;
+	}
+
+	@Override
+	int idle(final int counter) {
+		if (counter < SPIN_TRIES) {
+			return counter + 1;
+		}
+		if (counter < SPIN_TRIES + YIELD_TRIES) {
+			Thread.yield();
+			return counter + 1;
+		}
+		final int shift = Math.min(counter - SPIN_TRIES - YIELD_TRIES, 62);
+		LockSupport.parkNanos(Math.min(1L << shift, maxParkNanos));
+		return counter + 1;
+	}
+}
@@ -0,0 +1,57 @@
+package com.gaea.concurrent;
+
+/**
+ * Slot bookkeeping shared by {@link FastLongQueue} and {@link FastIntQueue}.
+ * The subclasses keep only their value shards and the typed methods that
+ * copy a value in after {@link ShardSequence} claimed its slot, or out before
+ * it is released.
+ *
+ * @author zhenyu.yin
+ *
+ */
+abstract class PrimitiveQueue {
+
+	final ShardSequence ring;
+
+	PrimitiveQueue(final int capacity, final WaitStrategy waitStrategy) {
+		this.ring = new ShardSequence(capacity, waitStrategy);
+	}
+
+	/**
+	 * First half of a peek: the value of the returned slot may be read, then
+	 * checked with {@link #stillHead(long)}.
+	 *
+	 * @return the index of the published head slot, or -1 if the queue is
+	 *         empty
+	 */
+	final long head() {
+		final long next = ring.tail.get();
+		return ring.sequence(next) == next + 1 ? next : -1;
+	}
+
+	/**
+	 * @return true if the slot {@code next} was not consumed while its value
+	 *         was read, so the value is the published one
+	 */
+	final boolean stillHead(final long next) {
+		// 值是普通读, 不加屏障可能被重排到下面的序号读之后, 读到下一圈的值
+		Util.loadFence();
+		return ring.sequence(next) == next + 1;
+	}
+
+	public int capacity() {
+		return ring.capacity;
+	}
+
+	public int size() {
+		return ring.size();
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public int remainingCapacity() {
+		return ring.capacity - size();
+	}
+}
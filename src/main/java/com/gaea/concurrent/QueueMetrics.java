@@ -0,0 +1,478 @@
+package com.gaea.concurrent;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Opt-in runtime counters of one {@link FastQueue}, passed to its constructor.
+ * <p>
+ * Every counter is striped: a thread adds to the stripe picked by a hash of
+ * its id, and every stripe sits on its own cache lines, so counting does not
+ * become a contention point of its own. Reads sum the stripes and are weakly
+ * consistent. A queue built without metrics only pays a null check on a final
+ * field, which the branch predictor always gets right.
+ * <p>
+ * {@link #snapshot()} gives the values to code; {@link #register()} exposes
+ * them as the MBean {@code com.gaea.concurrent:type=FastQueue,name=<name>}.
+ * <p>
+ * {@link #sampleSojourn(int)} additionally stamps every n-th element on
+ * enqueue and feeds its time in the queue into a {@link LatencyHistogram}.
+ *
+ * @author zhenyu.yin
+ *
+ */
+public final class QueueMetrics implements QueueMetricsMBean {
+
+	static final int OFFERS = 0;
+	static final int POLLS = 1;
+	static final int OFFER_RETRIES = 2;
+	static final int POLL_RETRIES = 3;
+	static final int OFFER_REJECTS = 4;
+	static final int POLL_MISSES = 5;
+	static final int HANDOFF_SPINS = 6;
+	static final int PRODUCER_WAITS = 7;
+	static final int CONSUMER_WAITS = 8;
+	static final int WAITING_PRODUCERS = 9;
+	static final int WAITING_CONSUMERS = 10;
+	static final int HIGH_WATER = 11;
+
+	/** longs per stripe, two cache lines so adjacent stripes never share one */
+	private static final int STRIPE = 16;
+	private static final int MAX_STRIPES = 64;
+	private static final LatencyHistogram.Snapshot EMPTY_SOJOURN = new LatencyHistogram().snapshot();
+
+	private final String name;
+	private final AtomicLongArray cells;
+	private final int stripeMask;
+	private volatile FastQueue<?> queue;
+	private LatencyHistogram sojourn;
+	private int sampleRate;
+	private volatile Snapshot baseline;
+	private ObjectName objectName;
+
+	/**
+	 * @param name
+	 *            the name of the queue, used as the JMX {@code name} key
+	 */
+	public QueueMetrics(final String name) {
+		FastQueue.checkNotNull(name);
+		this.name = name;
+		final int cpus = Runtime.getRuntime().availableProcessors();
+		final int stripes = Math.min(Integer.highestOneBit(cpus * 2 - 1), MAX_STRIPES);
+		this.stripeMask = stripes - 1;
+		// 首尾各留一个 stripe 的空间, 避免与相邻对象伪共享
+		this.cells = new AtomicLongArray((stripes + 2) * STRIPE);
+		this.baseline = snapshot();
+	}
+
+	/**
+	 * Binds these metrics to the queue being constructed.
+	 */
+	synchronized void attach(final FastQueue<?> queue) {
+		if (this.queue != null) {
+			throw new IllegalStateException("metrics " + name + " already belong to a queue");
+		}
+		this.queue = queue;
+	}
+
+	/**
+	 * Records how long every {@code sampleRate}-th element stays in the queue.
+	 * Must be called before the metrics are passed to a queue.
+	 *
+	 * @param sampleRate
+	 *            1 to time every element, rounded up to a power of 2
+	 * @return this
+	 * @throws IllegalStateException
+	 *             if the metrics already belong to a queue
+	 */
+	public synchronized QueueMetrics sampleSojourn(final int sampleRate) {
+		if (sampleRate < 1) {
+			throw new IllegalArgumentException("sampleRate must not be less than 1");
+		}
+		if (queue != null) {
+			throw new IllegalStateException("metrics " + name + " already belong to a queue");
+		}
+		this.sampleRate = Integer.bitCount(sampleRate) == 1 ? sampleRate : Integer.highestOneBit(sampleRate) << 1;
+		if (sojourn == null) {
+			sojourn = new LatencyHistogram();
+		}
+		return this;
+	}
+
+	/**
+	 * @return the sojourn times in nanoseconds, or null unless
+	 *         {@link #sampleSojourn(int)} was called
+	 */
+	public synchronized LatencyHistogram getSojourn() {
+		return sojourn;
+	}
+
+	/**
+	 * @return the sampler for a ring of {@code size} slots, or null
+	 */
+	synchronized SojournSampler sampler(final int size) {
+		return sojourn == null ? null : new SojournSampler(sojourn, size, sampleRate);
+	}
+
+	private int cell(final int counter) {
+		final long id = Thread.currentThread().getId();
+		final int stripe = (int) ((id * 0x9E3779B97F4A7C15L) >>> 40) & stripeMask;
+		return (stripe + 1) * STRIPE + counter;
+	}
+
+	void add(final int counter, final long delta) {
+		cells.getAndAdd(cell(counter), delta);
+	}
+
+	void increment(final int counter) {
+		cells.getAndIncrement(cell(counter));
+	}
+
+	/**
+	 * Counts {@code n} inserted elements and records {@code size} as a
+	 * candidate high-water mark.
+	 */
+	void offered(final int n, final long size) {
+		final int cell = cell(OFFERS);
+		cells.getAndAdd(cell, n);
+		final int high = cell - OFFERS + HIGH_WATER;
+		long current;
+		while (size > (current = cells.get(high))) {
+			if (cells.compareAndSet(high, current, size)) {
+				return;
+			}
+		}
+	}
+
+	private long sum(final int counter) {
+		long sum = 0;
+		for (int i = 1; i <= stripeMask + 1; i++) {
+			sum += cells.get(i * STRIPE + counter);
+		}
+		return sum;
+	}
+
+	private long max(final int counter) {
+		long max = 0;
+		for (int i = 1; i <= stripeMask + 1; i++) {
+			max = Math.max(max, cells.get(i * STRIPE + counter));
+		}
+		return max;
+	}
+
+	/**
+	 * @return the current values of all counters
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(this);
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server.
+	 *
+	 * @return this
+	 * @throws IllegalStateException
+	 *             if the MBean cannot be registered, e.g. the name is taken
+	 */
+	public synchronized QueueMetrics register() {
+		if (objectName != null) {
+			return this;
+		}
+		try {
+			final ObjectName on = new ObjectName("com.gaea.concurrent:type=FastQueue,name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+			objectName = on;
+		} catch (JMException e) {
+			throw new IllegalStateException("cannot register metrics " + name, e);
+		}
+		return this;
+	}
+
+	/**
+	 * Removes the MBean registered by {@link #register()}, if any.
+	 */
+	public synchronized void unregister() {
+		if (objectName == null) {
+			return;
+		}
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+		} catch (JMException e) {
+			throw new IllegalStateException("cannot unregister metrics " + name, e);
+		} finally {
+			objectName = null;
+		}
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public int getSize() {
+		final FastQueue<?> q = queue;
+		return q == null ? 0 : q.size();
+	}
+
+	@Override
+	public int getCapacity() {
+		final FastQueue<?> q = queue;
+		return q == null ? 0 : q.capacity;
+	}
+
+	@Override
+	public long getHighWater() {
+		return max(HIGH_WATER);
+	}
+
+	@Override
+	public long getOffers() {
+		return sum(OFFERS);
+	}
+
+	@Override
+	public long getPolls() {
+		return sum(POLLS);
+	}
+
+	@Override
+	public long getOfferRetries() {
+		return sum(OFFER_RETRIES);
+	}
+
+	@Override
+	public long getPollRetries() {
+		return sum(POLL_RETRIES);
+	}
+
+	@Override
+	public long getOfferRejects() {
+		return sum(OFFER_REJECTS);
+	}
+
+	@Override
+	public long getPollMisses() {
+		return sum(POLL_MISSES);
+	}
+
+	@Override
+	public long getHandOffSpins() {
+		return sum(HANDOFF_SPINS);
+	}
+
+	@Override
+	public long getProducerWaits() {
+		return sum(PRODUCER_WAITS);
+	}
+
+	@Override
+	public long getConsumerWaits() {
+		return sum(CONSUMER_WAITS);
+	}
+
+	@Override
+	public long getWaitingProducers() {
+		return sum(WAITING_PRODUCERS);
+	}
+
+	@Override
+	public long getWaitingConsumers() {
+		return sum(WAITING_CONSUMERS);
+	}
+
+	@Override
+	public long getSojournP50() {
+		return sojournSnapshot().getP50();
+	}
+
+	@Override
+	public long getSojournP99() {
+		return sojournSnapshot().getP99();
+	}
+
+	@Override
+	public long getSojournP999() {
+		return sojournSnapshot().getP999();
+	}
+
+	@Override
+	public long getSojournMax() {
+		return sojournSnapshot().getMax();
+	}
+
+	private LatencyHistogram.Snapshot sojournSnapshot() {
+		final LatencyHistogram h = getSojourn();
+		return h == null ? EMPTY_SOJOURN : h.snapshot();
+	}
+
+	@Override
+	public double getEnqueueRate() {
+		final Snapshot base = baseline;
+		return rotate(base).enqueueRate(base);
+	}
+
+	@Override
+	public double getDequeueRate() {
+		final Snapshot base = baseline;
+		return rotate(base).dequeueRate(base);
+	}
+
+	/**
+	 * Takes a snapshot and makes it the rate baseline once the current one is
+	 * a second old.
+	 */
+	private Snapshot rotate(final Snapshot base) {
+		final Snapshot now = snapshot();
+		if (now.nanos - base.nanos >= TimeUnit.SECONDS.toNanos(1)) {
+			baseline = now;
+		}
+		return now;
+	}
+
+	@Override
+	public String toString() {
+		return snapshot().toString();
+	}
+
+	/**
+	 * Values of all counters of one queue at one moment.
+	 */
+	public static final class Snapshot {
+
+		private final String name;
+		private final long nanos;
+		private final int size;
+		private final long highWater;
+		private final long offers;
+		private final long polls;
+		private final long offerRetries;
+		private final long pollRetries;
+		private final long offerRejects;
+		private final long pollMisses;
+		private final long handOffSpins;
+		private final long producerWaits;
+		private final long consumerWaits;
+		private final long waitingProducers;
+		private final long waitingConsumers;
+
+		Snapshot(final QueueMetrics m) {
+			this.name = m.name;
+			this.nanos = System.nanoTime();
+			this.size = m.getSize();
+			this.highWater = m.getHighWater();
+			this.offers = m.getOffers();
+			this.polls = m.getPolls();
+			this.offerRetries = m.getOfferRetries();
+			this.pollRetries = m.getPollRetries();
+			this.offerRejects = m.getOfferRejects();
+			this.pollMisses = m.getPollMisses();
+			this.handOffSpins = m.getHandOffSpins();
+			this.producerWaits = m.getProducerWaits();
+			this.consumerWaits = m.getConsumerWaits();
+			this.waitingProducers = m.getWaitingProducers();
+			this.waitingConsumers = m.getWaitingConsumers();
+		}
+
+		/**
+		 * @return elements inserted per second between {@code earlier} and
+		 *         this snapshot
+		 */
+		public double enqueueRate(final Snapshot earlier) {
+			return rate(offers - earlier.offers, earlier);
+		}
+
+		/**
+		 * @return elements removed per second between {@code earlier} and this
+		 *         snapshot
+		 */
+		public double dequeueRate(final Snapshot earlier) {
+			return rate(polls - earlier.polls, earlier);
+		}
+
+		private double rate(final long delta, final Snapshot earlier) {
+			final long elapsed = nanos - earlier.nanos;
+			return elapsed <= 0 ? 0.0 : delta * 1e9 / elapsed;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return {@code System.nanoTime()} when the snapshot was taken
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+
+		public int getSize() {
+			return size;
+		}
+
+		public long getHighWater() {
+			return highWater;
+		}
+
+		public long getOffers() {
+			return offers;
+		}
+
+		public long getPolls() {
+			return polls;
+		}
+
+		public long getOfferRetries() {
+			return offerRetries;
+		}
+
+		public long getPollRetries() {
+			return pollRetries;
+		}
+
+		public long getOfferRejects() {
+			return offerRejects;
+		}
+
+		public long getPollMisses() {
+			return pollMisses;
+		}
+
+		public long getHandOffSpins() {
+			return handOffSpins;
+		}
+
+		public long getProducerWaits() {
+			return producerWaits;
+		}
+
+		public long getConsumerWaits() {
+			return consumerWaits;
+		}
+
+		public long getWaitingProducers() {
+			return waitingProducers;
+		}
+
+		public long getWaitingConsumers() {
+			return waitingConsumers;
+		}
+
+		@Override
+		public String toString() {
+			return name + "[size=" + size + ", highWater=" + highWater + ", offers=" + offers + ", polls=" + polls
+					+ ", offerRetries=" + offerRetries + ", pollRetries=" + pollRetries + ", offerRejects="
+					+ offerRejects + ", pollMisses=" + pollMisses + ", handOffSpins=" + handOffSpins
+					+ ", producerWaits=" + producerWaits + ", consumerWaits=" + consumerWaits
+					+ ", waitingProducers=" + waitingProducers + ", waitingConsumers=" + waitingConsumers + "]";
+		}
+	}
+}
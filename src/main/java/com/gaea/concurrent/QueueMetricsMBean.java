@@ -0,0 +1,64 @@
+package com.gaea.concurrent;
+
+/**
+ * JMX view of a {@link QueueMetrics}. Counters are totals since the queue was
+ * created; rates are per second over roughly the last second. Sojourn
+ * percentiles cover every sampled element since the queue was created.
+ *
+ * @author zhenyu.yin
+ *
+ */
+public interface QueueMetricsMBean {
+
+	String getName();
+
+	int getSize();
+
+	int getCapacity();
+
+	long getHighWater();
+
+	long getOffers();
+
+	long getPolls();
+
+	/** failed CAS on {@code head} that made a producer retry */
+	long getOfferRetries();
+
+	/** failed CAS on {@code tail} that made a consumer retry */
+	long getPollRetries();
+
+	/** offers refused because the queue was full */
+	long getOfferRejects();
+
+	/** polls that found the queue empty */
+	long getPollMisses();
+
+	/** spins waiting for the other side to finish handing over a slot */
+	long getHandOffSpins();
+
+	/** times a producer blocked waiting for space */
+	long getProducerWaits();
+
+	/** times a consumer blocked waiting for data */
+	long getConsumerWaits();
+
+	/** producers blocked right now */
+	long getWaitingProducers();
+
+	/** consumers blocked right now */
+	long getWaitingConsumers();
+
+	/** median time in the queue in nanoseconds, 0 unless sampled */
+	long getSojournP50();
+
+	long getSojournP99();
+
+	long getSojournP999();
+
+	long getSojournMax();
+
+	double getEnqueueRate();
+
+	double getDequeueRate();
+}
@@ -0,0 +1,131 @@
+package com.gaea.concurrent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How a {@link FastQueue} lays out its ring in memory.
+ * <ul>
+ * <li>{@link #atomic(int)} one {@code AtomicReferenceArray} and one
+ * {@code AtomicLongArray} per shard, the default</li>
+ * <li>{@link #padded(int, int)} plain {@code Object[]}/{@code long[]} shards
+ * accessed through {@code Unsafe} ordered operations, with no extra
+ * indirection or bounds checks, padding before and after the slots so no
+ * other heap object shares their first and last cache lines, and an optional
+ * stride that puts consecutive slots on different cache lines</li>
+ * <li>{@link #lazy(int, long, TimeUnit)} atomic arrays allocated on the first
+ * write to a shard, optionally released again once the consumers have left a
+ * shard and producers have not come back to it for a while, so a queue with a
+ * large safety capacity only holds memory for what is in flight</li>
+ * </ul>
+ * The shard level is the log2 of the largest shard: a ring of {@code 2^n}
+ * slots is split into {@code 2^(n - level)} shards.
+ *
+ * @author zhenyu.yin
+ *
+ */
+public final class ShardLayout {
+
+	public static final int MAX_STRIDE = 16;
+
+	final int shardLevel;
+	final int stride;
+	final boolean padded;
+	final boolean lazy;
+	/** how long a passed shard stays allocated, -1 to keep it */
+	final long idleNanos;
+
+	private ShardLayout(final int shardLevel, final int stride, final boolean padded) {
+		this(shardLevel, stride, padded, false, -1L);
+	}
+
+	private ShardLayout(final int shardLevel, final int stride, final boolean padded, final boolean lazy,
+			final long idleNanos) {
+		if (shardLevel < 0 || shardLevel > 30) {
+			throw new IllegalArgumentException("shardLevel must be in [0, 30]");
+		}
+		if (stride < 1 || stride > MAX_STRIDE || Integer.bitCount(stride) != 1) {
+			throw new IllegalArgumentException("stride must be a power of 2 in [1, " + MAX_STRIDE + "]");
+		}
+		this.shardLevel = shardLevel;
+		this.stride = stride;
+		this.padded = padded;
+		this.lazy = lazy;
+		this.idleNanos = idleNanos;
+	}
+
+	/**
+	 * @return the default layout: atomic arrays, shards of
+	 *         {@code 2^DEFAULT_BUFFER_LEVEL} slots
+	 */
+	public static ShardLayout atomic() {
+		return atomic(ShardRingBuffer.DEFAULT_BUFFER_LEVEL);
+	}
+
+	/**
+	 * @param shardLevel
+	 *            log2 of the largest shard, in [0, 30]
+	 */
+	public static ShardLayout atomic(final int shardLevel) {
+		return new ShardLayout(shardLevel, 1, false);
+	}
+
+	/**
+	 * @param shardLevel
+	 *            log2 of the largest shard, in [0, 30]
+	 * @param stride
+	 *            distance in array slots between two consecutive ring slots, a
+	 *            power of 2 up to {@link #MAX_STRIDE}; 1 packs them, 16 gives
+	 *            every slot its own cache line at the cost of 16 times the
+	 *            memory
+	 */
+	public static ShardLayout padded(final int shardLevel, final int stride) {
+		return new ShardLayout(shardLevel, stride, true);
+	}
+
+	/**
+	 * Shards are allocated on the first write and never released.
+	 *
+	 * @param shardLevel
+	 *            log2 of the largest shard, in [0, 30]
+	 */
+	public static ShardLayout lazy(final int shardLevel) {
+		return new ShardLayout(shardLevel, 1, false, true, -1L);
+	}
+
+	/**
+	 * Shards are allocated on the first write and released when the consumers
+	 * left them at least {@code idle} ago and no producer has written to them
+	 * since. Idle shards are looked for whenever a consumer leaves a shard.
+	 * Producers publish with a CAS instead of an ordered store so that a
+	 * release never loses an element.
+	 *
+	 * @param shardLevel
+	 *            log2 of the largest shard, in [0, 30]
+	 * @param idle
+	 *            how long a shard must stay unused before it is released, 0 to
+	 *            release it as soon as it is passed
+	 * @param unit
+	 *            the unit of {@code idle}
+	 */
+	public static ShardLayout lazy(final int shardLevel, final long idle, final TimeUnit unit) {
+		if (idle < 0) {
+			throw new IllegalArgumentException("idle must not be less than 0");
+		}
+		return new ShardLayout(shardLevel, 1, false, true, unit.toNanos(idle));
+	}
+
+	/**
+	 * @return the number of shards a ring of {@code size} slots is split into
+	 */
+	int shards(final int size) {
+		return Math.max(Integer.highestOneBit(size >> shardLevel), 1);
+	}
+
+	@Override
+	public String toString() {
+		if (lazy) {
+			return "lazy(" + shardLevel + (idleNanos < 0 ? ")" : ", " + idleNanos + "ns)");
+		}
+		return (padded ? "padded(" + shardLevel + ", " + stride + ")" : "atomic(" + shardLevel + ")");
+	}
+}
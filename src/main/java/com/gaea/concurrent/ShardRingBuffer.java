@@ -1,20 +1,43 @@
 package com.gaea.concurrent;
 
-import java.util.concurrent.atomic.AtomicReferenceArray;
-import java.util.concurrent.locks.LockSupport;
+/**
+ * Power-of-two ring of elements split into shards. Every slot carries a
+ * publication sequence next to its element (bounded MPMC protocol by D.
+ * Vyukov, see {@link ShardSequence}):
+ * <ul>
+ * <li>{@code sequence == index}: the slot is free for the producer of
+ * {@code index}</li>
+ * <li>{@code sequence == index + 1}: the element of {@code index} is
+ * published</li>
+ * <li>{@code sequence == index + size}: the consumer of {@code index} has
+ * released the slot for the following lap</li>
+ * </ul>
+ * Queues that claim a slot only once its sequence says it is ready for their
+ * lap never wait on it. Removing an element from the middle of the ring
+ * replaces it with a tombstone, which {@link #take} and the drains skip.
+ * <p>
+ * Subclasses provide the slot storage chosen by a {@link ShardLayout}; a
+ * storage that can drop shards also overrides {@link #publish}.
+ */
+abstract class ShardRingBuffer<T> {
 
-final class ShardRingBuffer<T> {
-	
 	public static final int DEFAULT_BUFFER_LEVEL = 15;
 
-	private final int shard;
-	private final int shardMask;
-	private final int shardBit;
-	private final int indexMask;
-	private final AtomicReferenceArray<T>[] nodes;
+	/** a logically removed element, skipped by consumers */
+	static final Object TOMBSTONE = new Object();
 
-	@SuppressWarnings("unchecked")
-	public ShardRingBuffer(final int size) {
+	protected final int size;
+	protected final int shard;
+	protected final int shardMask;
+	protected final int shardBit;
+	protected final int indexMask;
+	private final WaitStrategy waitStrategy;
+	/** set by the owning queue before it is shared, null unless instrumented */
+	QueueMetrics metrics;
+	/** set by the owning queue before it is shared, null unless sampling sojourn times */
+	SojournSampler sojourn;
+
+	ShardRingBuffer(final int size, final WaitStrategy waitStrategy, final ShardLayout layout) {
 		if (size < 1) {
 			throw new IllegalArgumentException("bufferSize must not be less than 1");
 		}
@@ -26,60 +49,246 @@ final class ShardRingBuffer<T> {
 		if (Integer.bitCount(size) != 1) {
 			throw new IllegalArgumentException("bufferSize must be a power of 2");
 		}
-		this.shard = Math.max(Integer.highestOneBit(size >> DEFAULT_BUFFER_LEVEL), 1);
+		this.size = size;
+		this.shard = layout.shards(size);
 		this.shardMask = size - 1;
 		this.indexMask = size / shard - 1;
 		this.shardBit = Integer.bitCount(indexMask);
-		this.nodes = new AtomicReferenceArray[shard];
-		for (int i = 0; i < shard; i++) {
-			this.nodes[i] = new AtomicReferenceArray<T>(size / shard);
+		this.waitStrategy = waitStrategy;
+	}
+
+	/**
+	 * Creates the ring for {@code layout}.
+	 */
+	static <T> ShardRingBuffer<T> create(final int size, final WaitStrategy waitStrategy, final ShardLayout layout) {
+		if (layout.lazy) {
+			return new LazyShardRingBuffer<T>(size, waitStrategy, layout);
+		}
+		if (layout.padded) {
+			return new PaddedShardRingBuffer<T>(size, waitStrategy, layout);
+		}
+		return new AtomicShardRingBuffer<T>(size, waitStrategy, layout);
+	}
+
+	/**
+	 * @return the publication sequence of the slot of {@code index}
+	 */
+	public abstract long sequence(long index);
+
+	/**
+	 * Ordered store of the publication sequence of the slot of {@code index}.
+	 */
+	abstract void lazySetSequence(long index, long sequence);
+
+	/**
+	 * @return the raw content of the slot of {@code index}, possibly
+	 *         {@link #TOMBSTONE}
+	 */
+	abstract Object getValue(long index);
+
+	abstract void lazySetValue(long index, Object value);
+
+	abstract Object getAndSetValue(long index, Object value);
+
+	abstract boolean compareAndSetValue(long index, Object expect, Object update);
+
+	/**
+	 * Initial sequence of every slot: its own index.
+	 */
+	protected final long initialSequence(final int shard, final int dataIndex) {
+		return ((long) shard << shardBit) + dataIndex;
+	}
+
+	/**
+	 * Stores {@code t} into a slot the caller has claimed after seeing
+	 * {@code sequence(index) == index}, then publishes it.
+	 */
+	public void publish(final long index, final T t) {
+		if (sojourn != null) {
+			sojourn.stamp(index);
+		}
+		lazySetValue(index, t);
+		lazySetSequence(index, index + 1);
+	}
+
+	/**
+	 * Stores {@code t} into a slot claimed through the head counter alone,
+	 * waiting for the previous lap's consumer to release it first.
+	 */
+	public final void put(final long index, final T t) {
+		int counter = 0;
+		while (sequence(index) != index) {
+			counter = waitStrategy.idle(counter); // 上一圈的消费者还没释放节点
+			if (metrics != null) {
+				metrics.increment(QueueMetrics.HANDOFF_SPINS);
+			}
 		}
+		publish(index, t);
 	}
 
-	public void put(final long index, final T t) {
-		final int dataIndex = index(index);
-		final AtomicReferenceArray<T> node = getNode(index);
-		while (!node.compareAndSet(dataIndex, null, t)) {
-			LockSupport.parkNanos(1); // 队列满了,for CAS, 尽可能让出CPU给消费线程
+	/**
+	 * Stores {@code items[off, off + len)} into the claimed slots starting at
+	 * {@code index}. Each slot becomes visible to consumers as soon as it is
+	 * stored.
+	 */
+	public final void putAll(final long index, final T[] items, final int off, final int len) {
+		for (int i = 0; i < len; i++) {
+			put(index + i, items[off + i]);
 		}
 	}
 
-	public boolean offer(final long index, final T t) {
-		final int dataIndex = index(index);
-		final AtomicReferenceArray<T> node = getNode(index);
-		return node.compareAndSet(dataIndex, null, t);
+	/**
+	 * Publishes {@code items[off, off + len)} for the single-writer side; the
+	 * caller must already know that the slots are released.
+	 */
+	public final void lazySetAll(final long index, final T[] items, final int off, final int len) {
+		for (int i = 0; i < len; i++) {
+			publish(index + i, items[off + i]);
+		}
 	}
 
-	public T take(final long index) {
-		final int dataIndex = index(index);
-		final AtomicReferenceArray<T> node = getNode(index);
-		T t;
-		while ((t = node.getAndSet(dataIndex, null)) == null) {
-			Thread.yield(); // 生产者申请了节点,但还没更新元素, for CAS
+	/**
+	 * Takes the element of a slot the caller has claimed after seeing
+	 * {@code sequence(index) == index + 1} and releases the slot.
+	 *
+	 * @return the element, or {@code null} if it was removed
+	 */
+	@SuppressWarnings("unchecked")
+	public final T release(final long index) {
+		final Object t = getAndSetValue(index, null);
+		final SojournSampler sampler = sojourn;
+		if (sampler != null && sampler.sampled(index)) {
+			// 先读时间戳再释放节点, 释放后该时间戳可能被下一圈的生产者覆盖
+			final long enqueuedAt = sampler.enqueuedAt(index);
+			lazySetSequence(index, index + size);
+			if (t != TOMBSTONE) {
+				sampler.record(enqueuedAt);
+			}
+		} else {
+			lazySetSequence(index, index + size);
 		}
-		return t;
+		return t == TOMBSTONE ? null : (T) t;
 	}
 
-	public T get(final long index) {
-		final int dataIndex = index(index);
-		return getNode(index).get(dataIndex);
+	/**
+	 * Takes the element of a slot claimed through the tail counter alone,
+	 * waiting for its producer to publish it first.
+	 *
+	 * @return the element, or {@code null} if it was removed
+	 */
+	public final T take(final long index) {
+		int counter = 0;
+		while (sequence(index) != index + 1) {
+			counter = waitStrategy.idle(counter); // 生产者申请了节点,但还没发布元素
+			if (metrics != null) {
+				metrics.increment(QueueMetrics.HANDOFF_SPINS);
+			}
+		}
+		return release(index);
 	}
 
-	public boolean compareAndSet(final long index, final T old, final T update) {
-		final int dataIndex = index(index);
-		final AtomicReferenceArray<T> node = getNode(index);
-		return node.compareAndSet(dataIndex, old, update);
+	/**
+	 * Takes the claimed slots {@code [index, index + len)} one shard-sized run
+	 * at a time and hands every element that was not removed to
+	 * {@code handler}. If the handler throws, the remaining claimed elements
+	 * are discarded so that producers are not left waiting on their slots.
+	 *
+	 * @return the number of elements passed to {@code handler}
+	 */
+	public final int drain(final long index, final int len, final ElementHandler<? super T> handler) {
+		int done = 0;
+		int count = 0;
+		try {
+			while (done < len) {
+				final long next = index + done;
+				final int run = Math.min(len - done, indexMask + 1 - index(next));
+				for (int i = 0; i < run; i++) {
+					final T t = takeClaimed(next + i);
+					done++;
+					if (t != null) {
+						count++;
+						handler.onElement(t);
+					}
+				}
+			}
+		} finally {
+			while (done < len) {
+				takeClaimed(index + done++);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Takes the claimed slots {@code [index, index + len)} into {@code dst}
+	 * starting at {@code off}, one shard-sized run at a time, skipping removed
+	 * elements.
+	 *
+	 * @return the number of elements stored into {@code dst}
+	 */
+	public final int drain(final long index, final int len, final T[] dst, final int off) {
+		int done = 0;
+		int count = 0;
+		while (done < len) {
+			final long next = index + done;
+			final int run = Math.min(len - done, indexMask + 1 - index(next));
+			for (int i = 0; i < run; i++) {
+				final T t = takeClaimed(next + i);
+				if (t != null) {
+					dst[off + count++] = t;
+				}
+			}
+			done += run;
+		}
+		return count;
+	}
+
+	/**
+	 * {@link #take} for a drain: waits for the slot to be published, then
+	 * claims its element. A tombstone can no longer change, so it is cleared
+	 * with an ordered store; a live element is swapped out atomically because
+	 * {@link #remove} may be racing for it.
+	 */
+	@SuppressWarnings("unchecked")
+	private T takeClaimed(final long index) {
+		int counter = 0;
+		while (sequence(index) != index + 1) {
+			counter = waitStrategy.idle(counter); // 生产者申请了节点,但还没发布元素
+			if (metrics != null) {
+				metrics.increment(QueueMetrics.HANDOFF_SPINS);
+			}
+		}
+		if (getValue(index) == TOMBSTONE) {
+			lazySetValue(index, null);
+			lazySetSequence(index, index + size);
+			return null;
+		}
+		return release(index);
+	}
+
+	/**
+	 * @return the element of {@code index}, or {@code null} if the slot is
+	 *         empty or the element was removed
+	 */
+	@SuppressWarnings("unchecked")
+	public final T get(final long index) {
+		final Object t = getValue(index);
+		return t == TOMBSTONE ? null : (T) t;
 	}
 
-	private AtomicReferenceArray<T> getNode(final long index) {
-		return nodes[nodeIndex(index)];
+	/**
+	 * Replaces {@code t} in the slot of {@code index} with a tombstone. Fails
+	 * if a consumer has already taken it.
+	 */
+	public final boolean remove(final long index, final T t) {
+		return compareAndSetValue(index, t, TOMBSTONE);
 	}
 
-	private int index(final long next) {
+	protected final int index(final long next) {
 		return (int) (next & indexMask);
 	}
 
-	private int nodeIndex(final long next) {
+	protected final int nodeIndex(final long next) {
 		return (int) (next & shardMask) >> shardBit;
 	}
 }
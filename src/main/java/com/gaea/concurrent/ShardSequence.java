@@ -0,0 +1,201 @@
+package com.gaea.concurrent;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Head/tail indices plus one publication sequence per slot, laid out in the
+ * same power-of-two shards as {@link ShardRingBuffer}. Queues that keep their
+ * values in their own shard arrays use it to claim, publish and release slots
+ * (bounded MPMC protocol by D. Vyukov):
+ * <ul>
+ * <li>{@code sequence == next}: the slot is free for the producer of
+ * {@code next}</li>
+ * <li>{@code sequence == next + 1}: the value of {@code next} is published</li>
+ * <li>{@code sequence == next + capacity}: the consumer of {@code next} has
+ * released the slot for the following lap</li>
+ * </ul>
+ * A slot is therefore ready for its lap or not; there is no null sentinel and
+ * no yield loop around half-written slots.
+ *
+ * @author zhenyu.yin
+ *
+ */
+final class ShardSequence {
+
+	final int capacity;
+	final FastAtomicLong head = new FastAtomicLong();
+	final FastAtomicLong tail = new FastAtomicLong();
+
+	private final int shardMask;
+	private final int shardBit;
+	private final int indexMask;
+	private final AtomicLongArray[] sequences;
+	private final WaitStrategy notEmpty;
+	private final WaitStrategy notFull;
+
+	ShardSequence(int capacity, final WaitStrategy waitStrategy) {
+		FastQueue.checkNotNull(waitStrategy);
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must not be less than 1");
+		}
+		if (capacity > FastQueue.MAX_SIZE) {
+			throw new IllegalArgumentException("capacity must not be less than " + FastQueue.MAX_SIZE);
+		}
+		if (Integer.bitCount(capacity) != 1) {
+			capacity = Integer.highestOneBit(capacity) << 1;
+		}
+		this.capacity = capacity;
+		final int shard = Math.max(Integer.highestOneBit(capacity >> ShardRingBuffer.DEFAULT_BUFFER_LEVEL), 1);
+		this.shardMask = capacity - 1;
+		this.indexMask = capacity / shard - 1;
+		this.shardBit = Integer.bitCount(indexMask);
+		this.sequences = new AtomicLongArray[shard];
+		for (int i = 0; i < shard; i++) {
+			final AtomicLongArray node = new AtomicLongArray(indexMask + 1);
+			for (int j = 0; j <= indexMask; j++) {
+				node.set(j, ((long) i << shardBit) + j);
+			}
+			this.sequences[i] = node;
+		}
+		this.notEmpty = waitStrategy;
+		this.notFull = waitStrategy.copy();
+	}
+
+	int shardCount() {
+		return sequences.length;
+	}
+
+	int shardSize() {
+		return indexMask + 1;
+	}
+
+	int shard(final long next) {
+		return (int) (next & shardMask) >> shardBit;
+	}
+
+	int index(final long next) {
+		return (int) (next & indexMask);
+	}
+
+	long sequence(final long next) {
+		return sequences[shard(next)].get(index(next));
+	}
+
+	/**
+	 * @return the claimed index, or -1 if the queue is full
+	 */
+	long tryClaimPut() {
+		for (;;) {
+			final long next = head.get();
+			final long seq = sequence(next);
+			if (seq == next) {
+				if (head.compareAndSet(next, next + 1)) {
+					return next;
+				}
+			} else if (seq < next) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * Claims the next producer slot, waiting for space.
+	 *
+	 * @param timed
+	 *            whether {@code nanos} bounds the wait
+	 * @return the claimed index, or -1 if the timeout elapsed
+	 */
+	long claimPut(final boolean timed, long nanos) throws InterruptedException {
+		final long deadline = timed ? System.nanoTime() + nanos : 0L;
+		int counter = 0;
+		for (;;) {
+			final long next = head.get();
+			final long seq = sequence(next);
+			if (seq == next) {
+				if (head.compareAndSet(next, next + 1)) {
+					return next;
+				}
+			} else if (seq < next) {
+				if (timed && (nanos = deadline - System.nanoTime()) <= 0) {
+					return -1;
+				}
+				if (next - tail.get() < capacity) {
+					counter = notFull.idle(counter); // 消费者已申请节点,但还没释放
+				} else if (timed) {
+					notFull.waitFor(next - capacity, tail, nanos);
+				} else {
+					notFull.waitFor(next - capacity, tail);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Makes the value stored for {@code next} visible to consumers.
+	 */
+	void publish(final long next) {
+		sequences[shard(next)].lazySet(index(next), next + 1);
+		notEmpty.signalAll();
+	}
+
+	/**
+	 * @return the claimed index, or -1 if the queue is empty
+	 */
+	long tryClaimTake() {
+		for (;;) {
+			final long next = tail.get();
+			final long seq = sequence(next);
+			if (seq == next + 1) {
+				if (tail.compareAndSet(next, next + 1)) {
+					return next;
+				}
+			} else if (seq < next + 1) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * Claims the next published slot, waiting for data.
+	 *
+	 * @param timed
+	 *            whether {@code nanos} bounds the wait
+	 * @return the claimed index, or -1 if the timeout elapsed
+	 */
+	long claimTake(final boolean timed, long nanos) throws InterruptedException {
+		final long deadline = timed ? System.nanoTime() + nanos : 0L;
+		int counter = 0;
+		for (;;) {
+			final long next = tail.get();
+			final long seq = sequence(next);
+			if (seq == next + 1) {
+				if (tail.compareAndSet(next, next + 1)) {
+					return next;
+				}
+			} else if (seq < next + 1) {
+				if (timed && (nanos = deadline - System.nanoTime()) <= 0) {
+					return -1;
+				}
+				if (head.get() > next) {
+					counter = notEmpty.idle(counter); // 生产者已申请节点,但还没发布
+				} else if (timed) {
+					notEmpty.waitFor(next, head, nanos);
+				} else {
+					notEmpty.waitFor(next, head);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Hands the slot of {@code next} to the producer of the following lap.
+	 */
+	void release(final long next) {
+		sequences[shard(next)].lazySet(index(next), next + capacity);
+		notFull.signalAll();
+	}
+
+	int size() {
+		return (int) Math.max(head.get() - tail.get(), 0);
+	}
+}
@@ -0,0 +1,60 @@
+package com.gaea.concurrent;
+
+/**
+ * Enqueue timestamps of a sampled subset of ring slots, turned into sojourn
+ * times when the slots are released.
+ * <p>
+ * Only indices that are a multiple of the sample rate carry a stamp, kept in
+ * a plain array next to the ring. The producer writes the stamp before the
+ * slot's ordered sequence store and the consumer reads it before releasing
+ * the slot, so the slot's own hand-off orders every access to a stamp.
+ *
+ * @author zhenyu.yin
+ *
+ */
+final class SojournSampler {
+
+	private final LatencyHistogram histogram;
+	private final long[] stamps;
+	private final long sampleMask;
+	private final int sampleShift;
+	private final int stampMask;
+
+	SojournSampler(final LatencyHistogram histogram, final int size, final int sampleRate) {
+		this.histogram = histogram;
+		final int rate = Math.min(sampleRate, size);
+		this.sampleMask = rate - 1;
+		this.sampleShift = Integer.numberOfTrailingZeros(rate);
+		this.stamps = new long[size / rate];
+		this.stampMask = stamps.length - 1;
+	}
+
+	/**
+	 * Called by the producer of {@code index} before it publishes the slot.
+	 */
+	void stamp(final long index) {
+		if (sampled(index)) {
+			stamps[(int) (index >>> sampleShift) & stampMask] = System.nanoTime();
+		}
+	}
+
+	boolean sampled(final long index) {
+		return (index & sampleMask) == 0;
+	}
+
+	/**
+	 * Called by the consumer of a {@link #sampled} {@code index} before it
+	 * releases the slot.
+	 */
+	long enqueuedAt(final long index) {
+		return stamps[(int) (index >>> sampleShift) & stampMask];
+	}
+
+	/**
+	 * Records the sojourn of an element stamped at {@code enqueuedAt}; called
+	 * after the slot is released so the clock read stays off the hand-off.
+	 */
+	void record(final long enqueuedAt) {
+		histogram.record(System.nanoTime() - enqueuedAt);
+	}
+}
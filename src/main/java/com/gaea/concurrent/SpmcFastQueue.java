@@ -0,0 +1,47 @@
+package com.gaea.concurrent;
+
+/**
+ * Single producer, multi consumer {@link FastQueue}. The producer owns
+ * {@code head} and publishes with ordered stores; consumers keep the CAS on
+ * {@code tail} from {@link FastQueue#poll()}.
+ *
+ * @author zhenyu.yin
+ *
+ */
+final class SpmcFastQueue<T> extends FastQueue<T> {
+
+	SpmcFastQueue(final int capacity, final WaitStrategy waitStrategy) {
+		super(capacity, waitStrategy);
+	}
+
+	@Override
+	public boolean offer(final T t) {
+		checkNotNull(t);
+		final long next = head.get();
+		// 消费者先推进 tail 再释放节点, 节点未释放时视为已满
+		if (buffer.sequence(next) != next) {
+			return false;
+		}
+		buffer.publish(next, t);
+		head.lazySet(next + 1);
+		return true;
+	}
+
+	@Override
+	public int offerBatch(final T[] items, final int off, final int len) {
+		checkBatch(items, off, len);
+		final long next = head.get();
+		int n = available(next, len);
+		for (int i = 0; i < n; i++) {
+			if (buffer.sequence(next + i) != next + i) {
+				n = i;
+				break;
+			}
+		}
+		if (n > 0) {
+			buffer.lazySetAll(next, items, off, n);
+			head.lazySet(next + n);
+		}
+		return n;
+	}
+}
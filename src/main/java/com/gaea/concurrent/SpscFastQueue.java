@@ -0,0 +1,88 @@
+package com.gaea.concurrent;
+
+/**
+ * Single producer, single consumer {@link FastQueue}. Neither side runs a CAS:
+ * each publishes its index with an ordered store and checks the other side
+ * through its cached copy ({@code tailcache}/{@code headcache}).
+ *
+ * @author zhenyu.yin
+ *
+ */
+final class SpscFastQueue<T> extends FastQueue<T> {
+
+	SpscFastQueue(final int capacity, final WaitStrategy waitStrategy) {
+		super(capacity, waitStrategy);
+	}
+
+	@Override
+	public boolean offer(final T t) {
+		checkNotNull(t);
+		final long next = head.get();
+		if (!canPut(next)) {
+			return false;
+		}
+		buffer.publish(next, t);
+		head.lazySet(next + 1);
+		return true;
+	}
+
+	@Override
+	public int offerBatch(final T[] items, final int off, final int len) {
+		checkBatch(items, off, len);
+		final long next = head.get();
+		final int n = available(next, len);
+		if (n > 0) {
+			buffer.lazySetAll(next, items, off, n);
+			head.lazySet(next + n);
+		}
+		return n;
+	}
+
+	@Override
+	public T poll() {
+		for (;;) {
+			final long next = tail.get();
+			if (!canTake(next)) {
+				return null;
+			}
+			// 元素先于 head 发布, head 可见时元素一定可见
+			final T t = buffer.release(next);
+			tail.lazySet(next + 1);
+			if (t != null) {
+				return t;
+			}
+		}
+	}
+
+	@Override
+	public int drain(final ElementHandler<? super T> handler, final int limit) {
+		checkNotNull(handler);
+		if (limit <= 0)
+			return 0;
+		final long next = tail.get();
+		if (!canTake(next)) {
+			return 0;
+		}
+		final long end = Math.min(headcache = head.get(), next + limit);
+		try {
+			return buffer.drain(next, (int) (end - next), handler);
+		} finally {
+			tail.lazySet(end);
+		}
+	}
+
+	@Override
+	public int drain(final T[] dst, final int off, final int limit) {
+		checkNotNull(dst);
+		if (off < 0 || limit < 0 || off > dst.length - limit)
+			throw new IndexOutOfBoundsException();
+		final long next = tail.get();
+		if (limit == 0 || !canTake(next)) {
+			return 0;
+		}
+		final long end = Math.min(headcache = head.get(), next + limit);
+		final int n = buffer.drain(next, (int) (end - next), dst, off);
+		tail.lazySet(end);
+		return n;
+	}
+}
@@ -1,6 +1,8 @@
 package com.gaea.concurrent;
 
 import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.security.AccessController;
 import java.security.PrivilegedExceptionAction;
 
@@ -14,6 +16,11 @@ import sun.misc.Unsafe;
 final class Util {
 
 	private static final Unsafe THE_UNSAFE;
+	private static final long ADDRESS_OFFSET;
+	/** whether Unsafe has the JDK 8 fence intrinsics */
+	private static final boolean FENCES;
+	/** written by {@link #loadFence()} and {@link #fullFence()} when there are no fence intrinsics */
+	private static volatile int fence;
 
 	static {
 		try {
@@ -26,13 +33,58 @@ final class Util {
 			};
 
 			THE_UNSAFE = AccessController.doPrivileged(action);
+			ADDRESS_OFFSET = THE_UNSAFE.objectFieldOffset(Buffer.class.getDeclaredField("address"));
 		} catch (Exception e) {
 			throw new RuntimeException("Unable to load unsafe", e);
 		}
+		boolean fences;
+		try {
+			Unsafe.class.getMethod("loadFence");
+			fences = true;
+		} catch (NoSuchMethodException e) {
+			fences = false;
+		}
+		FENCES = fences;
 	}
 
 	public static Unsafe getUnsafe() {
 		return THE_UNSAFE;
 	}
 
+	/**
+	 * Keeps the loads before it from being reordered with the loads after it.
+	 * On JDK 7 a volatile write stands in: earlier loads cannot move past it,
+	 * and later volatile reads cannot move before it.
+	 */
+	static void loadFence() {
+		if (FENCES) {
+			THE_UNSAFE.loadFence();
+		} else {
+			fence = 0;
+		}
+	}
+
+	/**
+	 * Keeps the stores before it from being reordered with the loads after it,
+	 * so an ordered store can precede a {@link WaiterGate#signal()}. On JDK 7
+	 * the volatile write pairs with the volatile read in {@code signal}.
+	 */
+	static void fullFence() {
+		if (FENCES) {
+			THE_UNSAFE.fullFence();
+		} else {
+			fence = 0;
+		}
+	}
+
+	/**
+	 * @return the native address of a direct buffer's first byte
+	 */
+	public static long address(final ByteBuffer buffer) {
+		if (!buffer.isDirect()) {
+			throw new IllegalArgumentException("buffer must be direct");
+		}
+		return THE_UNSAFE.getLong(buffer, ADDRESS_OFFSET);
+	}
+
 }
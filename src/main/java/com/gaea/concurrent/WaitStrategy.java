@@ -0,0 +1,139 @@
+package com.gaea.concurrent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Strategy used by a queue when a thread has to wait: a consumer waiting for
+ * data, a producer waiting for space, or either side waiting for the other to
+ * finish handing over a slot.
+ * <p>
+ * A strategy instance belongs to one queue; the blocking strategy keeps its
+ * own lock and waiter count. Use the factory methods to pick one:
+ * <ul>
+ * <li>{@link #busySpin()} lowest latency, burns a core per waiting thread</li>
+ * <li>{@link #yielding()} spins, then {@code Thread.yield()}</li>
+ * <li>{@link #parking()} spins, yields, then parks with exponential backoff</li>
+ * <li>{@link #blocking()} parks on a {@code Condition} until signalled, no
+ * {@code synchronized} monitors so virtual threads are not pinned</li>
+ * </ul>
+ *
+ * @author zhenyu.yin
+ *
+ */
+public abstract class WaitStrategy {
+
+	static final int SPIN_TRIES = 100;
+	static final int YIELD_TRIES = 100;
+
+	WaitStrategy() {
+	}
+
+	/**
+	 * Waits until {@code cursor.get() > sequence}.
+	 *
+	 * @return the cursor value that satisfied the wait
+	 * @throws InterruptedException
+	 *             if the waiting thread is interrupted
+	 */
+	long waitFor(final long sequence, final FastAtomicLong cursor) throws InterruptedException {
+		long available;
+		int counter = 0;
+		while ((available = cursor.get()) <= sequence) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			counter = idle(counter);
+		}
+		return available;
+	}
+
+	/**
+	 * Waits until {@code cursor.get() > sequence} or {@code nanos} elapse.
+	 *
+	 * @return the last cursor value seen, {@code <= sequence} on timeout
+	 * @throws InterruptedException
+	 *             if the waiting thread is interrupted
+	 */
+	long waitFor(final long sequence, final FastAtomicLong cursor, final long nanos) throws InterruptedException {
+		final long deadline = System.nanoTime() + nanos;
+		long available;
+		int counter = 0;
+		while ((available = cursor.get()) <= sequence) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			if (deadline - System.nanoTime() <= 0) {
+				return available;
+			}
+			counter = idle(counter);
+		}
+		return available;
+	}
+
+	/**
+	 * Returns a strategy of the same kind that does not share wait state with
+	 * this one, so that producers and consumers of a queue can be signalled
+	 * separately. Stateless strategies return themselves.
+	 */
+	WaitStrategy copy() {
+		return this;
+	}
+
+	/**
+	 * Wakes the threads blocked in {@link #waitFor} after a cursor has moved.
+	 * Must be cheap when nobody is waiting.
+	 */
+	void signalAll() {
+	}
+
+	/**
+	 * Backs off once inside a short hand-off spin, e.g. a consumer waiting for
+	 * the producer that claimed a slot to store its element.
+	 *
+	 * @param counter
+	 *            the number of times the caller has already backed off
+	 * @return the counter to pass to the next call
+	 */
+	abstract int idle(int counter);
+
+	/**
+	 * @return a strategy that spins without ever giving up the CPU
+	 */
+	public static WaitStrategy busySpin() {
+		return new BusySpinWaitStrategy();
+	}
+
+	/**
+	 * @return a strategy that spins for a while and then yields the CPU
+	 */
+	public static WaitStrategy yielding() {
+		return new YieldingWaitStrategy();
+	}
+
+	/**
+	 * @return a strategy that spins, yields and then parks for up to 100
+	 *         microseconds at a time
+	 */
+	public static WaitStrategy parking() {
+		return parking(100, TimeUnit.MICROSECONDS);
+	}
+
+	/**
+	 * @param maxPark
+	 *            the longest single park once the backoff has ramped up
+	 * @param unit
+	 *            the unit of {@code maxPark}
+	 * @return a strategy that spins, yields and then parks with exponential
+	 *         backoff
+	 */
+	public static WaitStrategy parking(final long maxPark, final TimeUnit unit) {
+		return new ParkingWaitStrategy(unit.toNanos(maxPark));
+	}
+
+	/**
+	 * @return a strategy that blocks on a lock condition until signalled
+	 */
+	public static WaitStrategy blocking() {
+		return new BlockingWaitStrategy();
+	}
+}
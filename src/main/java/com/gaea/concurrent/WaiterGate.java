@@ -0,0 +1,71 @@
+package com.gaea.concurrent;
+
+/**
+ * Blocks threads until a condition spread over several queues may have
+ * changed, for queues that have no single cursor to wait on.
+ * <p>
+ * A waiter calls {@link #enter()}, checks its condition once more and then
+ * {@link #await} or not, and always {@link #leave()}. The other side calls
+ * {@link #signal()} after every change; it only moves the shared cursor while
+ * somebody waits, so an uncontended signal is one volatile read. Both
+ * {@code enter} and the change that precedes {@code signal} must be full
+ * fences (a CAS or fetch-and-add), so that either the signaller sees the
+ * waiter or the waiter sees the change.
+ *
+ * @author zhenyu.yin
+ *
+ */
+final class WaiterGate {
+
+	private final WaitStrategy waitStrategy;
+	private final FastAtomicLong waiters = new FastAtomicLong();
+	private final FastAtomicLong signals = new FastAtomicLong();
+
+	WaiterGate(final WaitStrategy waitStrategy) {
+		this.waitStrategy = waitStrategy;
+	}
+
+	/**
+	 * Registers the current thread as a waiter.
+	 *
+	 * @return the value to pass to {@link #await}
+	 */
+	long enter() {
+		waiters.getAndIncrement();
+		return signals.get();
+	}
+
+	/**
+	 * Waits until {@link #signal()} is called after {@link #enter()} returned
+	 * {@code seen}.
+	 */
+	void await(final long seen) throws InterruptedException {
+		waitStrategy.waitFor(seen, signals);
+	}
+
+	/**
+	 * Like {@link #await(long)}, giving up after {@code nanos}.
+	 */
+	void await(final long seen, final long nanos) throws InterruptedException {
+		waitStrategy.waitFor(seen, signals, nanos);
+	}
+
+	void leave() {
+		waiters.getAndDecrement();
+	}
+
+	void signal() {
+		if (waiters.get() != 0) {
+			signals.getAndIncrement();
+			waitStrategy.signalAll();
+		}
+	}
+
+	/**
+	 * Backs off while the condition is about to change, e.g. an element is
+	 * claimed but not yet published.
+	 */
+	int idle(final int counter) {
+		return waitStrategy.idle(counter);
+	}
+}
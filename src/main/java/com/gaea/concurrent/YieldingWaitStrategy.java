@@ -0,0 +1,20 @@
+package com.gaea.concurrent;
+
+/**
+ * Spins {@code SPIN_TRIES} times, then calls {@code Thread.yield()} on every
+ * further attempt.
+ *
+ * @author zhenyu.yin
+ *
+ */
+final class YieldingWaitStrategy extends WaitStrategy {
+
+	@Override
+	int idle(final int counter) {
+		if (counter < SPIN_TRIES) {
+			return counter + 1;
+		}
+		Thread.yield();
+		return counter;
+	}
+}
@@ -0,0 +1,99 @@
+package com.gaea.concurrent;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+class Head {
+	protected long p1, p2, p3, p4, p5, p6, p7;
+}
+
+class Value extends Head {
+	protected volatile long value;
+}
+
+/**
+ * JDK 9+ version of {@code FastAtomicLong}, loaded from
+ * {@code META-INF/versions/9} of the multi-release jar.
+ * <p>
+ * Same padding and API as the Java 7 class, but backed by a {@link VarHandle}:
+ * {@code lazySet} is a release store and the read-modify-write methods use
+ * {@code getAndAdd}/{@code getAndSet}, which the JIT compiles to a single
+ * {@code lock xadd}/{@code xchg}, without going through
+ * {@code sun.misc.Unsafe}.
+ *
+ * @author zhenyu.yin
+ *
+ */
+final class FastAtomicLong extends Value {
+	protected long p11, p12, p13, p14, p15, p16, p17;
+
+	private static final VarHandle VALUE;
+
+	static {
+		try {
+			VALUE = MethodHandles.lookup().findVarHandle(Value.class, "value", long.class);
+		} catch (ReflectiveOperationException e) {
+			throw new Error(e);
+		}
+	}
+
+	public FastAtomicLong(long initialValue) {
+		value = initialValue;
+	}
+
+	public FastAtomicLong() {
+	}
+
+	public final long get() {
+		return value;
+	}
+
+	public final void set(long newValue) {
+		value = newValue;
+	}
+
+	public final void lazySet(long newValue) {
+		VALUE.setRelease(this, newValue);
+	}
+
+	public final long getAndSet(long newValue) {
+		return (long) VALUE.getAndSet(this, newValue);
+	}
+
+	public final boolean compareAndSet(long expect, long update) {
+		return VALUE.compareAndSet(this, expect, update);
+	}
+
+	public final boolean weakCompareAndSet(long expect, long update) {
+		return VALUE.weakCompareAndSetPlain(this, expect, update);
+	}
+
+	public final long getAndIncrement() {
+		return (long) VALUE.getAndAdd(this, 1L);
+	}
+
+	public final long getAndDecrement() {
+		return (long) VALUE.getAndAdd(this, -1L);
+	}
+
+	public final long getAndAdd(long delta) {
+		return (long) VALUE.getAndAdd(this, delta);
+	}
+
+	public final long incrementAndGet() {
+		return (long) VALUE.getAndAdd(this, 1L) + 1L;
+	}
+
+	public final long decrementAndGet() {
+		return (long) VALUE.getAndAdd(this, -1L) - 1L;
+	}
+
+	public final long addAndGet(long delta) {
+		return (long) VALUE.getAndAdd(this, delta) + delta;
+	}
+
+	public String toString() {
+		return Long.toString(get());
+	}
+
+}
@@ -0,0 +1,82 @@
+package com.gaea.concurrent;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * JDK 9+ version of {@code PaddedShardRingBuffer}, loaded from
+ * {@code META-INF/versions/9} of the multi-release jar.
+ * <p>
+ * Same layout as the Java 7 class, but the plain {@code Object[]} and
+ * {@code long[]} shards are accessed through array {@link VarHandle}s:
+ * sequences and elements are read with acquire loads and published with
+ * release stores, which is all the sequence protocol needs, instead of the
+ * full volatile accesses of {@code Unsafe}.
+ *
+ * @author zhenyu.yin
+ *
+ */
+final class PaddedShardRingBuffer<T> extends ShardRingBuffer<T> {
+
+	/** padding slots on either side, at least two cache lines */
+	private static final int VALUE_PAD = 32;
+	private static final int SEQUENCE_PAD = 16;
+
+	private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(Object[].class);
+	private static final VarHandle SEQUENCES = MethodHandles.arrayElementVarHandle(long[].class);
+
+	private final Object[][] nodes;
+	private final long[][] sequences;
+	private final int strideShift;
+
+	PaddedShardRingBuffer(final int size, final WaitStrategy waitStrategy, final ShardLayout layout) {
+		super(size, waitStrategy, layout);
+		this.strideShift = Integer.numberOfTrailingZeros(layout.stride);
+		final int span = (indexMask + 1) << strideShift;
+		this.nodes = new Object[shard][VALUE_PAD * 2 + span];
+		this.sequences = new long[shard][SEQUENCE_PAD * 2 + span];
+		for (int i = 0; i < shard; i++) {
+			for (int j = 0; j <= indexMask; j++) {
+				sequences[i][SEQUENCE_PAD + (j << strideShift)] = initialSequence(i, j);
+			}
+		}
+	}
+
+	private int valueIndex(final long index) {
+		return VALUE_PAD + (index(index) << strideShift);
+	}
+
+	private int sequenceIndex(final long index) {
+		return SEQUENCE_PAD + (index(index) << strideShift);
+	}
+
+	@Override
+	public long sequence(final long index) {
+		return (long) SEQUENCES.getAcquire(sequences[nodeIndex(index)], sequenceIndex(index));
+	}
+
+	@Override
+	void lazySetSequence(final long index, final long sequence) {
+		SEQUENCES.setRelease(sequences[nodeIndex(index)], sequenceIndex(index), sequence);
+	}
+
+	@Override
+	Object getValue(final long index) {
+		return VALUES.getAcquire(nodes[nodeIndex(index)], valueIndex(index));
+	}
+
+	@Override
+	void lazySetValue(final long index, final Object value) {
+		VALUES.setRelease(nodes[nodeIndex(index)], valueIndex(index), value);
+	}
+
+	@Override
+	Object getAndSetValue(final long index, final Object value) {
+		return VALUES.getAndSet(nodes[nodeIndex(index)], valueIndex(index), value);
+	}
+
+	@Override
+	boolean compareAndSetValue(final long index, final Object expect, final Object update) {
+		return VALUES.compareAndSet(nodes[nodeIndex(index)], valueIndex(index), expect, update);
+	}
+}
@@ -0,0 +1,185 @@
+package demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.gaea.concurrent.ElementHandler;
+import com.gaea.concurrent.FastBlockingQueue;
+
+/**
+ * FastBlockingQueue 阻塞语义
+ *
+ * @author zhenyu.yin
+ *
+ */
+public class FastBlockingQueueTest {
+
+	@Test
+	public void pollTimesOut() throws InterruptedException {
+		final FastBlockingQueue<Long> queue = new FastBlockingQueue<Long>(4);
+		final long begin = System.nanoTime();
+		assertNull(queue.poll(50, TimeUnit.MILLISECONDS));
+		assertTrue(System.nanoTime() - begin >= TimeUnit.MILLISECONDS.toNanos(50));
+	}
+
+	@Test
+	public void pollWaitsForPut() throws InterruptedException {
+		final FastBlockingQueue<Long> queue = new FastBlockingQueue<Long>(4);
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+					queue.put(7L);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}.start();
+		assertEquals(Long.valueOf(7L), queue.poll(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void offerTimesOutWhenFull() throws InterruptedException {
+		final FastBlockingQueue<Long> queue = new FastBlockingQueue<Long>(2);
+		assertTrue(queue.offer(1L));
+		assertTrue(queue.offer(2L));
+		final long begin = System.nanoTime();
+		assertFalse(queue.offer(3L, 50, TimeUnit.MILLISECONDS));
+		assertTrue(System.nanoTime() - begin >= TimeUnit.MILLISECONDS.toNanos(50));
+		assertEquals(2, queue.size());
+	}
+
+	@Test
+	public void offerWaitsForTake() throws InterruptedException {
+		final FastBlockingQueue<Long> queue = new FastBlockingQueue<Long>(2);
+		queue.put(1L);
+		queue.put(2L);
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+					queue.take();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}.start();
+		assertTrue(queue.offer(3L, 5, TimeUnit.SECONDS));
+		assertEquals(Long.valueOf(2L), queue.take());
+		assertEquals(Long.valueOf(3L), queue.take());
+	}
+
+	@Test
+	public void putBlocksWhenFull() throws InterruptedException {
+		final FastBlockingQueue<Long> queue = new FastBlockingQueue<Long>(4);
+		final Thread producer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					for (long l = 1; l <= 6; l++) {
+						queue.put(l);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		producer.start();
+		Thread.sleep(100);
+		assertTrue(producer.isAlive());
+		assertEquals(4, queue.size());
+		assertEquals(0, queue.remainingCapacity());
+
+		assertEquals(Long.valueOf(1L), queue.take());
+		assertEquals(Long.valueOf(2L), queue.take());
+		producer.join(5000);
+		assertFalse(producer.isAlive());
+		assertEquals(4, queue.size());
+		for (long l = 3; l <= 6; l++) {
+			assertEquals(Long.valueOf(l), queue.take());
+		}
+	}
+
+	@Test
+	public void putAllWaitsForSpace() throws InterruptedException {
+		final FastBlockingQueue<Long> queue = new FastBlockingQueue<Long>(16);
+		final List<Long> items = new ArrayList<Long>();
+		for (long l = 1; l <= 1000; l++) {
+			items.add(l);
+		}
+		final Thread producer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					queue.putAll(items);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		producer.start();
+		for (long l = 1; l <= 1000; l++) {
+			assertTrue(queue.size() <= 16);
+			assertEquals(Long.valueOf(l), queue.take());
+		}
+		producer.join();
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void drainWaitsForFirstElement() throws InterruptedException {
+		final FastBlockingQueue<Long> queue = new FastBlockingQueue<Long>(16);
+		final List<Long> out = new ArrayList<Long>();
+		final ElementHandler<Long> handler = new ElementHandler<Long>() {
+			@Override
+			public void onElement(Long t) {
+				out.add(t);
+			}
+		};
+		assertEquals(0, queue.drain(handler, 8, 20, TimeUnit.MILLISECONDS));
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+					queue.putAll(Arrays.asList(1L, 2L, 3L));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}.start();
+		int n = 0;
+		while (n < 3) {
+			n += queue.drain(handler, 8, 5, TimeUnit.SECONDS);
+		}
+		assertEquals(Arrays.asList(1L, 2L, 3L), out);
+	}
+
+	@Test
+	public void takeSkipsRemoved() throws InterruptedException {
+		final FastBlockingQueue<Long> queue = new FastBlockingQueue<Long>(2);
+		queue.put(1L);
+		queue.put(2L);
+		assertTrue(queue.remove(1L));
+		assertEquals(Long.valueOf(2L), queue.take());
+		assertNull(queue.poll(20, TimeUnit.MILLISECONDS));
+		queue.put(3L);
+		queue.put(4L);
+		assertTrue(queue.remove(4L));
+		final List<Long> out = new ArrayList<Long>();
+		assertEquals(1, queue.drainTo(out));
+		assertEquals(Arrays.asList(3L), out);
+		assertTrue(queue.isEmpty());
+	}
+}
@@ -0,0 +1,151 @@
+package demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.gaea.concurrent.ByteMessageHandler;
+import com.gaea.concurrent.FastByteQueue;
+
+/**
+ * FastByteQueue 的 claim/commit/read
+ *
+ * @author zhenyu.yin
+ *
+ */
+public class FastByteQueueTest {
+
+	// 生产线程数量
+	public int threadNum = 4;
+
+	// 每个生产线程写入数量
+	public int writeNum = 200000;
+
+	@Test
+	public void claimCommitRead() {
+		final FastByteQueue queue = new FastByteQueue(256);
+		final int offset = queue.claim(8);
+		queue.buffer().putLong(offset, 42L);
+		assertEquals(0, queue.read(new Collector(), 10));
+		queue.commit(offset);
+		assertTrue(queue.offer(new byte[] { 1, 2, 3 }, 0, 3));
+		assertTrue(queue.offer(ByteBuffer.wrap(new byte[] { 4, 5 })));
+
+		final Collector collector = new Collector();
+		assertEquals(3, queue.read(collector, 10));
+		assertEquals(42L, ByteBuffer.wrap(collector.messages.get(0)).order(queue.buffer().order()).getLong());
+		assertEquals(3, collector.messages.get(1).length);
+		assertEquals(5, collector.messages.get(2)[1]);
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void abortedIsSkipped() {
+		final FastByteQueue queue = new FastByteQueue(256);
+		final int aborted = queue.claim(4);
+		final int committed = queue.claim(4);
+		queue.buffer().putInt(committed, 7);
+		queue.commit(committed);
+		assertEquals(0, queue.read(new Collector(), 10));
+		queue.abort(aborted);
+		final Collector collector = new Collector();
+		assertEquals(1, queue.read(collector, 10));
+		assertEquals(7, ByteBuffer.wrap(collector.messages.get(0)).order(queue.buffer().order()).getInt());
+	}
+
+	@Test
+	public void fullAndWrap() {
+		final FastByteQueue queue = new FastByteQueue(256);
+		assertEquals(24, queue.maxMessageLength());
+		int written = 0;
+		while (queue.offer(new byte[] { (byte) written }, 0, 1)) {
+			written++;
+		}
+		assertEquals(256 / 16, written);
+		assertEquals(-1, queue.claim(0));
+
+		final Collector collector = new Collector();
+		assertEquals(written, queue.read(collector, 100));
+		assertEquals(written - 1, collector.messages.get(written - 1)[0]);
+
+		// 队尾只剩 16 字节, 24 字节的消息需要先补齐到队尾
+		for (int i = 0; i < written - 1; i++) {
+			assertTrue(queue.offer(new byte[1], 0, 1));
+		}
+		assertEquals(written - 1, queue.read(new Collector(), 100));
+		assertTrue(queue.offer(new byte[24], 0, 24));
+		assertEquals(48, queue.size());
+		collector.messages.clear();
+		assertEquals(1, queue.read(collector, 100));
+		assertEquals(24, collector.messages.get(0).length);
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void multiProducer() throws InterruptedException {
+		final FastByteQueue queue = new FastByteQueue(1 << 16);
+		final List<Thread> ts = new ArrayList<Thread>();
+		for (int i = 0; i < threadNum; i++) {
+			final int id = i;
+			ts.add(new Thread() {
+				@Override
+				public void run() {
+					for (long l = 1; l <= writeNum; l++) {
+						final int length = 8 + (int) (l & 15);
+						int offset;
+						while ((offset = queue.claim(length)) < 0) {
+							Thread.yield();
+						}
+						queue.buffer().putLong(offset, id * (long) writeNum + l);
+						queue.commit(offset);
+					}
+				}
+			});
+		}
+		for (Thread t : ts) {
+			t.start();
+		}
+		final long total = (long) threadNum * writeNum;
+		final AtomicLong sum = new AtomicLong();
+		final AtomicLong count = new AtomicLong();
+		final ByteMessageHandler handler = new ByteMessageHandler() {
+			@Override
+			public void onMessage(ByteBuffer buffer, int offset, int length) {
+				final long v = buffer.getLong(offset);
+				assertEquals(8 + (v & 15), length);
+				sum.addAndGet(v);
+				count.incrementAndGet();
+			}
+		};
+		while (count.get() < total) {
+			if (queue.read(handler, 64) == 0) {
+				Thread.yield();
+			}
+		}
+		for (Thread t : ts) {
+			t.join();
+		}
+		assertEquals(total * (total + 1) / 2, sum.get());
+		assertTrue(queue.isEmpty());
+	}
+
+	static class Collector implements ByteMessageHandler {
+
+		final List<byte[]> messages = new ArrayList<byte[]>();
+
+		@Override
+		public void onMessage(ByteBuffer buffer, int offset, int length) {
+			final byte[] bytes = new byte[length];
+			for (int i = 0; i < length; i++) {
+				bytes[i] = buffer.get(offset + i);
+			}
+			messages.add(bytes);
+		}
+	}
+}
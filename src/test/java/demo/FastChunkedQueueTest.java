@@ -0,0 +1,175 @@
+package demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.gaea.concurrent.FastChunkedQueue;
+import com.gaea.concurrent.WaitStrategy;
+
+/**
+ * FastChunkedQueue 跨块增长、软上限与阻塞
+ *
+ * @author zhenyu.yin
+ *
+ */
+public class FastChunkedQueueTest {
+
+	@Test
+	public void growAcrossChunks() {
+		final FastChunkedQueue<Long> queue = new FastChunkedQueue<Long>(4);
+		assertNull(queue.poll());
+		assertNull(queue.peek());
+		for (long l = 1; l <= 100; l++) {
+			assertTrue(queue.offer(l));
+		}
+		assertEquals(100, queue.size());
+		assertEquals(Integer.MAX_VALUE, queue.remainingCapacity());
+		assertEquals(Long.valueOf(1L), queue.peek());
+		for (long l = 1; l <= 100; l++) {
+			assertEquals(Long.valueOf(l), queue.poll());
+		}
+		assertNull(queue.poll());
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void removeAndDrain() {
+		final FastChunkedQueue<Long> queue = new FastChunkedQueue<Long>(2);
+		queue.addAll(Arrays.asList(1L, 2L, 3L, 4L, 5L));
+		assertTrue(queue.remove(3L));
+		assertFalse(queue.contains(3L));
+		final List<Long> out = new ArrayList<Long>();
+		assertEquals(2, queue.drainTo(out, 2));
+		assertEquals(2, queue.drainTo(out));
+		assertEquals(Arrays.asList(1L, 2L, 4L, 5L), out);
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void removeRacingPollDeliversOnce() throws InterruptedException {
+		final int n = 200000;
+		final FastChunkedQueue<Integer> queue = new FastChunkedQueue<Integer>(64);
+		final Integer[] items = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			items[i] = i;
+			queue.offer(items[i]);
+		}
+		// 每个元素要么被 remove 成功, 要么被 poll 取走, 只能有一次
+		final AtomicIntegerArray seen = new AtomicIntegerArray(n);
+		final CountDownLatch start = new CountDownLatch(1);
+		final Thread remover = new Thread() {
+			@Override
+			public void run() {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = 0; i < n; i++) {
+					if (queue.remove(items[i])) {
+						seen.incrementAndGet(i);
+					}
+				}
+			}
+		};
+		final Thread poller = new Thread() {
+			@Override
+			public void run() {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				Integer t;
+				while ((t = queue.poll()) != null) {
+					seen.incrementAndGet(t);
+				}
+			}
+		};
+		remover.start();
+		poller.start();
+		start.countDown();
+		remover.join();
+		poller.join();
+		assertNull(queue.peek());
+		for (int i = 0; i < n; i++) {
+			assertEquals("element " + i, 1, seen.get(i));
+		}
+	}
+
+	@Test
+	public void peekSkipsRemovedHead() {
+		final FastChunkedQueue<Long> queue = new FastChunkedQueue<Long>(2);
+		queue.addAll(Arrays.asList(1L, 2L, 3L));
+		assertTrue(queue.remove(1L));
+		assertTrue(queue.remove(2L));
+		assertFalse(queue.remove(2L));
+		assertEquals(Long.valueOf(3L), queue.peek());
+		assertEquals(1, queue.size());
+		assertEquals(Long.valueOf(3L), queue.poll());
+		assertNull(queue.peek());
+	}
+
+	@Test
+	public void softBound() throws InterruptedException {
+		final FastChunkedQueue<Long> queue = new FastChunkedQueue<Long>(2, 3, WaitStrategy.blocking());
+		assertTrue(queue.offer(1L));
+		assertTrue(queue.offer(2L));
+		assertTrue(queue.offer(3L));
+		assertFalse(queue.offer(4L));
+		assertEquals(0, queue.remainingCapacity());
+		assertFalse(queue.offer(4L, 20, TimeUnit.MILLISECONDS));
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+					queue.take();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}.start();
+		queue.put(4L);
+		assertEquals(3, queue.size());
+	}
+
+	@Test
+	public void takeWaitsForOffer() throws InterruptedException {
+		final FastChunkedQueue<Long> queue = new FastChunkedQueue<Long>();
+		assertNull(queue.poll(20, TimeUnit.MILLISECONDS));
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+					queue.offer(7L);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}.start();
+		assertEquals(Long.valueOf(7L), queue.take());
+	}
+
+	@Test
+	public void mpmc() throws InterruptedException {
+		new FastQueueTest().run(new FastChunkedQueue<Long>(16), 8, 8);
+	}
+
+	@Test
+	public void mpmcSoftBound() throws InterruptedException {
+		new FastQueueTest().run(new FastChunkedQueue<Long>(4, 64, WaitStrategy.yielding()), 4, 4);
+	}
+}
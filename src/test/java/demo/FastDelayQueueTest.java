@@ -0,0 +1,148 @@
+package demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.gaea.concurrent.FastBlockingQueue;
+import com.gaea.concurrent.FastDelayQueue;
+import com.gaea.concurrent.FastDelayQueue.Timeout;
+
+/**
+ * FastDelayQueue 到期顺序、取消、多层时间轮级联与并发入队
+ *
+ * @author zhenyu.yin
+ *
+ */
+public class FastDelayQueueTest {
+
+	@Test
+	public void expiresInDeadlineOrder() throws Exception {
+		final FastDelayQueue<Integer> queue = new FastDelayQueue<Integer>(1, TimeUnit.MILLISECONDS);
+		final long start = System.nanoTime();
+		queue.offer(3, 90, TimeUnit.MILLISECONDS);
+		queue.offer(1, 30, TimeUnit.MILLISECONDS);
+		queue.offer(2, 60, TimeUnit.MILLISECONDS);
+		queue.offer(0, 0, TimeUnit.MILLISECONDS);
+		for (int i = 0; i < 4; i++) {
+			assertEquals(Integer.valueOf(i), queue.poll(5, TimeUnit.SECONDS));
+			// 不会早于截止时间到期
+			assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30 * i));
+		}
+		assertNull(queue.poll());
+		queue.close();
+	}
+
+	@Test
+	public void cancelledNeverExpire() throws Exception {
+		final FastDelayQueue<String> queue = new FastDelayQueue<String>(1, TimeUnit.MILLISECONDS);
+		final Timeout<String> cancelled = queue.offer("cancelled", 20, TimeUnit.MILLISECONDS);
+		final Timeout<String> kept = queue.offer("kept", 40, TimeUnit.MILLISECONDS);
+		assertTrue(cancelled.cancel());
+		assertFalse(cancelled.cancel());
+		assertTrue(cancelled.isCancelled());
+		assertEquals("kept", queue.poll(5, TimeUnit.SECONDS));
+		assertTrue(kept.isExpired());
+		assertFalse(kept.cancel());
+		assertNull(queue.poll(50, TimeUnit.MILLISECONDS));
+		queue.close();
+	}
+
+	@Test
+	public void hugeDelayNeverExpires() throws Exception {
+		final FastDelayQueue<String> queue = new FastDelayQueue<String>(1, TimeUnit.MILLISECONDS);
+		final Timeout<String> days = queue.offer("days", Long.MAX_VALUE, TimeUnit.DAYS);
+		final Timeout<String> nanos = queue.offer("nanos", Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		queue.offer("soon", 20, TimeUnit.MILLISECONDS);
+		assertEquals("soon", queue.poll(5, TimeUnit.SECONDS));
+		assertNull(queue.poll(50, TimeUnit.MILLISECONDS));
+		assertFalse(days.isExpired());
+		assertFalse(nanos.isExpired());
+		assertTrue(days.cancel());
+		queue.close();
+	}
+
+	@Test
+	public void cascadesThroughLevels() throws Exception {
+		// 4 个桶 x 3 层只覆盖 64 个 tick, 更长的延迟要经过级联和溢出重放
+		final FastDelayQueue<Integer> queue = new FastDelayQueue<Integer>(1, TimeUnit.MILLISECONDS, 4, 3,
+				new FastBlockingQueue<Integer>(1024), Executors.defaultThreadFactory());
+		final int[] delays = { 3, 5, 17, 40, 63, 64, 65, 150, 300 };
+		final long start = System.nanoTime();
+		for (int i = delays.length - 1; i >= 0; i--) {
+			queue.offer(i, delays[i], TimeUnit.MILLISECONDS);
+		}
+		for (int i = 0; i < delays.length; i++) {
+			assertEquals(Integer.valueOf(i), queue.poll(5, TimeUnit.SECONDS));
+			assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(delays[i]));
+		}
+		queue.close();
+	}
+
+	@Test
+	public void concurrentOffers() throws Exception {
+		final FastDelayQueue<Integer> queue = new FastDelayQueue<Integer>(1, TimeUnit.MILLISECONDS, 64, 2,
+				new FastBlockingQueue<Integer>(1 << 16), Executors.defaultThreadFactory());
+		final int threads = 4;
+		final int perThread = 10000;
+		final CountDownLatch start = new CountDownLatch(1);
+		final Thread[] producers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final int base = t * perThread;
+			producers[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int i = 0; i < perThread; i++) {
+						final Timeout<Integer> timeout = queue.offer(base + i, i % 100, TimeUnit.MILLISECONDS);
+						if (i % 10 == 9) {
+							timeout.cancel();
+						}
+					}
+				}
+			};
+			producers[t].start();
+		}
+		start.countDown();
+		for (Thread p : producers) {
+			p.join();
+		}
+		final boolean[] seen = new boolean[threads * perThread];
+		final int expected = threads * perThread / 10 * 9;
+		for (int n = 0; n < expected; n++) {
+			final Integer e = queue.poll(5, TimeUnit.SECONDS);
+			if (e == null) {
+				fail("only " + n + " of " + expected + " expired");
+			}
+			assertFalse(seen[e]);
+			seen[e] = true;
+		}
+		assertNull(queue.poll(150, TimeUnit.MILLISECONDS));
+		queue.close();
+	}
+
+	@Test
+	public void offerAfterCloseFails() {
+		final FastDelayQueue<String> queue = new FastDelayQueue<String>(10, TimeUnit.MILLISECONDS);
+		queue.close();
+		assertTrue(queue.isClosed());
+		try {
+			queue.offer("late", 1, TimeUnit.MILLISECONDS);
+			fail();
+		} catch (IllegalStateException e) {
+			// 已关闭
+		}
+	}
+}
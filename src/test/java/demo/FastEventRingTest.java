@@ -0,0 +1,206 @@
+package demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.gaea.concurrent.ElementHandler;
+import com.gaea.concurrent.EventFactory;
+import com.gaea.concurrent.FastEventRing;
+import com.gaea.concurrent.ShardLayout;
+import com.gaea.concurrent.WaitStrategy;
+
+/**
+ * FastEventRing 预分配事件的申请、发布、释放与批量操作
+ *
+ * @author zhenyu.yin
+ *
+ */
+public class FastEventRingTest {
+
+	static final class LongEvent {
+		long value;
+	}
+
+	static final EventFactory<LongEvent> FACTORY = new EventFactory<LongEvent>() {
+		@Override
+		public LongEvent newInstance() {
+			return new LongEvent();
+		}
+	};
+
+	@Test
+	public void eventsAreReused() throws InterruptedException {
+		final FastEventRing<LongEvent> ring = new FastEventRing<LongEvent>(4, FACTORY);
+		final Map<LongEvent, Boolean> seen = new IdentityHashMap<LongEvent, Boolean>();
+		for (long l = 0; l < 20; l++) {
+			final long seq = ring.claim();
+			assertEquals(l, seq);
+			ring.get(seq).value = l * 10;
+			ring.publish(seq);
+			final long taken = ring.take();
+			final LongEvent event = ring.get(taken);
+			assertEquals(l * 10, event.value);
+			seen.put(event, Boolean.TRUE);
+			ring.release(taken);
+		}
+		// 只有预分配的 4 个事件被反复使用
+		assertEquals(4, seen.size());
+	}
+
+	@Test
+	public void fullAndEmpty() throws InterruptedException {
+		final FastEventRing<LongEvent> ring = new FastEventRing<LongEvent>(4, FACTORY);
+		assertEquals(-1, ring.poll());
+		assertEquals(-1, ring.poll(20, TimeUnit.MILLISECONDS));
+		final long lo = ring.tryClaim(3);
+		assertEquals(0, lo);
+		assertEquals(-1, ring.tryClaim(2));
+		assertEquals(3, ring.tryClaim());
+		assertEquals(-1, ring.tryClaim());
+		// 已申请未发布的事件对消费者不可见
+		assertEquals(-1, ring.poll());
+		ring.publish(lo, lo + 2);
+		ring.publish(3);
+		assertEquals(4, ring.size());
+		final long seq = ring.poll();
+		assertEquals(0, seq);
+		assertEquals(-1, ring.tryClaim());
+		ring.release(seq);
+		assertEquals(4, ring.tryClaim());
+	}
+
+	@Test
+	public void producerParksWhileEventIsProcessed() throws InterruptedException {
+		final FastEventRing<LongEvent> ring = new FastEventRing<LongEvent>(4, FACTORY);
+		for (int i = 0; i < 4; i++) {
+			ring.publish(ring.claim());
+		}
+		final List<Long> taken = new ArrayList<Long>();
+		for (int i = 0; i < 4; i++) {
+			taken.add(ring.poll());
+		}
+		final AtomicLong claimed = new AtomicLong(-1);
+		final Thread producer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					claimed.set(ring.claim());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		producer.start();
+		// 事件已被取走但还在处理, 生产者应阻塞在 notFull 上而不是自旋
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (producer.getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		assertEquals(Thread.State.WAITING, producer.getState());
+		assertEquals(-1, claimed.get());
+		ring.release(taken.get(0));
+		producer.join(5000);
+		assertEquals(4, claimed.get());
+	}
+
+	@Test
+	public void drainReleasesEvents() {
+		final FastEventRing<LongEvent> ring = new FastEventRing<LongEvent>(8, FACTORY, WaitStrategy.yielding(),
+				ShardLayout.padded(1, 2));
+		final long lo = ring.tryClaim(8);
+		for (long seq = lo; seq < lo + 8; seq++) {
+			ring.get(seq).value = seq;
+		}
+		ring.publish(lo, lo + 7);
+		final List<Long> out = new ArrayList<Long>();
+		final ElementHandler<LongEvent> handler = new ElementHandler<LongEvent>() {
+			@Override
+			public void onElement(final LongEvent e) {
+				out.add(e.value);
+			}
+		};
+		assertEquals(5, ring.drain(handler, 5));
+		assertEquals(5, out.size());
+		assertEquals(8, ring.tryClaim(5));
+		assertEquals(3, ring.drain(handler, 5));
+		assertEquals(Long.valueOf(7L), out.get(7));
+		assertEquals(0, ring.drain(handler, 5));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void batchLargerThanRing() {
+		new FastEventRing<LongEvent>(4, FACTORY).tryClaim(5);
+	}
+
+	@Test
+	public void mpmc() throws InterruptedException {
+		final int producers = 4;
+		final int consumers = 4;
+		final long perProducer = 250000;
+		final FastEventRing<LongEvent> ring = new FastEventRing<LongEvent>(1024, FACTORY);
+		final AtomicLong sum = new AtomicLong();
+		final AtomicLong count = new AtomicLong();
+		final List<Thread> threads = new ArrayList<Thread>();
+		for (int p = 0; p < producers; p++) {
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (long l = 1; l <= perProducer; l += 2) {
+							// 一次申请两个序号
+							final long seq = ring.claim(2);
+							ring.get(seq).value = l;
+							ring.get(seq + 1).value = l + 1;
+							ring.publish(seq, seq + 1);
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+		}
+		for (int c = 0; c < consumers; c++) {
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						long local = 0;
+						for (;;) {
+							final long seq = ring.poll(200, TimeUnit.MILLISECONDS);
+							if (seq < 0) {
+								break;
+							}
+							final LongEvent event = ring.get(seq);
+							assertNotNull(event);
+							local += event.value;
+							ring.release(seq);
+							count.incrementAndGet();
+						}
+						sum.addAndGet(local);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+		}
+		for (Thread t : threads) {
+			t.start();
+		}
+		for (Thread t : threads) {
+			t.join(60000);
+		}
+		assertEquals(producers * perProducer, count.get());
+		assertEquals(producers * (perProducer * (perProducer + 1) / 2), sum.get());
+		assertSame(ring.get(0), ring.get(1024));
+	}
+}
@@ -0,0 +1,211 @@
+package demo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.gaea.concurrent.ByteMessageHandler;
+import com.gaea.concurrent.FastJournalQueue;
+import com.gaea.concurrent.FlushPolicy;
+
+/**
+ * FastJournalQueue 的写入、重启恢复与回绕
+ *
+ * @author zhenyu.yin
+ *
+ */
+public class FastJournalQueueTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void reopenAfterClose() throws IOException {
+		final File dir = folder.newFolder();
+		FastJournalQueue queue = new FastJournalQueue(dir, 4096, 1024, FlushPolicy.perWrite());
+		assertTrue(queue.offer(new byte[] { 1, 2, 3 }));
+		assertTrue(queue.offer(ByteBuffer.wrap(new byte[] { 4 })));
+		assertTrue(queue.offer(new byte[] { 5 }));
+		assertArrayEquals(new byte[] { 1, 2, 3 }, queue.poll());
+		queue.close();
+
+		queue = new FastJournalQueue(dir, 4096, 1024, FlushPolicy.perWrite());
+		assertArrayEquals(new byte[] { 4 }, queue.poll());
+		assertArrayEquals(new byte[] { 5 }, queue.poll());
+		assertNull(queue.poll());
+		queue.close();
+	}
+
+	@Test
+	public void recoverUnflushedTail() throws IOException {
+		final File dir = folder.newFolder();
+		final FastJournalQueue crashed = new FastJournalQueue(dir, 4096, 256, FlushPolicy.manual());
+		for (int i = 0; i < 20; i++) {
+			assertTrue(crashed.offer(new byte[] { (byte) i, 0, 0, 0, 0, 0, 0, 0, 0, 0 }));
+		}
+		crashed.flush();
+		for (int i = 20; i < 40; i++) {
+			assertTrue(crashed.offer(new byte[] { (byte) i, 0, 0, 0, 0, 0, 0, 0, 0, 0 }));
+		}
+		// 不 close, 模拟进程退出: 头部只记录到第 20 条, 其余靠扫描恢复
+		final FastJournalQueue queue = new FastJournalQueue(dir, 4096, 256, FlushPolicy.manual());
+		for (int i = 0; i < 40; i++) {
+			assertEquals(i, queue.poll()[0]);
+		}
+		assertNull(queue.poll());
+		queue.close();
+	}
+
+	@Test
+	public void reuseOnlyDurablyConsumedSpace() throws IOException {
+		final File dir = folder.newFolder();
+		final FastJournalQueue crashed = new FastJournalQueue(dir, 1024, 64, FlushPolicy.manual());
+		for (int i = 0; i < 10; i++) {
+			assertTrue(crashed.offer(message(i, 40)));
+		}
+		crashed.flush();
+		final List<byte[]> read = new ArrayList<byte[]>();
+		final ByteMessageHandler handler = new ByteMessageHandler() {
+			@Override
+			public void onMessage(ByteBuffer buffer, int offset, int length) {
+				read.add(copy(buffer, offset, length));
+			}
+		};
+		assertEquals(10, crashed.read(handler, 100));
+		// 回绕到已读但消费位置尚未落盘的空间, 写入前必须先把消费位置刷盘
+		for (int i = 10; i < 20; i++) {
+			assertTrue(crashed.offer(message(i, 40)));
+		}
+		// 不 flush 直接重新打开, 模拟进程退出
+		final FastJournalQueue queue = new FastJournalQueue(dir, 1024, 64, FlushPolicy.manual());
+		for (int i = 10; i < 20; i++) {
+			assertArrayEquals(message(i, 40), queue.poll());
+		}
+		assertNull(queue.poll());
+		queue.close();
+	}
+
+	@Test
+	public void recoveryStopsAtTornRecord() throws IOException {
+		final File dir = folder.newFolder();
+		final FastJournalQueue crashed = new FastJournalQueue(dir, 4096, 256, FlushPolicy.manual());
+		for (int i = 0; i < 3; i++) {
+			assertTrue(crashed.offer(message(i, 10)));
+		}
+		// 第二条记录(位置 32, 16 字节头)的负载只写了一半
+		final RandomAccessFile segment = new RandomAccessFile(new File(dir, "segment-0.dat"), "rw");
+		segment.seek(32 + FastJournalQueue.HEADER_LENGTH + 5);
+		segment.write(0x7f);
+		segment.close();
+		final FastJournalQueue queue = new FastJournalQueue(dir, 4096, 256, FlushPolicy.manual());
+		assertArrayEquals(message(0, 10), queue.poll());
+		assertNull(queue.poll());
+		queue.close();
+	}
+
+	static byte[] message(final int id, final int length) {
+		final byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = (byte) (id + i);
+		}
+		return bytes;
+	}
+
+	@Test
+	public void fullAndWrap() throws IOException {
+		final FastJournalQueue queue = new FastJournalQueue(folder.newFolder(), 256, 64, FlushPolicy.perBatch(4));
+		assertEquals(48, queue.maxMessageLength());
+		int written = 0;
+		while (queue.offer(new byte[16])) {
+			written++;
+		}
+		// 每段 64 字节放 2 条 32 字节的记录
+		assertEquals(8, written);
+		assertFalse(queue.offer(new byte[0]));
+
+		final List<Integer> lengths = new ArrayList<Integer>();
+		final ByteMessageHandler handler = new ByteMessageHandler() {
+			@Override
+			public void onMessage(ByteBuffer buffer, int offset, int length) {
+				lengths.add(length);
+			}
+		};
+		assertEquals(3, queue.read(handler, 3));
+		// 段内只剩 32 字节, 40 字节的消息补齐到下一段
+		assertTrue(queue.offer(new byte[40]));
+		assertEquals(6, queue.read(handler, 10));
+		assertEquals(Integer.valueOf(40), lengths.get(8));
+		assertTrue(queue.isEmpty());
+		queue.close();
+	}
+
+	@Test
+	public void multiProducer() throws Exception {
+		final File dir = folder.newFolder();
+		final FastJournalQueue queue = new FastJournalQueue(dir, 1 << 16, 1 << 12, FlushPolicy.manual());
+		final int threadNum = 4;
+		final int writeNum = 50000;
+		final List<Thread> ts = new ArrayList<Thread>();
+		for (int i = 0; i < threadNum; i++) {
+			final int id = i;
+			ts.add(new Thread() {
+				@Override
+				public void run() {
+					final ByteBuffer bytes = ByteBuffer.allocate(8);
+					for (long l = 1; l <= writeNum; l++) {
+						bytes.putLong(0, id * (long) writeNum + l);
+						while (!queue.offer(bytes)) {
+							Thread.yield();
+						}
+					}
+				}
+			});
+		}
+		for (Thread t : ts) {
+			t.start();
+		}
+		final long total = (long) threadNum * writeNum;
+		final AtomicLong sum = new AtomicLong();
+		final AtomicLong count = new AtomicLong();
+		final ByteMessageHandler handler = new ByteMessageHandler() {
+			@Override
+			public void onMessage(ByteBuffer buffer, int offset, int length) {
+				sum.addAndGet(ByteBuffer.wrap(copy(buffer, offset, length)).getLong());
+				count.incrementAndGet();
+			}
+		};
+		while (count.get() < total) {
+			if (queue.read(handler, 64) == 0) {
+				Thread.yield();
+			}
+		}
+		for (Thread t : ts) {
+			t.join();
+		}
+		assertEquals(total * (total + 1) / 2, sum.get());
+		assertTrue(queue.isEmpty());
+		queue.close();
+	}
+
+	static byte[] copy(final ByteBuffer buffer, final int offset, final int length) {
+		final byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = buffer.get(offset + i);
+		}
+		return bytes;
+	}
+}
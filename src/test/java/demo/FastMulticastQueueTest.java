@@ -0,0 +1,195 @@
+package demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.gaea.concurrent.ElementHandler;
+import com.gaea.concurrent.FastMulticastQueue;
+import com.gaea.concurrent.ShardLayout;
+import com.gaea.concurrent.WaitStrategy;
+
+/**
+ * FastMulticastQueue 广播、最慢读者限流、动态加入退出与依赖顺序
+ *
+ * @author zhenyu.yin
+ *
+ */
+public class FastMulticastQueueTest {
+
+	@Test
+	public void everyReaderSeesEveryElement() {
+		final FastMulticastQueue<Long> queue = new FastMulticastQueue<Long>(8);
+		final FastMulticastQueue.Reader<Long> a = queue.subscribe();
+		final FastMulticastQueue.Reader<Long> b = queue.subscribe();
+		for (long l = 0; l < 5; l++) {
+			assertTrue(queue.offer(l));
+		}
+		for (long l = 0; l < 5; l++) {
+			assertEquals(Long.valueOf(l), a.poll());
+		}
+		assertNull(a.poll());
+		assertEquals(5, b.lag());
+		final List<Long> out = new ArrayList<Long>();
+		assertEquals(5, b.drain(new ElementHandler<Long>() {
+			@Override
+			public void onElement(final Long t) {
+				out.add(t);
+			}
+		}, 10));
+		assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L), out);
+		assertEquals(0, b.lag());
+	}
+
+	@Test
+	public void slowestReaderGatesProducers() throws InterruptedException {
+		final FastMulticastQueue<Long> queue = new FastMulticastQueue<Long>(4);
+		// 没有读者时元素直接丢弃
+		for (long l = 0; l < 10; l++) {
+			assertTrue(queue.offer(l));
+		}
+		final FastMulticastQueue.Reader<Long> fast = queue.subscribe();
+		final FastMulticastQueue.Reader<Long> slow = queue.subscribe();
+		for (long l = 0; l < 4; l++) {
+			assertTrue(queue.offer(l));
+			assertEquals(Long.valueOf(l), fast.poll());
+		}
+		assertFalse(queue.offer(4L));
+		assertFalse(queue.offer(4L, 20, TimeUnit.MILLISECONDS));
+		assertEquals(Long.valueOf(0L), slow.poll());
+		assertTrue(queue.offer(4L));
+		assertFalse(queue.offer(5L));
+
+		slow.close();
+		assertEquals(1, queue.readers());
+		assertTrue(queue.offer(5L));
+		assertEquals(Long.valueOf(4L), fast.poll());
+		assertEquals(Long.valueOf(5L), fast.poll());
+
+		// 新读者只看到加入之后的元素
+		final FastMulticastQueue.Reader<Long> late = queue.subscribe();
+		assertNull(late.poll());
+		assertTrue(queue.offer(6L));
+		assertEquals(Long.valueOf(6L), late.poll());
+		assertEquals(Long.valueOf(6L), fast.poll());
+	}
+
+	@Test
+	public void dependentReaderStaysBehind() {
+		final FastMulticastQueue<Long> queue = new FastMulticastQueue<Long>(8);
+		final FastMulticastQueue.Reader<Long> journaller = queue.subscribe();
+		final FastMulticastQueue.Reader<Long> replicator = queue.subscribe(journaller);
+		queue.offer(1L);
+		queue.offer(2L);
+		assertNull(replicator.poll());
+		assertEquals(Long.valueOf(1L), journaller.poll());
+		assertEquals(Long.valueOf(1L), replicator.poll());
+		assertNull(replicator.poll());
+		// 前置读者退出后不再阻挡
+		journaller.close();
+		assertEquals(Long.valueOf(2L), replicator.poll());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void closedReader() {
+		final FastMulticastQueue<Long> queue = new FastMulticastQueue<Long>(8);
+		final FastMulticastQueue.Reader<Long> reader = queue.subscribe();
+		reader.close();
+		reader.poll();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void lazyLayoutRejected() {
+		new FastMulticastQueue<Long>(8, WaitStrategy.blocking(), ShardLayout.lazy(2));
+	}
+
+	@Test
+	public void pipeline() throws InterruptedException {
+		final int producers = 3;
+		final long perProducer = 200000;
+		final FastMulticastQueue<Long> queue = new FastMulticastQueue<Long>(1024, WaitStrategy.blocking());
+		final FastMulticastQueue.Reader<Long> journaller = queue.subscribe();
+		final FastMulticastQueue.Reader<Long> business = queue.subscribe();
+		final FastMulticastQueue.Reader<Long> replicator = queue.subscribe(journaller);
+		final AtomicLong journalled = new AtomicLong();
+		final AtomicLong ahead = new AtomicLong();
+		final long[] sums = new long[3];
+		final List<Thread> threads = new ArrayList<Thread>();
+		final long total = producers * perProducer;
+		// 日志读者用 drain: 游标在处理完整批元素之后才前进
+		threads.add(new Thread() {
+			@Override
+			public void run() {
+				final long[] sum = new long[1];
+				while (journalled.get() < total) {
+					final int n = journaller.drain(new ElementHandler<Long>() {
+						@Override
+						public void onElement(final Long t) {
+							sum[0] += t;
+							journalled.lazySet(journalled.get() + 1);
+						}
+					}, 64);
+					if (n == 0) {
+						Thread.yield();
+					}
+				}
+				sums[0] = sum[0];
+			}
+		});
+		for (int r = 1; r < 3; r++) {
+			final int id = r;
+			final FastMulticastQueue.Reader<Long> reader = r == 1 ? business : replicator;
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						long sum = 0;
+						for (long n = 1; n <= total; n++) {
+							sum += reader.take();
+							if (id == 2 && journalled.get() < n) {
+								ahead.incrementAndGet();
+							}
+						}
+						sums[id] = sum;
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+		}
+		for (int p = 0; p < producers; p++) {
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (long l = 1; l <= perProducer; l++) {
+							queue.put(l);
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+		}
+		for (Thread t : threads) {
+			t.start();
+		}
+		for (Thread t : threads) {
+			t.join(60000);
+		}
+		final long expected = producers * (perProducer * (perProducer + 1) / 2);
+		for (int r = 0; r < 3; r++) {
+			assertEquals(expected, sums[r]);
+		}
+		assertEquals(0, ahead.get());
+	}
+}
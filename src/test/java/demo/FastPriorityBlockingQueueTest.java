@@ -0,0 +1,123 @@
+package demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.gaea.concurrent.FastPriorityBlockingQueue;
+import com.gaea.concurrent.WaitStrategy;
+
+/**
+ * FastPriorityBlockingQueue 优先级、加权公平与阻塞
+ *
+ * @author zhenyu.yin
+ *
+ */
+public class FastPriorityBlockingQueueTest {
+
+	@Test
+	public void highestLevelFirst() {
+		final FastPriorityBlockingQueue<Long> queue = new FastPriorityBlockingQueue<Long>(3, 4);
+		assertNull(queue.poll());
+		assertTrue(queue.offer(10L));
+		assertTrue(queue.offer(2, 11L));
+		assertTrue(queue.offer(1, 5L));
+		assertTrue(queue.offer(0, 1L));
+		assertTrue(queue.offer(0, 2L));
+		assertEquals(2, queue.size(2));
+		assertEquals(5, queue.size());
+		assertEquals(Long.valueOf(1L), queue.peek());
+		assertEquals(Long.valueOf(1L), queue.poll());
+		assertEquals(Long.valueOf(2L), queue.poll());
+		assertEquals(Long.valueOf(5L), queue.poll());
+		assertEquals(Long.valueOf(10L), queue.poll());
+		assertEquals(Long.valueOf(11L), queue.poll());
+		assertNull(queue.poll());
+	}
+
+	@Test
+	public void weightedFairness() {
+		final FastPriorityBlockingQueue<Long> queue = new FastPriorityBlockingQueue<Long>(2, 16, new int[] { 3, 1 },
+				WaitStrategy.blocking());
+		for (long l = 0; l < 8; l++) {
+			queue.offer(0, l);
+			queue.offer(1, 100 + l);
+		}
+		final List<Long> out = new ArrayList<Long>();
+		for (int i = 0; i < 8; i++) {
+			out.add(queue.poll());
+		}
+		// 每服务 3 个高优先级元素, 让出 1 个给低优先级
+		assertEquals(Arrays.asList(0L, 1L, 2L, 100L, 3L, 4L, 5L, 101L), out);
+	}
+
+	@Test
+	public void drainInPriorityOrder() {
+		final FastPriorityBlockingQueue<Long> queue = new FastPriorityBlockingQueue<Long>(2, 4);
+		queue.offer(1, 3L);
+		queue.offer(0, 1L);
+		queue.offer(1, 4L);
+		queue.offer(0, 2L);
+		assertTrue(queue.remove(4L));
+		final List<Long> out = new ArrayList<Long>();
+		assertEquals(3, queue.drainTo(out));
+		assertEquals(Arrays.asList(1L, 2L, 3L), out);
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void takeBlocksAcrossLevels() throws InterruptedException {
+		final FastPriorityBlockingQueue<Long> queue = new FastPriorityBlockingQueue<Long>(4, 4);
+		assertNull(queue.poll(20, TimeUnit.MILLISECONDS));
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+					queue.put(2, 7L);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}.start();
+		assertEquals(Long.valueOf(7L), queue.take());
+	}
+
+	@Test
+	public void putBlocksOnFullLevel() throws InterruptedException {
+		final FastPriorityBlockingQueue<Long> queue = new FastPriorityBlockingQueue<Long>(2, 2);
+		queue.put(0, 1L);
+		queue.put(0, 2L);
+		assertFalse(queue.offer(0, 3L, 20, TimeUnit.MILLISECONDS));
+		// 低优先级仍有空间
+		assertTrue(queue.offer(1, 9L));
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+					queue.take();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}.start();
+		queue.put(0, 3L);
+		assertEquals(Long.valueOf(2L), queue.take());
+		assertEquals(Long.valueOf(3L), queue.take());
+		assertEquals(Long.valueOf(9L), queue.take());
+	}
+
+	@Test
+	public void mpmc() throws InterruptedException {
+		new FastQueueTest().run(new FastPriorityBlockingQueue<Long>(3, 256), 4, 4);
+	}
+}
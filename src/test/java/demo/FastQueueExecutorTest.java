@@ -0,0 +1,299 @@
+package demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.gaea.concurrent.FastQueueExecutor;
+import com.gaea.concurrent.FastQueueExecutor.RejectPolicy;
+import com.gaea.concurrent.WaitStrategy;
+
+/**
+ * FastQueueExecutor 批量执行、拒绝策略、按队列深度扩容与关闭
+ *
+ * @author zhenyu.yin
+ *
+ */
+public class FastQueueExecutorTest {
+
+	@Test
+	public void runsEveryTask() throws Exception {
+		final FastQueueExecutor executor = new FastQueueExecutor(4, 4, 1024, RejectPolicy.BLOCK);
+		final AtomicLong count = new AtomicLong();
+		final int tasks = 200000;
+		for (int i = 0; i < tasks; i++) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					count.incrementAndGet();
+				}
+			});
+		}
+		final Future<String> future = executor.submit(new Callable<String>() {
+			@Override
+			public String call() {
+				return "done";
+			}
+		});
+		assertEquals("done", future.get(10, TimeUnit.SECONDS));
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(tasks, count.get());
+		assertEquals(0, executor.getPoolSize());
+	}
+
+	@Test
+	public void rejectPolicies() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch started = new CountDownLatch(1);
+		final Runnable blocker = new Runnable() {
+			@Override
+			public void run() {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		final Runnable noop = new Runnable() {
+			@Override
+			public void run() {
+			}
+		};
+		final FastQueueExecutor abort = new FastQueueExecutor(1, 2);
+		abort.execute(blocker);
+		started.await();
+		abort.execute(noop);
+		abort.execute(noop);
+		try {
+			abort.execute(noop);
+			fail();
+		} catch (RejectedExecutionException e) {
+			// 队列已满
+		}
+
+		final FastQueueExecutor callerRuns = new FastQueueExecutor(1, 1, 2, RejectPolicy.CALLER_RUNS);
+		final CountDownLatch started2 = new CountDownLatch(1);
+		callerRuns.execute(new Runnable() {
+			@Override
+			public void run() {
+				started2.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		started2.await();
+		callerRuns.execute(noop);
+		callerRuns.execute(noop);
+		final AtomicReference<Thread> ranIn = new AtomicReference<Thread>();
+		callerRuns.execute(new Runnable() {
+			@Override
+			public void run() {
+				ranIn.set(Thread.currentThread());
+			}
+		});
+		assertSame(Thread.currentThread(), ranIn.get());
+
+		release.countDown();
+		abort.shutdown();
+		callerRuns.shutdown();
+		assertTrue(abort.awaitTermination(5, TimeUnit.SECONDS));
+		assertTrue(callerRuns.awaitTermination(5, TimeUnit.SECONDS));
+		try {
+			abort.execute(noop);
+			fail();
+		} catch (RejectedExecutionException e) {
+			// 已关闭
+		}
+	}
+
+	@Test
+	public void growsWithQueueDepthAndRetires() throws Exception {
+		final FastQueueExecutor executor = new FastQueueExecutor(1, 4, 64, 50, TimeUnit.MILLISECONDS, 1,
+				WaitStrategy.blocking(), RejectPolicy.ABORT, new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable r) {
+						final Thread t = new Thread(r, "executor-test");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		final CountDownLatch release = new CountDownLatch(1);
+		for (int i = 0; i < 16; i++) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+		}
+		assertEquals(4, executor.getPoolSize());
+		release.countDown();
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (executor.getPoolSize() > 1 && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		// 超过核心数的 worker 空闲后退出
+		assertEquals(1, executor.getPoolSize());
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void shutdownNowReturnsPending() throws Exception {
+		final FastQueueExecutor executor = new FastQueueExecutor(1, 16);
+		final CountDownLatch started = new CountDownLatch(1);
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				started.countDown();
+				try {
+					Thread.sleep(10000);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		started.await();
+		for (int i = 0; i < 5; i++) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+				}
+			});
+		}
+		final List<Runnable> pending = executor.shutdownNow();
+		assertEquals(5, pending.size());
+		assertTrue(executor.isShutdown());
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+		assertTrue(executor.isTerminated());
+	}
+
+	@Test
+	public void blockedSubmitterRejectedAfterShutdown() throws Exception {
+		final FastQueueExecutor executor = new FastQueueExecutor(1, 1, 2, RejectPolicy.BLOCK);
+		final CountDownLatch started = new CountDownLatch(1);
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				started.countDown();
+				try {
+					Thread.sleep(10000);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		started.await();
+		final Runnable noop = new Runnable() {
+			@Override
+			public void run() {
+			}
+		};
+		executor.execute(noop);
+		executor.execute(noop);
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		final Thread submitter = new Thread() {
+			@Override
+			public void run() {
+				try {
+					executor.execute(noop);
+				} catch (Throwable e) {
+					error.set(e);
+				}
+			}
+		};
+		submitter.start();
+		// 等提交者阻塞在 put 上
+		while (submitter.getState() != Thread.State.WAITING && submitter.getState() != Thread.State.TIMED_WAITING) {
+			Thread.sleep(1);
+		}
+		assertEquals(2, executor.shutdownNow().size());
+		submitter.join(5000);
+		assertFalse(submitter.isAlive());
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+		// 关闭后放进队列的任务不会被悄悄丢掉
+		assertTrue(error.get() instanceof RejectedExecutionException);
+	}
+
+	@Test
+	public void shutdownNowReturnsDrainedBatch() throws Exception {
+		final FastQueueExecutor executor = new FastQueueExecutor(1, 64);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch started = new CountDownLatch(1);
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		final Future<?> blocker = executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				started.countDown();
+				try {
+					Thread.sleep(10000);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		final List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int i = 0; i < 20; i++) {
+			futures.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+				}
+			}));
+		}
+		// 第二个阻塞任务与后面 20 个任务作为同一批次被取出
+		release.countDown();
+		started.await();
+		final List<Runnable> pending = executor.shutdownNow();
+		assertEquals(20, pending.size());
+		blocker.get(5, TimeUnit.SECONDS);
+		for (Runnable task : pending) {
+			task.run();
+		}
+		for (Future<?> future : futures) {
+			future.get(1, TimeUnit.SECONDS);
+		}
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void idleExecutorTerminates() throws Exception {
+		final FastQueueExecutor executor = new FastQueueExecutor(2, 16);
+		assertFalse(executor.isTerminated());
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+	}
+}
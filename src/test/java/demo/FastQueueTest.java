@@ -0,0 +1,294 @@
+package demo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.gaea.concurrent.ElementHandler;
+import com.gaea.concurrent.FastBlockingQueue;
+import com.gaea.concurrent.FastQueue;
+import com.gaea.concurrent.ShardLayout;
+import com.gaea.concurrent.WaitStrategy;
+
+/**
+ * FastQueue 及其单生产者/单消费者变体的非阻塞 offer/poll
+ *
+ * @author zhenyu.yin
+ *
+ */
+public class FastQueueTest {
+
+	// 每个生产线程写入数量
+	public int writeNum = 200000;
+
+	@Test
+	public void mpmc() throws InterruptedException {
+		run(new FastQueue<Long>(1024), 4, 4);
+	}
+
+	@Test
+	public void spsc() throws InterruptedException {
+		run(FastQueue.<Long> spsc(1024), 1, 1);
+	}
+
+	@Test
+	public void mpsc() throws InterruptedException {
+		run(FastQueue.<Long> mpsc(1024), 4, 1);
+	}
+
+	@Test
+	public void spmc() throws InterruptedException {
+		run(FastQueue.<Long> spmc(1024), 1, 4);
+	}
+
+	@Test
+	public void shardLayouts() throws InterruptedException {
+		for (ShardLayout layout : new ShardLayout[] { ShardLayout.atomic(4), ShardLayout.padded(15, 1),
+				ShardLayout.padded(4, 16), ShardLayout.lazy(4), ShardLayout.lazy(4, 0, TimeUnit.NANOSECONDS) }) {
+			run(new FastQueue<Long>(1024, WaitStrategy.yielding(), layout), 4, 4);
+			final FastQueue<Long> queue = new FastBlockingQueue<Long>(64, WaitStrategy.blocking(), layout);
+			assertEquals(3, queue.offerBatch(new Long[] { 1L, 2L, 3L }, 0, 3));
+			assertTrue(queue.remove(2L));
+			assertEquals(Arrays.asList(1L, 3L), Arrays.asList(queue.toArray(new Long[0])));
+			assertEquals(Long.valueOf(1L), queue.poll());
+			assertEquals(Long.valueOf(3L), queue.poll());
+			assertNull(queue.poll());
+		}
+	}
+
+	@Test
+	public void lazyShardsReleasedAndReallocated() throws InterruptedException {
+		// 1<<24 的容量只为在途元素分配分片, 分片离开后立即回收
+		final FastBlockingQueue<Long> queue = new FastBlockingQueue<Long>(1 << 24, WaitStrategy.blocking(),
+				ShardLayout.lazy(4, 0, TimeUnit.NANOSECONDS));
+		for (long l = 1; l <= 100000; l++) {
+			queue.put(l);
+			if (l % 3 == 0) {
+				assertEquals(Long.valueOf(l - 2), queue.take());
+				assertEquals(Long.valueOf(l - 1), queue.take());
+				assertEquals(Long.valueOf(l), queue.take());
+			}
+		}
+		assertEquals(Long.valueOf(100000L), queue.take());
+		assertTrue(queue.isEmpty());
+
+		final FastQueue<Long> small = new FastQueue<Long>(64, WaitStrategy.yielding(),
+				ShardLayout.lazy(2, 0, TimeUnit.NANOSECONDS));
+		run(small, 4, 4);
+		for (int lap = 0; lap < 3; lap++) {
+			for (long l = 0; l < 64; l++) {
+				assertTrue(small.offer(l));
+			}
+			assertFalse(small.offer(64L));
+			for (long l = 0; l < 64; l++) {
+				assertEquals(Long.valueOf(l), small.poll());
+			}
+		}
+	}
+
+	@Test
+	public void lazyShardRefilledBeforeIdleIsKept() throws InterruptedException {
+		// 消费者离开分片后生产者在空闲期内又写满它, 过期回收不能丢掉新元素
+		final FastQueue<Integer> queue = new FastQueue<Integer>(8, WaitStrategy.busySpin(),
+				ShardLayout.lazy(2, 1, TimeUnit.MILLISECONDS));
+		for (int round = 0; round < 3; round++) {
+			final int base = round * 8;
+			for (int i = 0; i < 8; i++) {
+				assertTrue(queue.offer(base + i));
+			}
+			for (int i = 0; i < 4; i++) {
+				assertEquals(Integer.valueOf(base + i), queue.poll());
+			}
+			for (int i = 8; i < 12; i++) {
+				assertTrue(queue.offer(base + i));
+			}
+			Thread.sleep(5);
+			for (int i = 4; i < 12; i++) {
+				assertEquals(Integer.valueOf(base + i), queue.poll());
+			}
+			assertNull(queue.poll());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void strideMustBePowerOfTwo() {
+		ShardLayout.padded(10, 3);
+	}
+
+	@Test
+	public void fullAndEmpty() {
+		final Queue<Long> queue = FastQueue.spsc(2);
+		assertNull(queue.poll());
+		assertTrue(queue.offer(1L));
+		assertTrue(queue.offer(2L));
+		assertFalse(queue.offer(3L));
+		assertEquals(Long.valueOf(1L), queue.peek());
+		assertEquals(Long.valueOf(1L), queue.poll());
+		assertTrue(queue.offer(3L));
+		assertEquals(Long.valueOf(2L), queue.poll());
+		assertEquals(Long.valueOf(3L), queue.poll());
+		assertNull(queue.poll());
+	}
+
+	@Test
+	public void offerBatchPartially() {
+		final FastQueue<Long> queue = new FastQueue<Long>(4);
+		final Long[] items = { 1L, 2L, 3L, 4L, 5L, 6L };
+		assertEquals(1, queue.offerBatch(items, 0, 1));
+		assertEquals(3, queue.offerBatch(items, 1, 5));
+		assertEquals(0, queue.offerBatch(items, 4, 2));
+		for (long l = 1; l <= 4; l++) {
+			assertEquals(Long.valueOf(l), queue.poll());
+		}
+		assertNull(queue.poll());
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void offerBatchRejectsNull() {
+		new FastQueue<Long>(4).offerBatch(new Long[] { 1L, null }, 0, 2);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void offerBatchVariants() {
+		final Long[] items = { 1L, 2L, 3L };
+		for (FastQueue<Long> queue : new FastQueue[] { FastQueue.spsc(2), FastQueue.mpsc(2), FastQueue.spmc(2) }) {
+			assertEquals(2, queue.offerBatch(items, 0, 3));
+			assertEquals(Long.valueOf(1L), queue.poll());
+			assertEquals(1, queue.offerBatch(items, 2, 1));
+			assertEquals(Long.valueOf(2L), queue.poll());
+			assertEquals(Long.valueOf(3L), queue.poll());
+			assertNull(queue.poll());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void drain() {
+		final Long[] items = { 1L, 2L, 3L, 4L, 5L };
+		for (FastQueue<Long> queue : new FastQueue[] { new FastQueue<Long>(8), FastQueue.spsc(8), FastQueue.mpsc(8),
+				FastQueue.spmc(8) }) {
+			assertEquals(5, queue.offerBatch(items, 0, 5));
+			final List<Long> out = new ArrayList<Long>();
+			assertEquals(3, queue.drain(new ElementHandler<Long>() {
+				@Override
+				public void onElement(Long t) {
+					out.add(t);
+				}
+			}, 3));
+			assertEquals(Arrays.asList(1L, 2L, 3L), out);
+
+			final Long[] dst = new Long[4];
+			assertEquals(2, queue.drain(dst, 1, 3));
+			assertArrayEquals(new Long[] { null, 4L, 5L, null }, dst);
+			assertEquals(0, queue.drain(dst, 0, 4));
+			assertTrue(queue.isEmpty());
+		}
+	}
+
+	@Test
+	public void drainDiscardsAfterHandlerFailure() {
+		final FastQueue<Long> queue = new FastQueue<Long>(8);
+		assertEquals(4, queue.offerBatch(new Long[] { 1L, 2L, 3L, 4L }, 0, 4));
+		try {
+			queue.drain(new ElementHandler<Long>() {
+				@Override
+				public void onElement(Long t) {
+					if (t == 2L) {
+						throw new IllegalStateException();
+					}
+				}
+			}, 3);
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertEquals(Long.valueOf(4L), queue.poll());
+		assertTrue(queue.offer(5L));
+		assertEquals(Long.valueOf(5L), queue.poll());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void removeLeavesTombstone() {
+		for (FastQueue<Long> queue : new FastQueue[] { new FastQueue<Long>(4), FastQueue.spsc(4), FastQueue.mpsc(4),
+				FastQueue.spmc(4) }) {
+			assertEquals(4, queue.offerBatch(new Long[] { 1L, 2L, 3L, 4L }, 0, 4));
+			assertTrue(queue.remove(2L));
+			assertFalse(queue.remove(5L));
+			final Iterator<Long> it = queue.iterator();
+			assertEquals(Long.valueOf(1L), it.next());
+			assertEquals(Long.valueOf(3L), it.next());
+			it.remove();
+			assertEquals(Arrays.asList(1L, 4L), Arrays.asList(queue.toArray(new Long[0])));
+			assertFalse(queue.offer(5L));
+			assertEquals(Long.valueOf(1L), queue.poll());
+			// 墓碑被跳过, 节点照常释放
+			assertEquals(Long.valueOf(4L), queue.poll());
+			assertNull(queue.poll());
+			assertTrue(queue.offer(5L));
+			final Long[] dst = new Long[4];
+			assertEquals(1, queue.drain(dst, 0, 4));
+			assertEquals(Long.valueOf(5L), dst[0]);
+		}
+	}
+
+	public void run(final Queue<Long> queue, final int wThreadNum, final int rThreadNum) throws InterruptedException {
+		final long total = (long) wThreadNum * writeNum;
+		final AtomicLong sum = new AtomicLong();
+		final AtomicLong count = new AtomicLong();
+		final List<Thread> ts = new ArrayList<Thread>();
+		for (int i = 0; i < wThreadNum; i++) {
+			final int id = i;
+			ts.add(new Thread() {
+				@Override
+				public void run() {
+					for (long l = 1; l <= writeNum; l++) {
+						final Long e = id * (long) writeNum + l;
+						while (!queue.offer(e)) {
+							Thread.yield();
+						}
+					}
+				}
+			});
+		}
+		for (int i = 0; i < rThreadNum; i++) {
+			ts.add(new Thread() {
+				@Override
+				public void run() {
+					while (count.get() < total) {
+						final Long e = queue.poll();
+						if (e == null) {
+							Thread.yield();
+							continue;
+						}
+						sum.addAndGet(e);
+						count.incrementAndGet();
+					}
+				}
+			});
+		}
+		for (Thread t : ts) {
+			t.start();
+		}
+		for (Thread t : ts) {
+			t.join();
+		}
+		assertEquals(total, count.get());
+		assertEquals(total * (total + 1) / 2, sum.get());
+		assertTrue(queue.isEmpty());
+	}
+}
@@ -0,0 +1,175 @@
+package demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.gaea.concurrent.FastStripedQueue;
+
+/**
+ * FastStripedQueue 多通道的容量、偷取与阻塞
+ *
+ * @author zhenyu.yin
+ *
+ */
+public class FastStripedQueueTest {
+
+	@Test
+	public void spillAndSteal() {
+		final FastStripedQueue<Long> queue = new FastStripedQueue<Long>(8, 4);
+		assertEquals(4, queue.lanes());
+		assertNull(queue.poll());
+		// 本通道满后溢出到其它通道, 总容量不变
+		for (long l = 1; l <= 8; l++) {
+			assertTrue(queue.offer(l));
+		}
+		assertFalse(queue.offer(9L));
+		assertEquals(8, queue.size());
+		assertEquals(0, queue.remainingCapacity());
+
+		// 本通道内先进先出
+		assertEquals(Long.valueOf(1L), queue.poll());
+		assertEquals(Long.valueOf(2L), queue.poll());
+		final List<Long> out = new ArrayList<Long>();
+		while (!queue.isEmpty()) {
+			out.add(queue.poll());
+		}
+		Collections.sort(out);
+		assertEquals(6, out.size());
+		assertEquals(Long.valueOf(3L), out.get(0));
+		assertEquals(Long.valueOf(8L), out.get(5));
+	}
+
+	@Test
+	public void drainToAndIterator() {
+		final FastStripedQueue<Long> queue = new FastStripedQueue<Long>(16, 4);
+		for (long l = 1; l <= 10; l++) {
+			queue.add(l);
+		}
+		long sum = 0;
+		for (Iterator<Long> it = queue.iterator(); it.hasNext();) {
+			final Long l = it.next();
+			sum += l;
+			if (l == 5L) {
+				it.remove();
+			}
+		}
+		assertEquals(55, sum);
+		assertFalse(queue.contains(5L));
+
+		final List<Long> out = new ArrayList<Long>();
+		assertEquals(3, queue.drainTo(out, 3));
+		assertEquals(6, queue.drainTo(out));
+		assertEquals(9, out.size());
+		assertFalse(out.contains(5L));
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void putBlocksUntilTake() throws InterruptedException {
+		final FastStripedQueue<Long> queue = new FastStripedQueue<Long>(4, 2);
+		final Thread producer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					for (long l = 1; l <= 6; l++) {
+						queue.put(l);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		producer.start();
+		Thread.sleep(100);
+		assertTrue(producer.isAlive());
+		assertEquals(4, queue.size());
+		assertFalse(queue.offer(7L, 20, TimeUnit.MILLISECONDS));
+
+		queue.take();
+		queue.take();
+		producer.join(5000);
+		assertFalse(producer.isAlive());
+		assertEquals(4, queue.size());
+	}
+
+	@Test
+	public void takeWaitsForOffer() throws InterruptedException {
+		final FastStripedQueue<Long> queue = new FastStripedQueue<Long>(16, 4);
+		assertNull(queue.poll(20, TimeUnit.MILLISECONDS));
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+					queue.offer(7L);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}.start();
+		assertEquals(Long.valueOf(7L), queue.take());
+	}
+
+	@Test
+	public void mpmc() throws InterruptedException {
+		new FastQueueTest().run(new FastStripedQueue<Long>(1024, 4), 8, 8);
+	}
+
+	@Test
+	public void mpmcBlocking() throws InterruptedException {
+		final FastStripedQueue<Long> queue = new FastStripedQueue<Long>(8, 4);
+		final int threadNum = 4;
+		final int writeNum = 100000;
+		final List<Thread> ts = new ArrayList<Thread>();
+		final long[] sums = new long[threadNum];
+		for (int i = 0; i < threadNum; i++) {
+			final int id = i;
+			ts.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (long l = 1; l <= writeNum; l++) {
+							queue.put(l);
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+			ts.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int n = 0; n < writeNum; n++) {
+							sums[id] += queue.take();
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+		}
+		for (Thread t : ts) {
+			t.start();
+		}
+		for (Thread t : ts) {
+			t.join();
+		}
+		long sum = 0;
+		for (long s : sums) {
+			sum += s;
+		}
+		assertEquals((long) threadNum * writeNum * (writeNum + 1) / 2, sum);
+		assertTrue(queue.isEmpty());
+	}
+}
@@ -0,0 +1,49 @@
+package demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.gaea.concurrent.FastXaddQueue;
+
+/**
+ * FastXaddQueue 的 FAA 申请与烧节点
+ *
+ * @author zhenyu.yin
+ *
+ */
+public class FastXaddQueueTest {
+
+	@Test
+	public void fullAndEmpty() {
+		final FastXaddQueue<Long> queue = new FastXaddQueue<Long>(2);
+		assertNull(queue.poll());
+		assertNull(queue.peek());
+		assertTrue(queue.offer(1L));
+		assertTrue(queue.offer(2L));
+		assertFalse(queue.offer(3L));
+		assertEquals(Long.valueOf(1L), queue.peek());
+		assertEquals(Long.valueOf(1L), queue.poll());
+		assertTrue(queue.offer(3L));
+		assertEquals(2, queue.size());
+		assertTrue(queue.contains(3L));
+		assertEquals(Long.valueOf(2L), queue.poll());
+		assertEquals(Long.valueOf(3L), queue.poll());
+		assertNull(queue.poll());
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void mpmc() throws InterruptedException {
+		new FastQueueTest().run(new FastXaddQueue<Long>(1024), 8, 8);
+	}
+
+	@Test
+	public void mpmcSmallCapacity() throws InterruptedException {
+		// 容量很小, 生产者与消费者频繁落在未就绪的节点上
+		new FastQueueTest().run(new FastXaddQueue<Long>(4), 4, 4);
+	}
+}
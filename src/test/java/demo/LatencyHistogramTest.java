@@ -0,0 +1,109 @@
+package demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.gaea.concurrent.FastBlockingQueue;
+import com.gaea.concurrent.FastQueue;
+import com.gaea.concurrent.LatencyHistogram;
+import com.gaea.concurrent.QueueMetrics;
+import com.gaea.concurrent.ShardLayout;
+import com.gaea.concurrent.WaitStrategy;
+
+/**
+ * LatencyHistogram 百分位、区间快照与队列停留时间采样
+ *
+ * @author zhenyu.yin
+ *
+ */
+public class LatencyHistogramTest {
+
+	@Test
+	public void percentiles() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.snapshot().getP99());
+		for (long v = 1; v <= 1000; v++) {
+			histogram.record(v * 1000);
+		}
+		final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(1000, snapshot.getCount());
+		assertEquals(1000000, snapshot.getMax());
+		assertWithin(500000, snapshot.getP50());
+		assertWithin(990000, snapshot.getP99());
+		assertWithin(999000, snapshot.getP999());
+		assertEquals(1000000, snapshot.getValueAtPercentile(100));
+		// 小于 64 的值精确记录
+		histogram.record(-5);
+		histogram.record(7);
+		assertEquals(0, histogram.snapshot().getValueAtPercentile(0));
+	}
+
+	private static void assertWithin(final long expected, final long actual) {
+		assertTrue(expected + " vs " + actual, actual >= expected && actual <= expected * 1.04);
+	}
+
+	@Test
+	public void intervalSnapshots() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(100);
+		histogram.record(5000);
+		LatencyHistogram.Snapshot interval = histogram.intervalSnapshot();
+		assertEquals(2, interval.getCount());
+		assertEquals(5000, interval.getMax());
+
+		histogram.record(30);
+		interval = histogram.intervalSnapshot();
+		assertEquals(1, interval.getCount());
+		assertEquals(30, interval.getMax());
+		assertEquals(30, interval.getP99());
+
+		assertEquals(0, histogram.intervalSnapshot().getCount());
+		assertEquals(3, histogram.snapshot().getCount());
+		assertEquals(5000, histogram.snapshot().getMax());
+	}
+
+	@Test
+	public void sampledSojourn() throws InterruptedException {
+		final QueueMetrics metrics = new QueueMetrics("sojourn").sampleSojourn(4);
+		final FastQueue<Long> queue = new FastQueue<Long>(16, WaitStrategy.yielding(), ShardLayout.lazy(2),
+				metrics);
+		for (long l = 0; l < 8; l++) {
+			assertTrue(queue.offer(l));
+		}
+		Thread.sleep(5);
+		for (long l = 0; l < 8; l++) {
+			assertEquals(Long.valueOf(l), queue.poll());
+		}
+		final LatencyHistogram.Snapshot snapshot = metrics.getSojourn().snapshot();
+		// 每 4 个元素采样一个
+		assertEquals(2, snapshot.getCount());
+		assertTrue(snapshot.getP50() >= 5000000);
+		assertEquals(snapshot.getMax(), metrics.getSojournMax());
+	}
+
+	@Test
+	public void blockingQueueSojourn() throws InterruptedException {
+		final QueueMetrics metrics = new QueueMetrics("blocking-sojourn").sampleSojourn(1);
+		final FastBlockingQueue<Long> queue = new FastBlockingQueue<Long>(8, WaitStrategy.blocking(),
+				ShardLayout.atomic(), metrics);
+		for (long l = 0; l < 100; l++) {
+			queue.put(l);
+			assertEquals(Long.valueOf(l), queue.take());
+		}
+		assertTrue(queue.offer(1L));
+		assertTrue(queue.remove(1L));
+		assertNull(queue.poll());
+		// 被删除的元素不计入
+		assertEquals(100, metrics.getSojourn().snapshot().getCount());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void sampleAfterAttach() {
+		final QueueMetrics metrics = new QueueMetrics("late");
+		new FastQueue<Long>(4, WaitStrategy.yielding(), ShardLayout.atomic(), metrics);
+		metrics.sampleSojourn(1);
+	}
+}
@@ -0,0 +1,36 @@
+package demo;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.net.URL;
+
+import org.junit.Test;
+
+import com.gaea.concurrent.FastQueue;
+import com.gaea.concurrent.ShardLayout;
+import com.gaea.concurrent.WaitStrategy;
+
+/**
+ * 从多版本 jar 运行时, JDK 9+ 加载的是 META-INF/versions/9 下的 VarHandle 实现
+ *
+ * @author zhenyu.yin
+ *
+ */
+public class MultiReleaseJarTest {
+
+	@Test
+	public void loadsVersionedClassesFromJar() {
+		final URL url = FastQueue.class.getClassLoader().getResource("com/gaea/concurrent/FastAtomicLong.class");
+		// 直接从 target/classes 运行时没有版本目录
+		assumeTrue("jar".equals(url.getProtocol()));
+		assumeTrue(!System.getProperty("java.specification.version").startsWith("1."));
+		assertTrue(url.toString(), url.toString().contains("/META-INF/versions/9/"));
+
+		final FastQueue<Long> queue = new FastQueue<Long>(64, WaitStrategy.yielding(), ShardLayout.padded(2, 4));
+		for (long l = 0; l < 1000; l++) {
+			assertTrue(queue.offer(l));
+			assertTrue(queue.poll() == l);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.gaea.concurrent.FastIntQueue;
+import com.gaea.concurrent.FastLongQueue;
+import com.gaea.concurrent.WaitStrategy;
+
+/**
+ * FastLongQueue / FastIntQueue
+ *
+ * @author zhenyu.yin
+ *
+ */
+public class PrimitiveQueueTest {
+
+	// 生产/消费线程数量
+	public int threadNum = 4;
+
+	// 每个生产线程写入数量
+	public int writeNum = 200000;
+
+	@Test
+	public void longQueueFullAndEmpty() throws InterruptedException {
+		final FastLongQueue queue = new FastLongQueue(2, -1L, WaitStrategy.blocking());
+		assertEquals(-1L, queue.poll());
+		assertEquals(-1L, queue.peek());
+		assertTrue(queue.offer(1L));
+		assertTrue(queue.offer(2L));
+		assertFalse(queue.offer(3L));
+		assertFalse(queue.offer(3L, 20, TimeUnit.MILLISECONDS));
+		assertEquals(1L, queue.peek());
+		assertEquals(1L, queue.poll());
+		assertEquals(2L, queue.take());
+		assertEquals(-1L, queue.poll(20, TimeUnit.MILLISECONDS));
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void intQueueFullAndEmpty() {
+		final FastIntQueue queue = new FastIntQueue(2);
+		assertEquals(Integer.MIN_VALUE, queue.poll());
+		assertTrue(queue.offer(1));
+		assertTrue(queue.offer(2));
+		assertFalse(queue.offer(3));
+		assertEquals(1, queue.poll());
+		assertTrue(queue.offer(3));
+		assertEquals(2, queue.poll());
+		assertEquals(3, queue.poll());
+		assertEquals(Integer.MIN_VALUE, queue.poll());
+	}
+
+	@Test
+	public void longQueuePutTake() throws InterruptedException {
+		final FastLongQueue queue = new FastLongQueue(1024);
+		final AtomicLong sum = new AtomicLong();
+		final List<Thread> ts = new ArrayList<Thread>();
+		for (int i = 0; i < threadNum; i++) {
+			final int id = i;
+			ts.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (long l = 1; l <= writeNum; l++) {
+							queue.put(id * (long) writeNum + l);
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+			ts.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int l = 0; l < writeNum; l++) {
+							sum.addAndGet(queue.take());
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+		}
+		for (Thread t : ts) {
+			t.start();
+		}
+		for (Thread t : ts) {
+			t.join();
+		}
+		final long n = (long) threadNum * writeNum;
+		assertEquals(n * (n + 1) / 2, sum.get());
+		assertTrue(queue.isEmpty());
+	}
+}
@@ -0,0 +1,98 @@
+package demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import com.gaea.concurrent.FastBlockingQueue;
+import com.gaea.concurrent.FastQueue;
+import com.gaea.concurrent.QueueMetrics;
+import com.gaea.concurrent.ShardLayout;
+import com.gaea.concurrent.WaitStrategy;
+
+/**
+ * QueueMetrics 计数、快照与 JMX
+ *
+ * @author zhenyu.yin
+ *
+ */
+public class QueueMetricsTest {
+
+	@Test
+	public void countersAndSnapshot() {
+		final QueueMetrics metrics = new QueueMetrics("counters");
+		final FastQueue<Long> queue = new FastQueue<Long>(4, WaitStrategy.yielding(), ShardLayout.atomic(), metrics);
+		for (long l = 0; l < 4; l++) {
+			assertTrue(queue.offer(l));
+		}
+		assertFalse(queue.offer(4L));
+		assertEquals(Long.valueOf(0L), queue.poll());
+		assertEquals(3, queue.drain(new Long[4], 0, 4));
+		assertNull(queue.poll());
+
+		final QueueMetrics.Snapshot snapshot = metrics.snapshot();
+		assertEquals(4, snapshot.getOffers());
+		assertEquals(4, snapshot.getPolls());
+		assertEquals(1, snapshot.getOfferRejects());
+		assertEquals(1, snapshot.getPollMisses());
+		assertEquals(4, snapshot.getHighWater());
+		assertEquals(0, snapshot.getSize());
+		assertEquals(4, metrics.getCapacity());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void oneQueuePerMetrics() {
+		final QueueMetrics metrics = new QueueMetrics("shared");
+		new FastQueue<Long>(4, WaitStrategy.yielding(), ShardLayout.atomic(), metrics);
+		new FastQueue<Long>(4, WaitStrategy.yielding(), ShardLayout.atomic(), metrics);
+	}
+
+	@Test
+	public void waitingConsumersAndJmx() throws Exception {
+		final QueueMetrics metrics = new QueueMetrics("jmx-test").register();
+		try {
+			final FastBlockingQueue<Long> queue = new FastBlockingQueue<Long>(16, WaitStrategy.blocking(),
+					ShardLayout.atomic(), metrics);
+			final Thread consumer = new Thread() {
+				@Override
+				public void run() {
+					try {
+						queue.take();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			};
+			consumer.start();
+			final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (metrics.getWaitingConsumers() == 0 && System.nanoTime() < deadline) {
+				Thread.sleep(1);
+			}
+			assertEquals(1, metrics.getWaitingConsumers());
+
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName name = new ObjectName("com.gaea.concurrent:type=FastQueue,name=\"jmx-test\"");
+			assertEquals(1L, server.getAttribute(name, "WaitingConsumers"));
+			assertEquals(16, server.getAttribute(name, "Capacity"));
+
+			queue.put(1L);
+			consumer.join(5000);
+			assertEquals(0, metrics.getWaitingConsumers());
+			assertEquals(1L, server.getAttribute(name, "Polls"));
+			assertEquals(1, metrics.getConsumerWaits());
+		} finally {
+			metrics.unregister();
+		}
+		assertFalse(ManagementFactory.getPlatformMBeanServer()
+				.isRegistered(new ObjectName("com.gaea.concurrent:type=FastQueue,name=\"jmx-test\"")));
+	}
+}
@@ -0,0 +1,89 @@
+package demo;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.gaea.concurrent.FastBlockingQueue;
+import com.gaea.concurrent.WaitStrategy;
+
+/**
+ * 各等待策略下 put/take 不丢失、不重复元素
+ *
+ * @author zhenyu.yin
+ *
+ */
+public class WaitStrategyTest {
+
+	// 生产/消费线程数量
+	public int threadNum = 4;
+
+	// 每个生产线程写入数量
+	public int writeNum = 200000;
+
+	@Test
+	public void busySpin() throws InterruptedException {
+		run(new FastBlockingQueue<Long>(1024, WaitStrategy.busySpin()));
+	}
+
+	@Test
+	public void yielding() throws InterruptedException {
+		run(new FastBlockingQueue<Long>(1024, WaitStrategy.yielding()));
+	}
+
+	@Test
+	public void parking() throws InterruptedException {
+		run(new FastBlockingQueue<Long>(1024, WaitStrategy.parking()));
+	}
+
+	@Test
+	public void blocking() throws InterruptedException {
+		run(new FastBlockingQueue<Long>(1024, WaitStrategy.blocking()));
+	}
+
+	public void run(final BlockingQueue<Long> queue) throws InterruptedException {
+		final AtomicLong sum = new AtomicLong();
+		final List<Thread> ts = new ArrayList<Thread>();
+		for (int i = 0; i < threadNum; i++) {
+			final int id = i;
+			ts.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (long l = 1; l <= writeNum; l++) {
+							queue.put(id * (long) writeNum + l);
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+			ts.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int l = 0; l < writeNum; l++) {
+							sum.addAndGet(queue.take());
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+		}
+		for (Thread t : ts) {
+			t.start();
+		}
+		for (Thread t : ts) {
+			t.join();
+		}
+		final long n = (long) threadNum * writeNum;
+		assertEquals(n * (n + 1) / 2, sum.get());
+		assertEquals(0, queue.size());
+	}
+}